@@ -0,0 +1,44 @@
+package app.bench;
+
+import app.builder.BuilderJson;
+import app.model.CorrectionReceipt;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сборка json чека: дерево ObjectNode в строку против потокового JsonGenerator в байты.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BuilderJsonBenchmark {
+    private final BuilderJson builder = new BuilderJson(new ObjectMapper());
+    private final CorrectionReceipt receipt = new CorrectionReceipt("pk_1", "7700000001", 0, 1,
+            "2025-01-01", "N12345", 100.5,
+            List.of(new CorrectionReceipt.Item("Позиция \"особая\" 12345", "100.5", "1", "100.5", 1,
+                    "https://example.ru", "г. Москва, ул. Примерная, д. 1")));
+
+    @Benchmark
+    public String buildJSON() throws Exception {
+        return builder.buildJSON(receipt);
+    }
+
+    @Benchmark
+    public byte[] writeJSON() throws Exception {
+        return builder.writeJSON(receipt);
+    }
+}
@@ -0,0 +1,90 @@
+package app.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Учебный прогон для AppCDS: запускает собранный jar против заглушки
+ * с -XX:ArchiveClassesAtExit, классы этого прогона попадают в архив.
+ * Запуск: java -cp benchmarks.jar app.bench.CdsTraining путь/к/all.jar путь/к/архиву.jsa
+ * или mvn -f benchmarks/pom.xml package -Pcds
+ */
+public class CdsTraining {
+    private CdsTraining() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) throw new IllegalArgumentException("Ожидается: путь к jar и путь к архиву");
+        Path jar = Paths.get(args[0]);
+        Path archive = Paths.get(args[1]);
+        Files.deleteIfExists(archive);
+
+        StubServer.Config stubConfig = new StubServer.Config();
+        stubConfig.latencyMs = 5;
+        stubConfig.rate429 = 0.02;
+        stubConfig.failureRate = 0.02;
+        try (StubServer stub = new StubServer(stubConfig)) {
+            Path config = writeConfig(stub, 2000, Files.createTempDirectory("tps-cds"));
+            Run run = run(jar, List.of("-XX:ArchiveClassesAtExit=" + archive), config);
+            if (run.exitCode != 0 || !Files.exists(archive)) {
+                System.out.println(run.output);
+                throw new IllegalStateException("Учебный прогон завершился с кодом " + run.exitCode);
+            }
+        }
+        System.out.println("CDS-архив записан: " + archive + " (" + Files.size(archive) / 1024 + " КБ)");
+    }
+
+    //Конфиг прогона по заглушке: книги из Workbooks, логи в dir
+    static Path writeConfig(StubServer stub, int rows, Path dir) throws IOException {
+        Properties p = new Properties();
+        p.setProperty("apiUrl", stub.url("/kkt/correction"));
+        p.setProperty("excelFile", Workbooks.receipts(rows, 20).toString());
+        p.setProperty("excelKeys", Workbooks.keys(20).toString());
+        p.setProperty("threads", "8");
+        p.setProperty("requestPerSeconds", "10000");
+        p.setProperty("burstSize", "100");
+        p.setProperty("maxRetries", "2");
+        p.setProperty("initialRetryMillis", "10");
+        p.setProperty("successLog", dir.resolve("success.log").toString());
+        p.setProperty("failedLog", dir.resolve("failed.log").toString());
+        p.setProperty("executor", "pipeline");
+        p.setProperty("progressSeconds", "0");
+        p.setProperty("queueStatsSeconds", "0");
+        Path config = dir.resolve("application.properties");
+        try (OutputStream out = Files.newOutputStream(config)) {
+            p.store(out, "CDS training");
+        }
+        return config;
+    }
+
+    //Запуск jar в отдельной JVM; вывод читается в UTF-8, чтобы разобрать строки лога
+    static Run run(Path jar, List<String> jvmOptions, Path config) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-Dfile.encoding=UTF-8");
+        command.addAll(jvmOptions);
+        command.add("-jar");
+        command.add(jar.toString());
+        command.add(config.toString());
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (InputStream in = process.getInputStream()) {
+            in.transferTo(output);
+        }
+        int exitCode = process.waitFor();
+        return new Run(exitCode, output.toString(StandardCharsets.UTF_8), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    record Run(int exitCode, String output, long wallMillis) {
+    }
+}
@@ -0,0 +1,158 @@
+package app.bench;
+
+import app.builder.BuilderJson;
+import app.job.ResultSink;
+import app.job.SendJob;
+import app.job.SendPipeline;
+import app.metrics.Metrics;
+import app.reader.Column;
+import app.reader.ExcelReader;
+import app.sender.CloudPaymentSender;
+import app.sender.MerchantGuards;
+import app.sender.MerchantRegistry;
+import app.sender.RetryBudget;
+import app.sender.RetryPolicy;
+import app.util.RateLimiterRegistry;
+import app.util.VirtualThreads;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.http.HttpClient;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Полный прогон файла через отправитель и заглушку API в том же процессе.
+ * Один замер - отправка всех rows строк в выбранном режиме,
+ * строк/с = rows / время замера. Параметры заглушки задают задержку и ошибки.
+ * Режим virtual - виртуальный поток на строку, не больше threads одновременно,
+ * как executor=virtual в приложении; запускается только на JDK 21+.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class EndToEndBenchmark {
+    private static final Column PUBLIC_ID = new Column("publicId");
+    private static final Column API_SECRET = new Column("apiSecret");
+
+    @Param({"fixed", "virtual", "async", "pipeline"})
+    public String mode;
+
+    @Param({"20"})
+    public long latencyMs;
+
+    @Param({"0", "0.05"})
+    public double rate429;
+
+    @Param({"5000"})
+    public int rows;
+
+    @Param({"32"})
+    public int threads;
+
+    private StubServer stub;
+    private ExcelReader reader;
+    private MerchantRegistry merchants;
+    private ScheduledExecutorService scheduler;
+    private ExecutorService executor;
+    private HttpClient httpClient;
+    private Path logs;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        if (mode.equals("virtual") && !VirtualThreads.isSupported()) {
+            throw new IllegalStateException("Режим virtual требует JDK 21+, текущая версия: " + Runtime.version());
+        }
+        StubServer.Config config = new StubServer.Config();
+        config.latencyMs = latencyMs;
+        config.rate429 = rate429;
+        config.failureRate = 0.01;
+        stub = new StubServer(config);
+
+        int merchantCount = 50;
+        reader = new ExcelReader(Workbooks.receipts(rows, merchantCount).toString());
+        merchants = new MerchantRegistry(stub.url("/kkt/correction"), Duration.ofSeconds(50));
+        new ExcelReader(Workbooks.keys(merchantCount).toString())
+                .readRows(row -> merchants.register(PUBLIC_ID.get(row), API_SECRET.get(row)));
+
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        executor = mode.equals("virtual") ? VirtualThreads.newPerTaskExecutor() : Executors.newFixedThreadPool(threads);
+        HttpClient.Builder http = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(20));
+        if (mode.equals("async")) http.executor(executor);
+        httpClient = http.build();
+        logs = Files.createTempDirectory("tps-e2e");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        stub.close();
+        scheduler.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public int sendFile() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        Metrics metrics = new Metrics();
+        RetryPolicy retryPolicy = new RetryPolicy(3, 50, 2_000, RetryPolicy.Jitter.FULL,
+                new RetryBudget(0.2, 100), metrics);
+        // Лимит частоты не должен быть узким местом: меряется сам отправитель
+        CloudPaymentSender sender = new CloudPaymentSender(httpClient, new RateLimiterRegistry(100_000, 100),
+                new MerchantGuards(20, 10, 0.5, 1_000, threads, 256, 2.0),
+                new BuilderJson(mapper), retryPolicy, mapper, scheduler, metrics);
+
+        try (ResultSink sink = new ResultSink(logs.resolve("success.log"), logs.resolve("failed.log"),
+                null, null, 512, 1000)) {
+            SendJob job = new SendJob(sender, merchants, sink, null, metrics);
+            switch (mode) {
+                case "async" -> {
+                    Semaphore inFlight = new Semaphore(threads * 8);
+                    job.read(reader, rows -> {
+                        inFlight.acquireUninterruptibly();
+                        job.processAsync(rows).whenComplete((ignored, error) -> inFlight.release());
+                    });
+                    inFlight.acquire(threads * 8);
+                }
+                case "pipeline" -> new SendPipeline(job, retryPolicy, 2, threads, threads * 10).run(reader, 0);
+                default -> {
+                    // Виртуальные потоки не ограничены, параллельность задает семафор на threads
+                    int permits = mode.equals("virtual") ? threads : threads * 10;
+                    Semaphore queued = new Semaphore(permits);
+                    job.read(reader, rows -> {
+                        queued.acquireUninterruptibly();
+                        executor.execute(() -> {
+                            try {
+                                job.process(rows);
+                            } finally {
+                                queued.release();
+                            }
+                        });
+                    });
+                    queued.acquire(permits);
+                }
+            }
+            return job.successCount();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package app.bench;
+
+import app.reader.ExcelReader;
+import app.reader.ExcelRow;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Чтение основного файла: весь лист в список и потоково без накопления.
+ * Один замер - один проход по файлу.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class ExcelReaderBenchmark {
+    @Param({"10000", "100000", "1000000"})
+    public int rows;
+
+    private ExcelReader reader;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        reader = new ExcelReader(Workbooks.receipts(rows, 300).toString());
+    }
+
+    @Benchmark
+    public List<ExcelRow> readAllRows() throws Exception {
+        return reader.readAllRows();
+    }
+
+    @Benchmark
+    public void readRows(Blackhole bh) throws Exception {
+        reader.readRows(bh::consume);
+    }
+}
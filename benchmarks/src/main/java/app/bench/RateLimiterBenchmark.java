@@ -0,0 +1,51 @@
+package app.bench;
+
+import app.util.RateLimiter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Накладные расходы RateLimiter под конкуренцией 8 потоков.
+ * Лимит выше достижимой частоты - меряется CAS и nanoTime, а не ожидание.
+ * С rps=1000 видно, насколько точно держится заданная частота.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class RateLimiterBenchmark {
+    @Param({"1000", "1000000000"})
+    public int rps;
+
+    private RateLimiter limiter;
+
+    @Setup
+    public void setup() {
+        limiter = new RateLimiter(rps, 8);
+    }
+
+    @Benchmark
+    public void acquire() throws InterruptedException {
+        limiter.acquire();
+    }
+
+    @Benchmark
+    public long reserve() {
+        return limiter.reserve();
+    }
+}
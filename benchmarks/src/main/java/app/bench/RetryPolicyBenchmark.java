@@ -0,0 +1,54 @@
+package app.bench;
+
+import app.sender.RetryBudget;
+import app.sender.RetryPolicy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Цена обертки RetryPolicy на успешной первой попытке и расчета паузы повтора.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RetryPolicyBenchmark {
+    private final RetryPolicy plain = new RetryPolicy(3, 100);
+    private final RetryPolicy budgeted = new RetryPolicy(3, 100, 30_000, RetryPolicy.Jitter.DECORRELATED,
+            new RetryBudget(0.2, 100), null);
+    private final RetryPolicy jittered = new RetryPolicy(3, 100, 30_000, RetryPolicy.Jitter.DECORRELATED,
+            null, null);
+    private final RetryPolicy.RetryableException error = new RetryPolicy.RetryableException("429");
+    private final Integer value = 42;
+
+    @Benchmark
+    public Integer baseline() {
+        return value;
+    }
+
+    @Benchmark
+    public Integer executeWithRetry() throws Exception {
+        return plain.executeWithRetry(() -> value);
+    }
+
+    @Benchmark
+    public Integer executeWithRetryBudget() throws Exception {
+        return budgeted.executeWithRetry(() -> value);
+    }
+
+    @Benchmark
+    public long nextDelayMillis() {
+        return jittered.nextDelayMillis(1, 100, error);
+    }
+}
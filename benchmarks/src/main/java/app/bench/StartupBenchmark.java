@@ -0,0 +1,64 @@
+package app.bench;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Время запуска jar с CDS-архивом и без него: время от старта JVM
+ * до первого ответа API (строка лога Main) и полное время процесса.
+ * Каждый вариант запускается runs раз на небольшом файле, печатаются медианы.
+ * Запуск: java -cp benchmarks.jar app.bench.StartupBenchmark all.jar архив.jsa [runs] [rows]
+ */
+public class StartupBenchmark {
+    private static final Pattern FIRST_RESPONSE = Pattern.compile("Первый ответ API через (\\d+) мс");
+
+    private StartupBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path jar = Paths.get(args[0]);
+        Path archive = Paths.get(args[1]);
+        int runs = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        int rows = args.length > 3 ? Integer.parseInt(args[3]) : 50;
+        if (!Files.exists(archive)) throw new IllegalArgumentException("Нет архива " + archive + ", сначала CdsTraining");
+
+        StubServer.Config stubConfig = new StubServer.Config();
+        stubConfig.latencyMs = 5;
+        try (StubServer stub = new StubServer(stubConfig)) {
+            Path config = CdsTraining.writeConfig(stub, rows, Files.createTempDirectory("tps-startup"));
+            // Прогрев файлового кэша ОС, чтобы первый вариант не платил за чтение jar с диска
+            CdsTraining.run(jar, List.of(), config);
+            measure("без CDS", jar, List.of("-Xshare:auto"), config, runs);
+            measure("с CDS", jar, List.of("-XX:SharedArchiveFile=" + archive), config, runs);
+        }
+    }
+
+    private static void measure(String name, Path jar, List<String> options, Path config, int runs) throws Exception {
+        List<Long> first = new ArrayList<>();
+        List<Long> wall = new ArrayList<>();
+        for (int i = 0; i < runs; i++) {
+            CdsTraining.Run run = CdsTraining.run(jar, options, config);
+            Matcher m = FIRST_RESPONSE.matcher(run.output());
+            if (run.exitCode() != 0 || !m.find()) {
+                System.out.println(run.output());
+                throw new IllegalStateException("Прогон " + name + " не дошел до первого ответа");
+            }
+            first.add(Long.parseLong(m.group(1)));
+            wall.add(run.wallMillis());
+        }
+        System.out.printf("%-8s первый ответ: медиана %d мс %s, процесс целиком: медиана %d мс%n",
+                name, median(first), first, median(wall));
+    }
+
+    private static long median(List<Long> values) {
+        List<Long> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        return sorted.get(sorted.size() / 2);
+    }
+}
@@ -0,0 +1,128 @@
+package app.bench;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Локальная заглушка API CloudPayments для бенчмарков и прогонов без боевого API.
+ * Отвечает на любой путь: задержка latencyMs, доля 429 и 5xx, доля Success:false.
+ * Запуск отдельно: java -cp benchmarks.jar app.bench.StubServer port=18080 latencyMs=20 rate429=0.05
+ */
+public class StubServer implements AutoCloseable {
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final AtomicLong requests = new AtomicLong();
+
+    public StubServer(Config config) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(config.port), 1024);
+        server.createContext("/", exchange -> {
+            try (InputStream in = exchange.getRequestBody()) {
+                in.readAllBytes();
+            }
+            long n = requests.incrementAndGet();
+            if (config.latencyMs > 0) {
+                try {
+                    Thread.sleep(config.latencyMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            double roll = random.nextDouble();
+            if (roll < config.rate429) {
+                if (config.retryAfterSeconds >= 0) {
+                    exchange.getResponseHeaders().add("Retry-After", Integer.toString(config.retryAfterSeconds));
+                }
+                exchange.sendResponseHeaders(429, -1);
+            } else if (roll < config.rate429 + config.rate5xx) {
+                exchange.sendResponseHeaders(503, -1);
+            } else {
+                boolean success = random.nextDouble() >= config.failureRate;
+                byte[] body = ("{\"Model\":{\"Id\":\"r" + n + "\",\"TransactionId\":" + n + "},\"Success\":"
+                        + success + ",\"Message\":" + (success ? "null" : "\"stub failure\"") + "}")
+                        .getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().add("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+            exchange.close();
+        });
+        // Потоки ответов переиспользуются, чтобы заглушка не тратила время на их создание
+        executor = Executors.newFixedThreadPool(256, r -> {
+            Thread thread = new Thread(r, "stub");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public String url(String path) {
+        return "http://localhost:" + server.getAddress().getPort() + path;
+    }
+
+    public long requests() {
+        return requests.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Config config = Config.parse(args);
+        StubServer stub = new StubServer(config);
+        System.out.println("Заглушка API запущена: " + stub.url("/kkt/correction") + " " + config);
+        Thread.currentThread().join();
+    }
+
+    /**
+     * port 0 - свободный порт. rate429, rate5xx и failureRate - доли от 0 до 1.
+     * retryAfterSeconds -1 - без заголовка Retry-After.
+     */
+    public static final class Config {
+        public int port = 0;
+        public long latencyMs = 20;
+        public double rate429 = 0;
+        public double rate5xx = 0;
+        public double failureRate = 0;
+        public int retryAfterSeconds = -1;
+
+        public static Config parse(String[] args) {
+            Config config = new Config();
+            for (String arg : args) {
+                String[] kv = arg.split("=", 2);
+                if (kv.length != 2) throw new IllegalArgumentException("Ожидается key=value: " + arg);
+                switch (kv[0]) {
+                    case "port" -> config.port = Integer.parseInt(kv[1]);
+                    case "latencyMs" -> config.latencyMs = Long.parseLong(kv[1]);
+                    case "rate429" -> config.rate429 = Double.parseDouble(kv[1]);
+                    case "rate5xx" -> config.rate5xx = Double.parseDouble(kv[1]);
+                    case "failureRate" -> config.failureRate = Double.parseDouble(kv[1]);
+                    case "retryAfterSeconds" -> config.retryAfterSeconds = Integer.parseInt(kv[1]);
+                    default -> throw new IllegalArgumentException("Неизвестный параметр: " + kv[0]);
+                }
+            }
+            return config;
+        }
+
+        @Override
+        public String toString() {
+            return "latencyMs=" + latencyMs + " rate429=" + rate429 + " rate5xx=" + rate5xx
+                    + " failureRate=" + failureRate + " retryAfterSeconds=" + retryAfterSeconds;
+        }
+    }
+}
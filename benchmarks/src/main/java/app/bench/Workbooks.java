@@ -0,0 +1,89 @@
+package app.bench;
+
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Генерация тестовых книг в формате основного файла и файла ключей.
+ * Книги кэшируются во временном каталоге: 1M строк пишется около минуты,
+ * и повторные запуски бенчмарков их не пересоздают.
+ */
+public final class Workbooks {
+    public static final String[] HEADER = {"publicId", "OrganizationInn", "TaxationSystem", "CorrectionReceiptType",
+            "CorrectionDate", "CorrectionNumber", "Amounts", "Label", "Price", "Quantity", "Amount",
+            "CorrectionType", "PaymentPlace", "PaymentAddress"};
+
+    private static final Path DIR = Paths.get(System.getProperty("java.io.tmpdir"), "tps-bench");
+
+    private Workbooks() {
+    }
+
+    //Основной файл на rows строк по merchants мерчантам
+    public static Path receipts(int rows, int merchants) throws IOException {
+        Path file = DIR.resolve("receipts-" + rows + "-" + merchants + ".xlsx");
+        if (Files.exists(file)) return file;
+        Files.createDirectories(DIR);
+        Path tmp = DIR.resolve(file.getFileName() + ".tmp");
+        try (SXSSFWorkbook wb = new SXSSFWorkbook(1000)) {
+            Sheet sheet = wb.createSheet();
+            Row header = sheet.createRow(0);
+            for (int i = 0; i < HEADER.length; i++) header.createCell(i).setCellValue(HEADER[i]);
+            for (int i = 1; i <= rows; i++) {
+                Row row = sheet.createRow(i);
+                int c = 0;
+                row.createCell(c++).setCellValue("pk_" + (i % merchants));
+                row.createCell(c++).setCellValue("7700000000" + (i % merchants));
+                row.createCell(c++).setCellValue(0);
+                row.createCell(c++).setCellValue(1);
+                row.createCell(c++).setCellValue("2025-01-01");
+                row.createCell(c++).setCellValue("N" + i);
+                row.createCell(c++).setCellValue(100.5);
+                row.createCell(c++).setCellValue("Позиция " + i);
+                row.createCell(c++).setCellValue(100.5);
+                row.createCell(c++).setCellValue(1);
+                row.createCell(c++).setCellValue(100.5);
+                row.createCell(c++).setCellValue(1);
+                row.createCell(c++).setCellValue("https://example.ru");
+                row.createCell(c).setCellValue("г. Москва, ул. Примерная, д. 1");
+            }
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                wb.write(out);
+            }
+            wb.dispose();
+        }
+        Files.move(tmp, file);
+        return file;
+    }
+
+    //Файл ключей: pk_i -> secret_i
+    public static Path keys(int merchants) throws IOException {
+        Path file = DIR.resolve("keys-" + merchants + ".xlsx");
+        if (Files.exists(file)) return file;
+        Files.createDirectories(DIR);
+        Path tmp = DIR.resolve(file.getFileName() + ".tmp");
+        try (SXSSFWorkbook wb = new SXSSFWorkbook(100)) {
+            Sheet sheet = wb.createSheet();
+            Row header = sheet.createRow(0);
+            header.createCell(0).setCellValue("publicId");
+            header.createCell(1).setCellValue("apiSecret");
+            for (int i = 0; i < merchants; i++) {
+                Row row = sheet.createRow(i + 1);
+                row.createCell(0).setCellValue("pk_" + i);
+                row.createCell(1).setCellValue("secret_" + i);
+            }
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                wb.write(out);
+            }
+            wb.dispose();
+        }
+        Files.move(tmp, file);
+        return file;
+    }
+}
@@ -3,18 +3,45 @@ package app;
 
 import app.builder.BuilderJson;
 import app.getter.CloudPaymentsGetInfo;
+import app.getter.PaymentCache;
+import app.getter.PaymentLookup;
+import app.job.FairSchedule;
+import app.job.FairSender;
+import app.job.ReceiptPriority;
+import app.job.ResultSink;
+import app.job.SendJob;
+import app.job.SendPipeline;
+import app.journal.DedupIndex;
+import app.journal.SendJournal;
+import app.metrics.Histogram;
+import app.metrics.Metrics;
+import app.metrics.MetricsServer;
+import app.metrics.ProgressLog;
+import app.model.CorrectionReceipt;
+import app.reader.Column;
 import app.reader.ExcelReader;
+import app.sender.ApiResponse;
 import app.sender.CloudPaymentSender;
+import app.sender.MerchantGuards;
+import app.sender.MerchantRegistry;
+import app.sender.RetryBudget;
 import app.sender.RetryPolicy;
+import app.service.InboxService;
+import app.shard.ShardCoordinator;
+import app.spool.SpoolReader;
+import app.spool.SpoolWriter;
+import app.util.Closer;
 import app.util.RateLimiter;
-import app.util.SendResult;
+import app.util.RateLimiterRegistry;
+import app.util.VirtualThreads;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
 import java.net.http.HttpClient;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
@@ -23,9 +50,12 @@ import java.nio.file.Paths;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -34,134 +64,607 @@ import java.util.concurrent.atomic.AtomicInteger;
  */
 public class Main {
     private static final Logger log = LoggerFactory.getLogger(Main.class);
+    private static final Column PUBLIC_ID = new Column("publicId");
+    private static final Column API_SECRET = new Column("apiSecret");
 
+    private static final String DEFAULT_CONFIG = "src/main/resources/application.properties";
+    // Путь к конфигу, если он не передан первым аргументом
+    private static final String CONFIG_ENV = "TPS_CONFIG";
+
+    /**
+     * Запуск: java -jar TicketPostSender-all.jar [путь к конфигу] [ключ=значение ...]
+     * Без пути конфиг берется из переменной TPS_CONFIG или из src/main/resources.
+     * Пары ключ=значение переопределяют параметры конфига.
+     */
     public static void main(String[] args) throws Exception {
+        // Jackson загружает несколько сотен классов: пока основной поток читает конфиг
+        // и ключи через POI, ObjectMapper создается в фоне
+        CompletableFuture<ObjectMapper> mapperInit = CompletableFuture.supplyAsync(Main::newMapper);
 
         // получение данных из конфига
-        Properties properties = new Properties();
-        Path cfgFile = Paths.get("src/main/resources/application.properties");
+        Path cfgFile = configPath(args, System.getenv(CONFIG_ENV));
         if (!Files.exists(cfgFile)) {
-            System.out.println("Не найден конфигурационный файл");
+            System.out.println("Не найден конфигурационный файл " + cfgFile);
             System.exit(1);
         }
-
-        try (InputStream stream = Files.newInputStream(cfgFile)) {
-            properties.load(stream);
+        Properties properties = loadConfig(cfgFile, args);
+        // Режим массовой сверки платежей вместо отправки чеков
+        String mode = properties.getProperty("mode", "send");
+        if (mode.equals("lookup")) {
+            lookup(properties);
+            return;
+        }
+        // shard - разбор книги координатором и отправка процессами-исполнителями по шардам publicId,
+        // merge - слияние результатов исполнителей, запущенных отдельно
+        // service - служба, которая обрабатывает книги из inboxDir по мере появления
+        // compile - проверка файла и запись готовых тел запросов в spoolFile без отправки,
+        // spool - отправка из spoolFile без разбора эксель и сборки json
+        String spoolFile = properties.getProperty("spoolFile");
+        if ((mode.equals("compile") || mode.equals("spool")) && (spoolFile == null || spoolFile.isBlank())) {
+            System.out.println("Для режима " + mode + " нужен параметр spoolFile");
+            System.exit(1);
         }
 
         // Параметры
         String url = properties.getProperty("apiUrl");
+        // Файл, каталог с книгами или маска имени, например data/receipts-*.xlsx
         String excelFile = properties.getProperty("excelFile");
+        // all - все листы книг, first - только первый; листы разбираются параллельно
+        boolean allSheets = properties.getProperty("excelSheets", "all").equals("all");
+        int parserThreads = Integer.parseInt(properties.getProperty("parserThreads",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
         String excelKeys = properties.getProperty("excelKeys");
         int threads = Integer.parseInt(properties.getProperty("threads"));
         int requestPerSeconds = Integer.parseInt(properties.getProperty("requestPerSeconds"));
+        int burstSize = Integer.parseInt(properties.getProperty("burstSize", "1"));
         int maxRetries = Integer.parseInt(properties.getProperty("maxRetries"));
         int initialRetryMillis = Integer.parseInt(properties.getProperty("initialRetryMillis"));
+        // Потолок паузы, разброс (none | full | decorrelated) и бюджет повторов
+        int maxRetryMillis = Integer.parseInt(properties.getProperty("maxRetryMillis", "30000"));
+        String retryJitter = properties.getProperty("retryJitter", "full");
+        double retryBudgetRatio = Double.parseDouble(properties.getProperty("retryBudgetRatio", "0.2"));
+        int retryBudgetMax = Integer.parseInt(properties.getProperty("retryBudgetMax", "100"));
+        // Автомат отключения мерчанта: окно последних запросов, доля ошибок и пауза
+        int breakerWindow = Integer.parseInt(properties.getProperty("breakerWindow", "20"));
+        int breakerMinCalls = Integer.parseInt(properties.getProperty("breakerMinCalls", "10"));
+        double breakerFailureRate = Double.parseDouble(properties.getProperty("breakerFailureRate", "0.5"));
+        int breakerOpenMillis = Integer.parseInt(properties.getProperty("breakerOpenMillis", "30000"));
+        // Адаптивный предел одновременных запросов на мерчанта
+        int limitMax = Integer.parseInt(properties.getProperty("limitMax", "64"));
+        double limitLatencyTolerance = Double.parseDouble(properties.getProperty("limitLatencyTolerance", "2.0"));
 
         String successLog = properties.getProperty("successLog");
         String failedLog = properties.getProperty("failedLog");
+        // Журнал для продолжения после сбоя, без него отправляется весь файл
+        String journalFile = properties.getProperty("journalFile");
+        int journalBatch = Integer.parseInt(properties.getProperty("journalBatch", "256"));
+        int journalFlushMillis = Integer.parseInt(properties.getProperty("journalFlushMillis", "1000"));
+        // Индекс отправленных чеков между запусками: дубли по ИНН, номеру, дате и сумме не отправляются.
+        // Файл занимает dedupCapacity * 8 байт, заполнять больше чем на 90% нельзя
+        String dedupFile = properties.getProperty("dedupFile");
+        long dedupCapacity = Long.parseLong(properties.getProperty("dedupCapacity", "16777216"));
+        // Идущие подряд строки одного чека (ИНН + номер) уходят одним запросом, не больше groupMaxItems позиций.
+        // 1 - каждая строка отдельный чек
+        int groupMaxItems = Integer.parseInt(properties.getProperty("groupMaxItems", "1"));
+        // Структурированный файл результатов (.jsonl или .csv), необязательный
+        String resultsFile = properties.getProperty("resultsFile");
+        int resultsBatch = Integer.parseInt(properties.getProperty("resultsBatch", "512"));
+        int resultsFlushMillis = Integer.parseInt(properties.getProperty("resultsFlushMillis", "1000"));
+        // Тело ответа API в логах: all - всегда, failed - только у неуспешных, none - только Success, Id и Message
+        ApiResponse.Keep keepBody = ApiResponse.Keep.valueOf(properties.getProperty("responseBody", "all").toUpperCase());
 
-        // погрузка файла Excel
-        ExcelReader reader = new ExcelReader(excelFile);
-        List<Map<String, String>> rows = reader.readAllRows();
-        log.info("Найдено {} чеков в основном файле", rows.size());
-        // Подгрузка ключей из второго эксель
-        ExcelReader keysReader = new ExcelReader(excelKeys);
-        List<Map<String, String>> keyRows = keysReader.readAllRows();
-        log.info("Найдено {} строк с ключами", keyRows.size());
-
-        // Преобразуем список ключей в Map для быстрого доступа
-        Map<String, String> publicIdToSecret = new HashMap<>();
-        for (Map<String, String> row : keyRows) {
-            String pub = row.get("publicId");
-            String secret = row.get("apiSecret");
-            if (pub != null && secret != null) {
-                publicIdToSecret.put(pub.trim(), secret.trim());
-            }
+        // Сколько строк может ждать отправки, пока чтение файла идет дальше
+        int queueSize = Integer.parseInt(properties.getProperty("queueSize", String.valueOf(threads * 10)));
+
+        // Подгрузка ключей из второго эксель: по каждому мерчанту сразу готовится прототип запроса
+        MerchantRegistry merchants = new MerchantRegistry(url, Duration.ofSeconds(50));
+        loadKeys(merchants, excelKeys);
+
+        // Режим отправки: fixed - пул потоков с блокирующими запросами,
+        // virtual - виртуальный поток на строку, не больше threads одновременно (JDK 21+),
+        // async - неблокирующие запросы с ограниченным окном одновременных отправок,
+        // pipeline - конвейер с очередями между этапами чтения, сборки json, отправки и записи
+        String executorMode = properties.getProperty("executor", "fixed");
+        if (executorMode.equals("virtual") && !VirtualThreads.isSupported()) {
+            log.warn("Виртуальные потоки недоступны на JDK {}, используется режим fixed", Runtime.version());
+            executorMode = "fixed";
+        }
+        int maxInFlight = Integer.parseInt(properties.getProperty("maxInFlight", "200"));
+        int buildThreads = Integer.parseInt(properties.getProperty("buildThreads", "2"));
+        int queueStatsSeconds = Integer.parseInt(properties.getProperty("queueStatsSeconds", "10"));
+        // fifo - чеки уходят в порядке файла, fair - по кругу мерчантов с приоритетом (режимы fixed, virtual, pipeline).
+        // Приоритет - колонка priorityColumn или маска книги filePriority=urgent-*.xlsx:10,
+        // вес мерчанта в круге - merchantWeights=publicId:3
+        String scheduling = properties.getProperty("scheduling", "fifo");
+        int fairQueueSize = Integer.parseInt(properties.getProperty("fairQueueSize",
+                String.valueOf(Math.max(queueSize, 10_000))));
+        String priorityColumn = properties.getProperty("priorityColumn");
+        String filePriority = properties.getProperty("filePriority");
+        Map<String, Integer> merchantWeights = parseWeights(properties.getProperty("merchantWeights"));
+        if (scheduling.equals("fair") && executorMode.equals("async")) {
+            log.warn("Режим async не поддерживает scheduling=fair, чеки идут в порядке файла");
+            scheduling = "fifo";
         }
+        // Строка прогресса в лог и эндпоинт /metrics для Prometheus (0 - выключен)
+        int progressSeconds = Integer.parseInt(properties.getProperty("progressSeconds", "30"));
+        int metricsPort = Integer.parseInt(properties.getProperty("metricsPort", "0"));
 
         // HTTP формирование запроса и отправка в нескольких потоках из конфигурации
-        HttpClient httpClient = HttpClient.newBuilder()
-                .connectTimeout(Duration.ofSeconds(20))
-                .build();
+        ExecutorService executor = executorMode.equals("virtual")
+                ? VirtualThreads.newPerTaskExecutor()
+                : Executors.newFixedThreadPool(threads);
+        HttpClient.Builder httpBuilder = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(20));
+        if (executorMode.equals("async")) httpBuilder.executor(executor);
+        HttpClient httpClient = httpBuilder.build();
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
 
-        ExecutorService executor = Executors.newFixedThreadPool(threads);
-        ObjectMapper mapper = new ObjectMapper();
+        ObjectMapper mapper = mapperInit.join();
         BuilderJson builderJson = new BuilderJson(mapper);
-        RateLimiter limiter = new RateLimiter(requestPerSeconds);
-        RetryPolicy retryPolicy = new RetryPolicy(maxRetries, initialRetryMillis);
+        // Лимит запросов считается отдельно для каждого publicId
+        RateLimiterRegistry limiters = new RateLimiterRegistry(requestPerSeconds, burstSize);
+        Metrics metrics = new Metrics();
+        RetryPolicy retryPolicy = new RetryPolicy(maxRetries, initialRetryMillis, maxRetryMillis,
+                RetryPolicy.Jitter.valueOf(retryJitter.toUpperCase()),
+                new RetryBudget(retryBudgetRatio, retryBudgetMax), metrics);
+
+        // Стартовый предел - threads, дальше подбирается по задержке и 429
+        MerchantGuards guards = new MerchantGuards(breakerWindow, breakerMinCalls, breakerFailureRate,
+                breakerOpenMillis, threads, limitMax, limitLatencyTolerance);
 
         CloudPaymentSender sender = new CloudPaymentSender(
-                httpClient, url, limiter, builderJson, retryPolicy, mapper
+                httpClient, limiters, guards, builderJson, retryPolicy, mapper, scheduler, metrics, keepBody
         );
+        FairSchedule fair = scheduling.equals("fair")
+                ? new FairSchedule(fairQueueSize, ReceiptPriority.parse(priorityColumn, filePriority),
+                sender::rateWaitNanos, id -> merchantWeights.getOrDefault(id, 1))
+                : null;
+        // Общая очередь и обработчики на весь запуск: в режиме service через нее идут все книги
+        FairSender fairSender = fair != null && (executorMode.equals("fixed") || executorMode.equals("virtual"))
+                && (mode.equals("send") || mode.equals("service"))
+                ? new FairSender(executor, threads, fair) : null;
+        if (fairSender != null && queueStatsSeconds > 0) {
+            scheduler.scheduleAtFixedRate(() -> log.info("Справедливая очередь: чеков {}, мерчантов {}",
+                    fairSender.depth(), fairSender.keys()), queueStatsSeconds, queueStatsSeconds, TimeUnit.SECONDS);
+        }
 
-        AtomicInteger successCount = new AtomicInteger(0);
-        AtomicInteger failedCount = new AtomicInteger(0);
         Instant startTime = Instant.now();
-        try (BufferedWriter successWriter = Files.newBufferedWriter(Paths.get(successLog));
-             BufferedWriter failedWriter = Files.newBufferedWriter(Paths.get(failedLog))) {
-
-            List<Future<?>> futures = new ArrayList<>();
-
-            for (Map<String, String> row : rows) {
-                futures.add(executor.submit(() -> {
-                    try {
-                        String publicId = row.get("publicId");
-                        String apiSecret = publicIdToSecret.get(publicId);
-
-                        if (apiSecret == null) {
-                            log.warn("Не найден apiSecret для publicId: {}", publicId);
-                            synchronized (failedWriter) {
-                                failedWriter.write("Нет ключа для publicId=" + publicId);
-                                failedWriter.newLine();
-                            }
-                            failedCount.incrementAndGet();
-                            return;
-                        }
-
-                        SendResult result = sender.sendCorrection(row, publicId, apiSecret);
-
-                        synchronized (successWriter) {
-                            if (result.success) {
-                                successWriter.write("HTTP " + result.httpCode + " " + result.responseBody);
-                                successWriter.newLine();
-                                successCount.incrementAndGet();
-                            } else {
-                                failedWriter.write("HTTP " + result.httpCode + " " + result.responseBody);
-                                failedWriter.newLine();
-                                failedCount.incrementAndGet();
-                            }
-                        }
-                    } catch (Exception e) {
-                        synchronized (failedWriter) {
-                            try {
-                                failedWriter.write(row.toString());
-                                failedWriter.newLine();
-                            } catch (IOException ignored) {}
+        int successCount;
+        int failedCount;
+        int skippedCount;
+        int duplicateCount;
+        long compiledCount = 0;
+        SendJournal journal = journalFile == null || journalFile.isBlank() ? null
+                : new SendJournal(Paths.get(journalFile), journalBatch, journalFlushMillis);
+        if (journal != null) log.info("Журнал {}: уже отправлено {} чеков", journalFile, journal.doneCount());
+        DedupIndex dedup = dedupFile == null || dedupFile.isBlank() ? null
+                : new DedupIndex(Paths.get(dedupFile), dedupCapacity);
+        if (dedup != null) {
+            log.info("Индекс дублей {}: {} чеков, емкость {}", dedupFile, dedup.size(), dedup.capacity());
+        }
+        Path resultsPath = resultsFile == null || resultsFile.isBlank() ? null : Paths.get(resultsFile);
+        if (mode.equals("service")) {
+            String sendMode = executorMode;
+            // Каждая книга - отдельный SendJob со своими логами поверх общих отправителя, журнала и индекса дублей
+            InboxService.FileHandler handler = (workbook, logs) -> {
+                Instant fileStart = Instant.now();
+                try (ResultSink sink = new ResultSink(logs.success(), logs.failed(), logs.results(), journal,
+                        resultsBatch, resultsFlushMillis)) {
+                    SendJob job = new SendJob(sender, merchants, sink, journal, dedup, groupMaxItems, metrics);
+                    int count = send(new ExcelReader(List.of(workbook), allSheets, parserThreads), job, sendMode,
+                            executor, retryPolicy, threads, buildThreads, queueSize, maxInFlight, 0,
+                            fair, fairSender);
+                    log.info("Книга {}: чеков {}, успешно {}, ошибки {}, пропущено по журналу {}, дублей {}, время {}",
+                            workbook.getFileName(), count, job.successCount(), job.failedCount(),
+                            job.skippedCount(), job.duplicateCount(),
+                            ProgressLog.format(Duration.between(fileStart, Instant.now())));
+                }
+            };
+            try (Closer closer = new Closer()) {
+                closer.register(journal);
+                closer.register(dedup);
+                if (metricsPort > 0) closer.register(new MetricsServer(metricsPort, metrics));
+                if (progressSeconds > 0) {
+                    scheduler.scheduleAtFixedRate(ProgressLog.rows(metrics, -1),
+                            progressSeconds, progressSeconds, TimeUnit.SECONDS);
+                }
+                serve(properties, excelKeys, merchants, handler);
+            } finally {
+                if (fairSender != null) fairSender.close();
+                executor.shutdownNow();
+                scheduler.shutdownNow();
+            }
+            log.info("Служба остановлена. Успешно: {}, Ошибки: {}", metrics.successCount(), metrics.failedCount());
+            return;
+        }
+        if (mode.equals("shard") || mode.equals("merge")) {
+            ShardCoordinator coordinator = new ShardCoordinator(Paths.get(properties.getProperty("shardDir", "shards")),
+                    Integer.parseInt(properties.getProperty("shards", "2")));
+            String resultsExtension = resultsExtension(resultsFile);
+            try (Closer closer = new Closer()) {
+                closer.register(journal);
+                closer.register(dedup);
+                if (mode.equals("shard")) {
+                    coordinator.clean();
+                    ExcelReader reader = new ExcelReader(ExcelReader.resolve(excelFile), allSheets, parserThreads);
+                    log.info("Книг для чтения: {} {}", reader.files().size(), reader.files());
+                    List<SpoolWriter> spools = new ArrayList<>();
+                    for (int shard = 0; shard < coordinator.shards(); shard++) {
+                        spools.add(new SpoolWriter(coordinator.spool(shard)));
+                    }
+                    // Отклоненные при разборе строки попадут в общий лог ошибок при слиянии
+                    try (ResultSink sink = new ResultSink(coordinator.rejected().resolveSibling("compile.log"),
+                            coordinator.rejected(), null, journal, resultsBatch, resultsFlushMillis)) {
+                        SendJob job = new SendJob(sender, merchants, sink, journal, dedup, groupMaxItems, metrics);
+                        long compiled = compile(reader, job, builderJson, spools);
+                        log.info("Разложено по {} шардам: {} чеков {}, отклонено {}, пропущено по журналу {}, дублей {}",
+                                coordinator.shards(), compiled, spools.stream().map(SpoolWriter::count).toList(),
+                                job.failedCount(), job.skippedCount(), job.duplicateCount());
+                    }
+                    // shardWorkers=none - исполнители запускаются отдельно, затем mode=merge
+                    if (properties.getProperty("shardWorkers", "local").equals("none")) {
+                        for (int shard = 0; shard < coordinator.shards(); shard++) {
+                            log.info("Шард {}: java -jar TicketPostSender-all.jar {} {}", shard, cfgFile,
+                                    String.join(" ", coordinator.workerArgs(shard, resultsExtension, metricsPort)));
                         }
-                        failedCount.incrementAndGet();
-                        log.error("Ошибка при обработке строки: {}", row, e);
+                        log.info("После завершения исполнителей запустите слияние с mode=merge");
+                        return;
                     }
-                }));
+                    int failedWorkers = coordinator.runLocal(
+                            workerCommand(cfgFile, args, properties.getProperty("workerJvmOptions")),
+                            resultsExtension, metricsPort);
+                    if (failedWorkers > 0) log.warn("Упавших исполнителей: {}, сливается то, что они успели", failedWorkers);
+                }
+                ShardCoordinator.Totals totals = coordinator.merge(Paths.get(successLog), Paths.get(failedLog),
+                        resultsPath, journal, dedup);
+                log.info("Готово. Успешно: {}, Ошибки: {}, Не отправлено: {}",
+                        totals.success(), totals.failed(), totals.notSent());
+                log.info("Время выполнения: " + ProgressLog.format(Duration.between(startTime, Instant.now())));
+            } finally {
+                executor.shutdownNow();
+                scheduler.shutdownNow();
             }
-
-            for (Future<?> f : futures) {
-                try {
-                    f.get();
-                } catch (Exception ignored) {}
+            return;
+        }
+        try (Closer closer = new Closer()) {
+            closer.register(journal);
+            closer.register(dedup);
+            if (metricsPort > 0) closer.register(new MetricsServer(metricsPort, metrics));
+            // Писатель результатов закрывается первым: он дописывает журнал
+            ResultSink sink = closer.register(new ResultSink(Paths.get(successLog), Paths.get(failedLog), resultsPath,
+                    journal, resultsBatch, resultsFlushMillis));
+            SendJob job = new SendJob(sender, merchants, sink, journal, dedup, groupMaxItems, metrics);
+            int rowsCount;
+            if (mode.equals("spool")) {
+                SpoolReader spool = new SpoolReader(Paths.get(spoolFile));
+                if (progressSeconds > 0) {
+                    scheduler.scheduleAtFixedRate(ProgressLog.receipts(metrics, spool.count()),
+                            progressSeconds, progressSeconds, TimeUnit.SECONDS);
+                }
+                // Тела уже готовы, поэтому для любого режима executor отправка идет пулом потоков
+                rowsCount = sendSpool(spool, job, executor, executorMode.equals("virtual") ? threads : queueSize);
+            } else {
+                ExcelReader reader = new ExcelReader(ExcelReader.resolve(excelFile), allSheets, parserThreads);
+                log.info("Книг для чтения: {} {}", reader.files().size(), reader.files());
+                if (progressSeconds > 0 && !mode.equals("compile")) {
+                    // Оценка числа строк по размеру листа нужна только для ETA
+                    scheduler.scheduleAtFixedRate(ProgressLog.rows(metrics, reader.estimateRows()),
+                            progressSeconds, progressSeconds, TimeUnit.SECONDS);
+                }
+                if (mode.equals("compile")) {
+                    compiledCount = compile(reader, job, builderJson, List.of(new SpoolWriter(Paths.get(spoolFile))));
+                    rowsCount = (int) compiledCount + job.failedCount() + job.skippedCount();
+                } else {
+                    rowsCount = send(reader, job, executorMode, executor, retryPolicy, threads, buildThreads,
+                            queueSize, maxInFlight, queueStatsSeconds, fair, fairSender);
+                }
             }
+            log.info("Найдено {} чеков в основном файле", rowsCount);
+            successCount = job.successCount();
+            failedCount = job.failedCount();
+            skippedCount = job.skippedCount();
+            duplicateCount = job.duplicateCount();
+        } finally {
+            if (fairSender != null) fairSender.close();
+            executor.shutdownNow();
+            scheduler.shutdownNow();
         }
 
-        executor.shutdown();
         Instant endTime = Instant.now();
         Duration duration = Duration.between(startTime, endTime);
-        long hours = duration.toHours();
-        long minutes = duration.toMinutes();
-        long seconds = duration.toSeconds();
 
-        String formatted = String.format("%02d:%02d:%02d", hours, minutes, seconds);
-        log.info("Готово. Успешно: {}, Ошибки: {}", successCount.get(), failedCount.get());
+        String formatted = ProgressLog.format(duration);
+        if (mode.equals("compile")) {
+            log.info("Готово. Записано в {}: {}, Отклонено: {}, Пропущено по журналу: {}, Дублей: {}",
+                    spoolFile, compiledCount, failedCount, skippedCount, duplicateCount);
+            log.info("Время выполнения: " + formatted);
+            return;
+        }
+        log.info("Готово. Успешно: {}, Ошибки: {}, Пропущено по журналу: {}, Дублей: {}",
+                successCount, failedCount, skippedCount, duplicateCount);
         log.info("Время выполнения: " + formatted);
+        Histogram rowTime = metrics.stage(Metrics.Stage.ROW);
+        log.info("Время отправки строки: p50 {} мс, p99 {} мс, max {} мс",
+                rowTime.percentile(0.5) / 1000, rowTime.percentile(0.99) / 1000, rowTime.max() / 1000);
+        log.info("Пределы параллельности по мерчантам: {}", guards.describe());
+        if (metrics.firstResponseMillis() > 0) {
+            // Время до первого ответа от старта JVM: по нему видно влияние CDS-архива на запуск
+            log.info("Первый ответ API через {} мс после запуска JVM",
+                    metrics.firstResponseMillis() - ManagementFactory.getRuntimeMXBean().getStartTime());
+        }
+    }
+
+    /**
+     * Режим service: книги из inboxDir обрабатываются по мере появления, не больше
+     * inboxThreads одновременно, и переносятся в doneDir или failedDir вместе с логами.
+     * Работает до остановки процесса (SIGTERM, Ctrl+C).
+     */
+    private static void serve(Properties properties, String excelKeys, MerchantRegistry merchants,
+                              InboxService.FileHandler handler) throws Exception {
+        Path inbox = Paths.get(properties.getProperty("inboxDir"));
+        Path done = Paths.get(properties.getProperty("doneDir", inbox.resolve("done").toString()));
+        Path failed = Paths.get(properties.getProperty("failedDir", inbox.resolve("failed").toString()));
+        int inboxThreads = Integer.parseInt(properties.getProperty("inboxThreads", "2"));
+        // Сколько книга не должна меняться, чтобы считаться скопированной целиком
+        long settleMillis = Long.parseLong(properties.getProperty("inboxSettleMillis", "2000"));
+        int stopSeconds = Integer.parseInt(properties.getProperty("serviceStopSeconds", "60"));
+        // Для каждой книги пишется свой файл результатов, от resultsFile берется только расширение
+        String resultsExtension = resultsExtension(properties.getProperty("resultsFile"));
+
+        InboxService service = new InboxService(inbox, done, failed, Paths.get(excelKeys),
+                () -> loadKeys(merchants, excelKeys), handler, inboxThreads, settleMillis, resultsExtension);
+        // Хук ждет основной поток: иначе JVM завершится до закрытия журнала и индекса дублей
+        Thread mainThread = Thread.currentThread();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            log.info("Остановка службы, ожидание начатых книг");
+            try {
+                service.stop(Duration.ofSeconds(stopSeconds));
+                mainThread.join(TimeUnit.SECONDS.toMillis(30));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "service-stop"));
+        service.run();
+    }
+
+    /**
+     * Чтение книги ключей в реестр. Книга читается целиком до изменения реестра,
+     * поэтому при ошибке чтения остаются прежние ключи. Мерчанты, которых
+     * больше нет в книге, удаляются.
+     */
+    private static void loadKeys(MerchantRegistry merchants, String excelKeys) throws IOException {
+        Map<String, String> keys = new HashMap<>();
+        AtomicInteger keyRows = new AtomicInteger(0);
+        new ExcelReader(excelKeys).readRows(row -> {
+            keyRows.incrementAndGet();
+            String pub = PUBLIC_ID.get(row);
+            String secret = API_SECRET.get(row);
+            if (!pub.isEmpty() && !secret.isEmpty()) {
+                keys.put(pub.trim(), secret.trim());
+            }
+        });
+        keys.forEach(merchants::register);
+        merchants.retainAll(keys.keySet());
+        log.info("Найдено {} строк с ключами, мерчантов: {}", keyRows.get(), merchants.size());
+    }
+
+    //Расширение файла результатов для файлов по книгам и шардам, null - без результатов
+    private static String resultsExtension(String resultsFile) {
+        if (resultsFile == null || resultsFile.isBlank()) return null;
+        return resultsFile.toLowerCase().endsWith(".csv") ? ".csv" : ".jsonl";
+    }
+
+    //Команда исполнителя шарда: та же JVM, classpath, конфиг и переопределения координатора
+    private static List<String> workerCommand(Path cfgFile, String[] args, String jvmOptions) {
+        List<String> command = new ArrayList<>();
+        command.add(ProcessHandle.current().info().command().orElse("java"));
+        if (jvmOptions != null && !jvmOptions.isBlank()) command.addAll(Arrays.asList(jvmOptions.trim().split("\\s+")));
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Main.class.getName());
+        command.add(cfgFile.toString());
+        for (String arg : args) {
+            if (arg.indexOf('=') > 0) command.add(arg);
+        }
+        return command;
+    }
+
+    //Разбор merchantWeights вида "publicId1:3,publicId2:2"
+    private static Map<String, Integer> parseWeights(String value) {
+        Map<String, Integer> weights = new HashMap<>();
+        if (value == null || value.isBlank()) return weights;
+        for (String part : value.split(",")) {
+            int colon = part.lastIndexOf(':');
+            if (colon <= 0) throw new IllegalArgumentException("Ожидается publicId:вес в merchantWeights: " + part);
+            weights.put(part.substring(0, colon).trim(), Integer.parseInt(part.substring(colon + 1).trim()));
+        }
+        return weights;
+    }
+
+    //Путь к конфигу: первый аргумент без '=', затем переменная TPS_CONFIG (env), затем путь по умолчанию
+    static Path configPath(String[] args, String env) {
+        for (String arg : args) {
+            if (arg.indexOf('=') <= 0) return Paths.get(arg);
+        }
+        return Paths.get(env != null && !env.isBlank() ? env : DEFAULT_CONFIG);
+    }
+
+    //Конфиг из файла, аргументы вида key=value переопределяют отдельные параметры
+    static Properties loadConfig(Path cfgFile, String[] args) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream stream = Files.newInputStream(cfgFile)) {
+            properties.load(stream);
+        }
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq > 0) properties.setProperty(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        return properties;
+    }
+
+    //Маппер с прогретым разбором: первый ответ API не ждет загрузки классов парсера
+    private static ObjectMapper newMapper() {
+        ObjectMapper mapper = new ObjectMapper();
+        try {
+            byte[] response = "{\"Success\":true,\"Message\":null,\"Model\":{\"Id\":\"0\"}}".getBytes(StandardCharsets.UTF_8);
+            mapper.readTree(response);
+            ApiResponse.parse(mapper.getFactory(), response);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return mapper;
+    }
+
+    //Отправка чеков из эксель в выбранном режиме executor
+    private static int send(ExcelReader reader, SendJob job, String executorMode, ExecutorService executor,
+                            RetryPolicy retryPolicy, int threads, int buildThreads, int queueSize,
+                            int maxInFlight, int queueStatsSeconds, FairSchedule fair,
+                            FairSender fairSender) throws Exception {
+        if (fairSender != null) {
+            return fairSender.send(job, reader);
+        } else if (executorMode.equals("async")) {
+            return sendAsync(reader, job, maxInFlight);
+        } else if (executorMode.equals("pipeline")) {
+            // threads задает параллельность этапа отправки, queueSize - емкость каждой очереди
+            // При fair очередь отправки вмещает fairQueueSize чеков, чтобы были видны чеки других мерчантов
+            return new SendPipeline(job, retryPolicy, buildThreads, threads,
+                    fair == null ? queueSize : fair.capacity(), fair).run(reader, queueStatsSeconds);
+        } else if (executorMode.equals("virtual")) {
+            // Потоки не ограничены, поэтому параллельность задает семафор на threads
+            return sendFixed(reader, job, executor, threads);
+        }
+        return sendFixed(reader, job, executor, queueSize);
+    }
+
+    /**
+     * Проверка файла и запись готовых тел запросов в spool без отправки.
+     * При нескольких spool чек попадает в шард по хэшу publicId.
+     * Отклоненные строки пишутся в лог ошибок, как при отправке.
+     * Возвращает число записанных чеков.
+     */
+    private static long compile(ExcelReader reader, SendJob job, BuilderJson builderJson, List<SpoolWriter> spools)
+            throws Exception {
+        try {
+            job.read(reader, rows -> {
+                CorrectionReceipt receipt = job.check(rows);
+                if (receipt == null) return;
+                SpoolWriter spool = spools.size() == 1 ? spools.get(0)
+                        : spools.get(ShardCoordinator.shardOf(receipt.publicId(), spools.size()));
+                try {
+                    spool.append(receipt.rowKey(), receipt.dedupKey(), receipt.publicId(),
+                            SendJob.source(rows), builderJson.writeJSON(receipt));
+                } catch (Exception e) {
+                    throw new IllegalStateException("Не удалось записать чек " + SendJob.source(rows), e);
+                }
+            });
+        } catch (Exception e) {
+            for (SpoolWriter spool : spools) spool.abort();
+            throw e;
+        }
+        long count = 0;
+        for (SpoolWriter spool : spools) {
+            spool.close();
+            count += spool.count();
+        }
+        return count;
+    }
+
+    //Отправка из spool пулом потоков, в очереди не больше queueSize чеков
+    private static int sendSpool(SpoolReader spool, SendJob job, ExecutorService executor,
+                                 int queueSize) throws Exception {
+        Semaphore queued = new Semaphore(queueSize);
+        long count = spool.forEach(record -> {
+            queued.acquireUninterruptibly();
+            executor.execute(() -> {
+                try {
+                    job.process(record);
+                } finally {
+                    queued.release();
+                }
+            });
+        });
+        queued.acquire(queueSize);
+        return (int) count;
+    }
+
+    //Чеки отправляются пулом потоков по мере чтения файла, очередь ограничена queueSize
+    private static int sendFixed(ExcelReader reader, SendJob job, ExecutorService executor,
+                                 int queueSize) throws Exception {
+        Semaphore queued = new Semaphore(queueSize);
+        int receiptsCount = job.read(reader, rows -> {
+            queued.acquireUninterruptibly();
+            executor.execute(() -> {
+                try {
+                    job.process(rows);
+                } finally {
+                    queued.release();
+                }
+            });
+        });
+        // Дожидаемся завершения всех чеков
+        queued.acquire(queueSize);
+        return receiptsCount;
+    }
+
+    //Неблокирующая отправка, одновременно в работе не больше maxInFlight чеков
+    private static int sendAsync(ExcelReader reader, SendJob job, int maxInFlight) throws Exception {
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        int receiptsCount = job.read(reader, rows -> {
+            inFlight.acquireUninterruptibly();
+            job.processAsync(rows).whenComplete((ignored, error) -> inFlight.release());
+        });
+        inFlight.acquire(maxInFlight);
+        return receiptsCount;
+    }
+
+    /**
+     * Сверка платежей по списку TransactionId через payments/get.
+     * Ключ - publicId/apiSecret из конфига, ответы кэшируются в lookupCache.
+     */
+    private static void lookup(Properties properties) throws Exception {
+        String publicId = properties.getProperty("publicId");
+        String apiSecret = properties.getProperty("apiSecret");
+        String lookupUrl = properties.getProperty("lookupUrl", CloudPaymentsGetInfo.DEFAULT_URL);
+        Path input = Paths.get(properties.getProperty("lookupInput"));
+        String column = properties.getProperty("lookupColumn", "TransactionId");
+        Path output = Paths.get(properties.getProperty("lookupOutput", "payments.jsonl"));
+        String cacheFile = properties.getProperty("lookupCache");
+        int cacheSize = Integer.parseInt(properties.getProperty("lookupCacheSize", "200000"));
+        int cacheTtlMinutes = Integer.parseInt(properties.getProperty("lookupCacheTtlMinutes", "1440"));
+        int requestPerSeconds = Integer.parseInt(properties.getProperty("requestPerSeconds"));
+        int burstSize = Integer.parseInt(properties.getProperty("burstSize", "1"));
+        int maxRetries = Integer.parseInt(properties.getProperty("maxRetries"));
+        int initialRetryMillis = Integer.parseInt(properties.getProperty("initialRetryMillis"));
+        int maxInFlight = Integer.parseInt(properties.getProperty("maxInFlight", "200"));
+
+        ObjectMapper mapper = new ObjectMapper();
+        HttpClient httpClient = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(15))
+                .build();
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        CloudPaymentsGetInfo infoClient = new CloudPaymentsGetInfo(httpClient, lookupUrl, publicId, apiSecret,
+                mapper, new RetryPolicy(maxRetries, initialRetryMillis), new RateLimiter(requestPerSeconds, burstSize));
+
+        Instant startTime = Instant.now();
+        Path cachePath = cacheFile == null || cacheFile.isBlank() ? null : Paths.get(cacheFile);
+        try (PaymentCache cache = new PaymentCache(cachePath, mapper, cacheSize, cacheTtlMinutes);
+             PaymentLookup lookup = new PaymentLookup(infoClient, cache, scheduler, mapper, maxInFlight, output)) {
+            // Кэш периодически сохраняется, чтобы прерванный запуск не терял полученное
+            scheduler.scheduleWithFixedDelay(() -> {
+                try {
+                    cache.save();
+                } catch (IOException e) {
+                    log.error("Ошибка сохранения кэша платежей", e);
+                }
+            }, 60, 60, TimeUnit.SECONDS);
+
+            int count = lookup.run(input, column);
+            log.info("Сверено {} платежей за {} с. Найдено: {}, не найдено: {}, ошибки: {}, из кэша: {}",
+                    count, Duration.between(startTime, Instant.now()).toSeconds(), lookup.foundCount(),
+                    lookup.notFoundCount(), lookup.failedCount(), lookup.cachedCount());
+        } finally {
+            scheduler.shutdownNow();
+        }
     }
 
 //    public static void main(String[] args) throws Exception {
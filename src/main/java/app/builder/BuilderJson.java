@@ -1,75 +1,111 @@
 package app.builder;
 
+import app.model.CorrectionReceipt;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.json.JsonWriteFeature;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
-import java.util.Map;
-
 /**
  * Класс формирует json на отправку из файла эксель
- * row - входящая строка со всеми данными на один чек
+ * receipt - проверенный чек, собранный из строки эксель
  * Возвращает готовый json шаблон
  * Created by Aleksey Selikhov
  */
 public class BuilderJson {
     private final ObjectMapper mapper;
+    // Фабрика для потоковой записи. Суррогатные пары пишутся как есть,
+    // а не экранированными последовательностями, чтобы байты совпадали с buildJSON
+    private final JsonFactory factory;
+    // Буфер на поток, переиспользуется между чеками
+    private final ThreadLocal<ByteArrayBuilder> buffers = ThreadLocal.withInitial(() -> new ByteArrayBuilder(1024));
 
     public BuilderJson(ObjectMapper mapper) {
         this.mapper = mapper;
+        this.factory = mapper.getFactory().rebuild()
+                .enable(JsonWriteFeature.COMBINE_UNICODE_SURROGATES_IN_UTF8)
+                .build();
     }
 
-    public String buildJSON(Map<String,String> row) throws Exception{
+    public String buildJSON(CorrectionReceipt receipt) throws Exception{
         ObjectNode root = mapper.createObjectNode();
         ObjectNode data = mapper.createObjectNode();
 
 
-        data.put("organizationInn", getData(row, "OrganizationInn"));
-        data.put("taxationSystem", (int) Double.parseDouble(getData(row, "TaxationSystem")));
-        data.put("correctionReceiptType", (int) Double.parseDouble(getData(row, "CorrectionReceiptType")));
+        data.put("organizationInn", receipt.organizationInn());
+        data.put("taxationSystem", receipt.taxationSystem());
+        data.put("correctionReceiptType", receipt.correctionReceiptType());
 
         ObjectNode cause = mapper.createObjectNode();
-        cause.put("correctionDate", getData(row, "CorrectionDate"));
-        cause.put("correctionNumber", getData(row, "CorrectionNumber"));
+        cause.put("correctionDate", receipt.correctionDate());
+        cause.put("correctionNumber", receipt.correctionNumber());
         data.set("CauseCorrection", cause);
 
         ObjectNode amounts = mapper.createObjectNode();
-        double total = parseDouble(row.get("Amounts"), 0.0);
-        amounts.put("electronic", total);
+        amounts.put("electronic", receipt.electronic());
         data.set("amounts", amounts);
 
         ArrayNode itemsArray = mapper.createArrayNode();
-        ObjectNode item = mapper.createObjectNode();
-        item.put("label", getData(row, "Label"));
-        item.put("price", getData(row, "Price"));
-        item.put("quantity", getData(row, "Quantity"));
-        item.put("amount", getData(row, "Amount"));
-        item.put("correctionType", (int) Double.parseDouble(getData(row, "CorrectionType")));
-        item.put("paymentPlace", getData(row, "PaymentPlace"));
-        item.put("paymentAddress", getData(row, "PaymentAddress"));
-        itemsArray.add(item);
+        for (CorrectionReceipt.Item i : receipt.items()) {
+            ObjectNode item = mapper.createObjectNode();
+            item.put("label", i.label());
+            item.put("price", i.price());
+            item.put("quantity", i.quantity());
+            item.put("amount", i.amount());
+            item.put("correctionType", i.correctionType());
+            item.put("paymentPlace", i.paymentPlace());
+            item.put("paymentAddress", i.paymentAddress());
+            itemsArray.add(item);
+        }
         data.set("items", itemsArray);
 
         root.set("correctionReceiptData", data);
         return mapper.writeValueAsString(root);
     }
 
-    //Достаем данные из строки по ключу
-    private static String getData(Map<String, String> row, String key) {
-        return row.getOrDefault(key, "");
-    }
-    //Парсим данные о ценах
-    private static double parseDouble(String data, double defaultValue) {
-        if (data == null || data.isBlank()) return defaultValue;
-        try {
-            return Double.parseDouble(data.replace(",", "."));
-        } catch (Exception ex) {
-            return defaultValue;
+    /**
+     * Потоковое формирование того же json, что и buildJSON, сразу в байты UTF-8.
+     * Без промежуточного дерева ObjectNode и строки, результат побайтно совпадает.
+     */
+    public byte[] writeJSON(CorrectionReceipt receipt) throws Exception {
+        ByteArrayBuilder buffer = buffers.get();
+        buffer.reset();
+        try (JsonGenerator gen = factory.createGenerator(buffer)) {
+            gen.writeStartObject();
+            gen.writeObjectFieldStart("correctionReceiptData");
+            gen.writeStringField("organizationInn", receipt.organizationInn());
+            gen.writeNumberField("taxationSystem", receipt.taxationSystem());
+            gen.writeNumberField("correctionReceiptType", receipt.correctionReceiptType());
+
+            gen.writeObjectFieldStart("CauseCorrection");
+            gen.writeStringField("correctionDate", receipt.correctionDate());
+            gen.writeStringField("correctionNumber", receipt.correctionNumber());
+            gen.writeEndObject();
 
+            gen.writeObjectFieldStart("amounts");
+            gen.writeNumberField("electronic", receipt.electronic());
+            gen.writeEndObject();
+
+            gen.writeArrayFieldStart("items");
+            for (CorrectionReceipt.Item item : receipt.items()) {
+                gen.writeStartObject();
+                gen.writeStringField("label", item.label());
+                gen.writeStringField("price", item.price());
+                gen.writeStringField("quantity", item.quantity());
+                gen.writeStringField("amount", item.amount());
+                gen.writeNumberField("correctionType", item.correctionType());
+                gen.writeStringField("paymentPlace", item.paymentPlace());
+                gen.writeStringField("paymentAddress", item.paymentAddress());
+                gen.writeEndObject();
+            }
+            gen.writeEndArray();
+
+            gen.writeEndObject();
+            gen.writeEndObject();
         }
-    }
-    //Метод добавления опциональных полей, если есть.
-    private static void putIfExist(ObjectNode node, Map<String,String> row, String key) {
-        if (row.containsKey(key)) node.put(key, getData(row, key));
+        return buffer.toByteArray();
     }
 }
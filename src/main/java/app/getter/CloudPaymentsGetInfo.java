@@ -9,10 +9,15 @@ import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
 
 public class CloudPaymentsGetInfo {
+    public static final String DEFAULT_URL = "https://api.cloudpayments.ru/payments/get";
+
     private final HttpClient client;
     private final String apiUrl;
     private final String authHeader;
@@ -27,9 +32,21 @@ public class CloudPaymentsGetInfo {
             ObjectMapper mapper,
             RetryPolicy retryPolicy,
             RateLimiter rateLimiter
+    ) {
+        this(client, DEFAULT_URL, publicId, apiSecret, mapper, retryPolicy, rateLimiter);
+    }
+
+    public CloudPaymentsGetInfo(
+            HttpClient client,
+            String apiUrl,
+            String publicId,
+            String apiSecret,
+            ObjectMapper mapper,
+            RetryPolicy retryPolicy,
+            RateLimiter rateLimiter
     ) {
         this.client = client;
-        this.apiUrl = "https://api.cloudpayments.ru/payments/get";
+        this.apiUrl = apiUrl;
         this.authHeader = "Basic " + Base64.getEncoder()
                 .encodeToString((publicId + ":" + apiSecret).getBytes());
         this.mapper = mapper;
@@ -45,24 +62,13 @@ public class CloudPaymentsGetInfo {
      * @throws Exception если запрос неуспешен или превышен лимит повторов
      */
     public JsonNode getPaymentInfo(long transactionId) throws Exception {
-        rateLimiter.acquire(); // ограничиваем RPS
-
-        // Формируем тело запроса
-        String jsonBody = mapper.writeValueAsString(
-                mapper.createObjectNode().put("TransactionId", transactionId)
-        );
+        HttpRequest request = request(transactionId);
 
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(apiUrl))
-                .timeout(Duration.ofSeconds(30))
-                .header("Authorization", authHeader)
-                .header("Content-Type", "application/json")
-                .POST(HttpRequest.BodyPublishers.ofString(jsonBody))
-                .build();
-
-        // Повторяем при временных ошибках
+        // Повторяем при временных ошибках, токен лимита - на каждую попытку
         return retryPolicy.executeWithRetry(() -> {
-            HttpResponse<String> resp = client.send(request, HttpResponse.BodyHandlers.ofString());
+            rateLimiter.acquire(); // ограничиваем RPS
+            // Модель платежа нужна вызывающему целиком: дерево строится из байтов без промежуточной строки
+            HttpResponse<byte[]> resp = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
             int code = resp.statusCode();
 
             if (code == 200) {
@@ -71,10 +77,49 @@ public class CloudPaymentsGetInfo {
                 if (success) return node;
                 else throw new RetryPolicy.RetryableException("API returned unsuccessful response");
             } else if (code == 429 || code >= 500) {
-                throw new RetryPolicy.RetryableException("Retryable HTTP error: " + code);
+                throw new RetryPolicy.RetryableException("Retryable HTTP error: " + code,
+                        RetryPolicy.retryAfterMillis(resp));
             } else {
                 throw new Exception("Unexpected response code: " + code);
             }
         });
     }
+
+    /**
+     * Неблокирующий запрос для массовой сверки: ожидание лимита и повторы
+     * идут через scheduler. Ответ 200 возвращается как есть, даже с Success=false
+     * (платеж не найден) - повтор его не изменит, решает вызывающий.
+     */
+    public CompletableFuture<JsonNode> getPaymentInfoAsync(long transactionId, ScheduledExecutorService scheduler) {
+        HttpRequest request = request(transactionId);
+        // Токен лимита берется на каждую попытку: повтор после 429 тоже ждет своей очереди
+        return retryPolicy.executeWithRetryAsync(() -> rateLimiter.acquireAsync(scheduler)
+                .thenCompose(ignored -> client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray()))
+                .thenCompose(resp -> {
+                    int code = resp.statusCode();
+                    try {
+                        if (code == 200) {
+                            return CompletableFuture.completedFuture(mapper.readTree(resp.body()));
+                        } else if (code == 429 || code >= 500) {
+                            throw new RetryPolicy.RetryableException("Retryable HTTP error: " + code,
+                                    RetryPolicy.retryAfterMillis(resp));
+                        }
+                        throw new Exception("Unexpected response code: " + code);
+                    } catch (Exception e) {
+                        return CompletableFuture.failedFuture(e);
+                    }
+                }), scheduler);
+    }
+
+    //Тело запроса собирается строкой, TransactionId - единственное поле
+    private HttpRequest request(long transactionId) {
+        String jsonBody = "{\"TransactionId\":" + transactionId + "}";
+        return HttpRequest.newBuilder()
+                .uri(URI.create(apiUrl))
+                .timeout(Duration.ofSeconds(30))
+                .header("Authorization", authHeader)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(jsonBody, StandardCharsets.UTF_8))
+                .build();
+    }
 }
@@ -0,0 +1,152 @@
+package app.getter;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LRU-кэш ответов payments/get по TransactionId с временем жизни.
+ * Между запусками хранится на диске в jsonl: {"id":..,"at":..,"node":{..}},
+ * поэтому повторная сверка не запрашивает уже полученные платежи.
+ * Записи старше ttl не загружаются и не отдаются.
+ */
+public class PaymentCache implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(PaymentCache.class);
+
+    private final Path file;
+    private final ObjectMapper mapper;
+    private final long ttlMillis;
+    private final LinkedHashMap<Long, Entry> entries;
+    // Сохранения по таймеру и из close пишут один временный файл, поэтому идут по одному
+    private final Object saveLock = new Object();
+    private boolean dirty;
+
+    /**
+     * @param file       файл кэша, null - кэш только в памяти
+     * @param maxSize    сколько ответов держать, при переполнении вытесняются давно не читанные
+     * @param ttlMinutes время жизни ответа
+     */
+    public PaymentCache(Path file, ObjectMapper mapper, int maxSize, long ttlMinutes) throws IOException {
+        this.file = file;
+        this.mapper = mapper;
+        this.ttlMillis = TimeUnit.MINUTES.toMillis(ttlMinutes);
+        int capacity = Math.max(1, maxSize);
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                return size() > capacity;
+            }
+        };
+        if (file != null && Files.exists(file)) load();
+    }
+
+    public synchronized JsonNode get(long transactionId) {
+        Entry entry = entries.get(transactionId);
+        if (entry == null) return null;
+        if (expired(entry, System.currentTimeMillis())) {
+            entries.remove(transactionId);
+            dirty = true;
+            return null;
+        }
+        return entry.node();
+    }
+
+    public synchronized void put(long transactionId, JsonNode node) {
+        entries.put(transactionId, new Entry(node, System.currentTimeMillis()));
+        dirty = true;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    //Сохранение на диск через временный файл, чтобы сбой не испортил кэш
+    public void save() throws IOException {
+        if (file == null) return;
+        synchronized (saveLock) {
+            List<Map.Entry<Long, Entry>> snapshot;
+            synchronized (this) {
+                if (!dirty) return;
+                snapshot = new ArrayList<>(entries.entrySet());
+                dirty = false;
+            }
+            try {
+                write(snapshot);
+            } catch (IOException | RuntimeException e) {
+                // Не записанные изменения попадут в следующее сохранение
+                synchronized (this) {
+                    dirty = true;
+                }
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        save();
+    }
+
+    private void write(List<Map.Entry<Long, Entry>> snapshot) throws IOException {
+        long now = System.currentTimeMillis();
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp);
+             JsonGenerator json = mapper.getFactory().createGenerator(writer)) {
+            json.setRootValueSeparator(null);
+            // В порядке LRU: при загрузке последние прочитанные окажутся свежими
+            for (Map.Entry<Long, Entry> e : snapshot) {
+                if (expired(e.getValue(), now)) continue;
+                json.writeStartObject();
+                json.writeNumberField("id", e.getKey());
+                json.writeNumberField("at", e.getValue().fetchedAt());
+                json.writeFieldName("node");
+                json.writeTree(e.getValue().node());
+                json.writeEndObject();
+                json.flush();
+                writer.newLine();
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void load() throws IOException {
+        long now = System.currentTimeMillis();
+        int broken = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) continue;
+                try {
+                    JsonNode record = mapper.readTree(line);
+                    Entry entry = new Entry(record.get("node"), record.path("at").asLong());
+                    if (entry.node() != null && !expired(entry, now)) entries.put(record.path("id").asLong(), entry);
+                } catch (IOException e) {
+                    // Оборванная последняя строка после аварийного завершения
+                    broken++;
+                }
+            }
+        }
+        log.info("Кэш платежей {}: загружено {} ответов, пропущено битых строк {}", file, entries.size(), broken);
+    }
+
+    private boolean expired(Entry entry, long now) {
+        return now - entry.fetchedAt() > ttlMillis;
+    }
+
+    private record Entry(JsonNode node, long fetchedAt) {
+    }
+}
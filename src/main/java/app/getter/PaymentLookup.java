@@ -0,0 +1,186 @@
+package app.getter;
+
+import app.reader.Column;
+import app.reader.ExcelReader;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.StreamWriteFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongConsumer;
+
+/**
+ * Массовая сверка платежей: TransactionId читаются из колонки Excel
+ * или текстового файла (по одному в строке), запросы идут параллельно
+ * в пределах maxInFlight и лимита частоты ключа. Ответы берутся из кэша,
+ * если они там есть, и построчно пишутся в jsonl или csv.
+ */
+public class PaymentLookup implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(PaymentLookup.class);
+
+    private final CloudPaymentsGetInfo client;
+    private final PaymentCache cache;
+    private final ScheduledExecutorService scheduler;
+    private final ObjectMapper mapper;
+    private final int maxInFlight;
+
+    private final BufferedWriter out;
+    private final JsonGenerator json;
+    private final AtomicInteger found = new AtomicInteger(0);
+    private final AtomicInteger notFound = new AtomicInteger(0);
+    private final AtomicInteger failed = new AtomicInteger(0);
+    private final AtomicInteger cached = new AtomicInteger(0);
+
+    /**
+     * @param output файл результатов, формат по расширению: .csv или jsonl для остальных
+     */
+    public PaymentLookup(CloudPaymentsGetInfo client, PaymentCache cache, ScheduledExecutorService scheduler,
+                         ObjectMapper mapper, int maxInFlight, Path output) throws IOException {
+        this.client = client;
+        this.cache = cache;
+        this.scheduler = scheduler;
+        this.mapper = mapper;
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.out = Files.newBufferedWriter(output);
+        if (output.getFileName().toString().toLowerCase().endsWith(".csv")) {
+            json = null;
+            out.write("transactionId,success,status,amount,currency,invoiceId,accountId,createdDate,cached,message");
+            out.newLine();
+        } else {
+            // Сброс на диск делает BufferedWriter, генератор его не форсирует на каждой строке
+            json = JsonFactory.builder().disable(StreamWriteFeature.AUTO_CLOSE_TARGET)
+                    .disable(StreamWriteFeature.FLUSH_PASSED_TO_STREAM).build().createGenerator(out);
+            json.setRootValueSeparator(null);
+        }
+    }
+
+    /**
+     * Сверка всех id из input. Для xlsx id берутся из колонки column,
+     * для остальных файлов - по одному в строке. Возвращает число id.
+     */
+    public int run(Path input, String column) throws Exception {
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        AtomicInteger count = new AtomicInteger(0);
+        readIds(input, column, id -> {
+            count.incrementAndGet();
+            JsonNode hit = cache.get(id);
+            if (hit != null) {
+                cached.incrementAndGet();
+                write(id, hit, true, null);
+                return;
+            }
+            inFlight.acquireUninterruptibly();
+            client.getPaymentInfoAsync(id, scheduler).whenComplete((node, error) -> {
+                try {
+                    if (error == null) {
+                        // Ненайденный платеж может появиться позже, его не кэшируем
+                        if (node.path("Success").asBoolean(false)) cache.put(id, node);
+                        write(id, node, false, null);
+                    } else {
+                        Throwable cause = error instanceof CompletionException && error.getCause() != null
+                                ? error.getCause() : error;
+                        log.warn("Ошибка запроса платежа {}: {}", id, cause.getMessage());
+                        write(id, null, false, cause.getMessage());
+                    }
+                } finally {
+                    inFlight.release();
+                }
+            });
+        });
+        inFlight.acquire(maxInFlight);
+        return count.get();
+    }
+
+    public int foundCount() {
+        return found.get();
+    }
+
+    public int notFoundCount() {
+        return notFound.get();
+    }
+
+    public int failedCount() {
+        return failed.get();
+    }
+
+    public int cachedCount() {
+        return cached.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try (out) {
+            if (json != null) json.close();
+        }
+    }
+
+    private void readIds(Path input, String column, LongConsumer consumer) throws Exception {
+        String name = input.getFileName().toString().toLowerCase();
+        if (name.endsWith(".xlsx")) {
+            Column ids = new Column(column);
+            new ExcelReader(input.toString()).readRows(row -> accept(ids.get(row), consumer));
+        } else {
+            try (BufferedReader reader = Files.newBufferedReader(input)) {
+                String line;
+                while ((line = reader.readLine()) != null) accept(line.trim(), consumer);
+            }
+        }
+    }
+
+    private static void accept(String value, LongConsumer consumer) {
+        if (value == null || value.isEmpty()) return;
+        try {
+            consumer.accept(Long.parseLong(value));
+        } catch (NumberFormatException e) {
+            log.warn("Пропущен некорректный TransactionId: '{}'", value);
+        }
+    }
+
+    //Запись из потоков HttpClient, поэтому под блокировкой
+    private synchronized void write(long id, JsonNode node, boolean fromCache, String error) {
+        boolean success = node != null && node.path("Success").asBoolean(false);
+        (node == null ? failed : success ? found : notFound).incrementAndGet();
+        JsonNode model = node == null ? mapper.missingNode() : node.path("Model");
+        String message = error != null ? error : node.path("Message").asText("");
+        try {
+            if (json != null) {
+                json.writeStartObject();
+                json.writeNumberField("transactionId", id);
+                json.writeBooleanField("success", success);
+                json.writeBooleanField("cached", fromCache);
+                if (!message.isEmpty()) json.writeStringField("message", message);
+                if (!model.isMissingNode()) {
+                    json.writeFieldName("model");
+                    mapper.writeTree(json, model);
+                }
+                json.writeEndObject();
+                json.flush();
+            } else {
+                out.write(id + "," + success + ',' + csv(model.path("Status").asText("")) + ','
+                        + csv(model.path("Amount").asText("")) + ',' + csv(model.path("Currency").asText("")) + ','
+                        + csv(model.path("InvoiceId").asText("")) + ',' + csv(model.path("AccountId").asText("")) + ','
+                        + csv(model.path("CreatedDateIso").asText("")) + ',' + fromCache + ',' + csv(message));
+            }
+            out.newLine();
+        } catch (IOException e) {
+            log.error("Ошибка записи результата сверки {}", id, e);
+        }
+    }
+
+    private static String csv(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) return value;
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
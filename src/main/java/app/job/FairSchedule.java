@@ -0,0 +1,27 @@
+package app.job;
+
+import app.reader.Column;
+import app.reader.ExcelRow;
+import app.util.FairQueue;
+
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * Настройки справедливой очереди отправки (scheduling=fair): подочередь
+ * на каждый publicId, приоритет чека, ожидание лимита мерчанта и вес.
+ * capacity - сколько чеков может ждать в очереди; чем она больше, тем дальше
+ * по файлу видны чеки других мерчантов, когда один занимает большую часть файла.
+ */
+public record FairSchedule(int capacity, ToIntFunction<List<ExcelRow>> priority,
+                           ToLongFunction<String> readyIn, ToIntFunction<String> weight) {
+    private static final Column PUBLIC_ID = new Column("publicId");
+
+    //Очередь элементов, у которых rows дает строки чека
+    public <T> FairQueue<T> queue(Function<T, List<ExcelRow>> rows) {
+        return new FairQueue<>(capacity, item -> PUBLIC_ID.get(rows.apply(item).get(0)).trim(),
+                item -> priority.applyAsInt(rows.apply(item)), readyIn, weight);
+    }
+}
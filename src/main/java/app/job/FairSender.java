@@ -0,0 +1,104 @@
+package app.job;
+
+import app.reader.ExcelReader;
+import app.reader.ExcelRow;
+import app.util.FairQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Справедливая отправка для режимов fixed и virtual. Чеки всех файлов запуска
+ * попадают в одну FairQueue, а workers обработчиков на пуле отправки разбирают
+ * ее по кругу мерчантов. Мерчант с большей частью строк не занимает все потоки
+ * ожиданием своего лимита: пока ему рано, потоки берут чеки других мерчантов.
+ */
+public class FairSender implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(FairSender.class);
+
+    private final FairQueue<Task> queue;
+    private final CountDownLatch stopped;
+    private volatile boolean closed;
+
+    public FairSender(ExecutorService executor, int workers, FairSchedule schedule) {
+        this.queue = schedule.queue(Task::rows);
+        this.stopped = new CountDownLatch(Math.max(1, workers));
+        for (int i = 0; i < Math.max(1, workers); i++) executor.execute(this::work);
+    }
+
+    /**
+     * Чтение файла в общую очередь и ожидание отправки всех его чеков.
+     * Возвращает число чеков.
+     */
+    public int send(SendJob job, ExcelReader reader) throws Exception {
+        Semaphore done = new Semaphore(0);
+        AtomicInteger submitted = new AtomicInteger(0);
+        try {
+            return job.read(reader, rows -> {
+                try {
+                    queue.put(new Task(job, rows, done));
+                    submitted.incrementAndGet();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Чтение файла прервано", e);
+                }
+            });
+        } finally {
+            // Даже при ошибке чтения ждем уже поставленные чеки: они пишут в логи этого файла
+            done.acquire(submitted.get());
+        }
+    }
+
+    //Чеков в очереди
+    public int depth() {
+        return queue.size();
+    }
+
+    //Мерчантов с чеками в очереди
+    public int keys() {
+        return queue.keys();
+    }
+
+    //Обработчики завершаются, когда очередь опустеет; прерывание ожидания сохраняется в флаге потока
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            stopped.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void work() {
+        try {
+            while (true) {
+                Task task = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (task == null) {
+                    if (closed && queue.isEmpty()) return;
+                    continue;
+                }
+                try {
+                    task.job.process(task.rows);
+                } catch (RuntimeException e) {
+                    log.error("Ошибка обработки чека {}", SendJob.source(task.rows), e);
+                } finally {
+                    task.done.release();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            stopped.countDown();
+        }
+    }
+
+    private record Task(SendJob job, List<ExcelRow> rows, Semaphore done) {
+    }
+}
@@ -0,0 +1,88 @@
+package app.job;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Этап конвейера: ограниченная очередь и несколько потоков-обработчиков.
+ * Если очередь заполнена, put блокирует предыдущий этап (backpressure).
+ */
+public class PipelineStage<T> {
+    private static final Logger log = LoggerFactory.getLogger(PipelineStage.class);
+
+    private final String name;
+    private final BlockingQueue<T> queue;
+    private final Handler<T> handler;
+    private final List<Thread> workers = new ArrayList<>();
+    private volatile boolean closed;
+
+    public PipelineStage(String name, int capacity, int threads, Handler<T> handler) {
+        this(name, new ArrayBlockingQueue<>(Math.max(1, capacity)), threads, handler);
+    }
+
+    //Этап со своей очередью, например FairQueue по мерчантам
+    public PipelineStage(String name, BlockingQueue<T> queue, int threads, Handler<T> handler) {
+        this.name = name;
+        this.queue = queue;
+        this.handler = handler;
+        for (int i = 0; i < Math.max(1, threads); i++) {
+            Thread thread = new Thread(this::work, name + "-" + i);
+            thread.setDaemon(true);
+            workers.add(thread);
+            thread.start();
+        }
+    }
+
+    public void put(T item) throws InterruptedException {
+        queue.put(item);
+    }
+
+    //Новых элементов не будет, потоки завершатся после разбора очереди
+    public void close() {
+        closed = true;
+    }
+
+    public void await() throws InterruptedException {
+        for (Thread thread : workers) thread.join();
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public int depth() {
+        return queue.size();
+    }
+
+    private void work() {
+        try {
+            while (true) {
+                T item = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (item == null) {
+                    if (closed && queue.isEmpty()) return;
+                    continue;
+                }
+                try {
+                    handler.handle(item);
+                } catch (InterruptedException e) {
+                    throw e;
+                } catch (Exception e) {
+                    log.error("Ошибка на этапе {}", name, e);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @FunctionalInterface
+    public interface Handler<T> {
+        void handle(T item) throws Exception;
+    }
+}
@@ -0,0 +1,75 @@
+package app.job;
+
+import app.reader.Column;
+import app.reader.ExcelRow;
+import app.reader.RowSchema;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Склейка идущих подряд строк одного чека (OrganizationInn + CorrectionNumber)
+ * в группу для отправки одним запросом. Группы ведутся по листам: при
+ * параллельном чтении строки разных листов перемешаны. Держится только
+ * незакрытая группа каждого листа, не больше maxItems строк.
+ * Не потокобезопасен, вызывается из потока чтения.
+ */
+public class ReceiptGrouper implements Consumer<ExcelRow> {
+    private static final Column ORGANIZATION_INN = new Column("OrganizationInn");
+    private static final Column CORRECTION_NUMBER = new Column("CorrectionNumber");
+
+    private final int maxItems;
+    private final Consumer<List<ExcelRow>> downstream;
+    private final Map<RowSchema, Group> open = new LinkedHashMap<>();
+
+    public ReceiptGrouper(int maxItems, Consumer<List<ExcelRow>> downstream) {
+        this.maxItems = Math.max(1, maxItems);
+        this.downstream = downstream;
+    }
+
+    @Override
+    public void accept(ExcelRow row) {
+        String inn = ORGANIZATION_INN.get(row);
+        String number = CORRECTION_NUMBER.get(row);
+        Group group = open.get(row.schema());
+        if (group != null && (!group.matches(inn, number) || group.rows.size() >= maxItems)) {
+            open.remove(row.schema());
+            downstream.accept(group.rows);
+            group = null;
+        }
+        // Строку без номера чека не с чем склеивать, ее отклонит проверка
+        if (number.isBlank()) {
+            downstream.accept(List.of(row));
+            return;
+        }
+        if (group == null) {
+            group = new Group(inn, number);
+            open.put(row.schema(), group);
+        }
+        group.rows.add(row);
+    }
+
+    //Отдает незакрытые группы после конца чтения
+    public void flush() {
+        for (Group group : open.values()) downstream.accept(group.rows);
+        open.clear();
+    }
+
+    private static final class Group {
+        private final String inn;
+        private final String number;
+        private final List<ExcelRow> rows = new ArrayList<>(4);
+
+        Group(String inn, String number) {
+            this.inn = inn;
+            this.number = number;
+        }
+
+        boolean matches(String inn, String number) {
+            return this.number.equals(number) && this.inn.equals(inn);
+        }
+    }
+}
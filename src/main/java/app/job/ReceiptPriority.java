@@ -0,0 +1,78 @@
+package app.job;
+
+import app.reader.Column;
+import app.reader.ExcelRow;
+import app.reader.RowSchema;
+
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.function.ToIntFunction;
+
+/**
+ * Приоритет чека для справедливой очереди, больше - раньше.
+ * Значение колонки priorityColumn в первой строке чека, если оно заполнено,
+ * иначе приоритет книги по маске имени из filePriority, иначе 0.
+ */
+public class ReceiptPriority implements ToIntFunction<List<ExcelRow>> {
+    private final Column column;
+    // Маска имени книги -> приоритет, первая совпавшая побеждает
+    private final Map<PathMatcher, Integer> files;
+    // Приоритет книги по схеме листа. Ключи слабые: в режиме службы каждая новая книга
+    // дает новые схемы, и запись уходит вместе со схемой, когда строки книги отправлены
+    private final Map<RowSchema, Integer> bySchema = Collections.synchronizedMap(new WeakHashMap<>());
+
+    public ReceiptPriority(String column, Map<String, Integer> filePriority) {
+        this.column = column == null || column.isBlank() ? null : new Column(column);
+        this.files = new LinkedHashMap<>();
+        filePriority.forEach((glob, priority) ->
+                files.put(FileSystems.getDefault().getPathMatcher("glob:" + glob), priority));
+    }
+
+    /**
+     * Разбор filePriority вида "urgent-*.xlsx:10,*-fix.xlsx:5".
+     */
+    public static ReceiptPriority parse(String column, String filePriority) {
+        Map<String, Integer> files = new LinkedHashMap<>();
+        if (filePriority != null && !filePriority.isBlank()) {
+            for (String part : filePriority.split(",")) {
+                int colon = part.lastIndexOf(':');
+                if (colon <= 0) throw new IllegalArgumentException("Ожидается маска:приоритет в filePriority: " + part);
+                files.put(part.substring(0, colon).trim(), Integer.parseInt(part.substring(colon + 1).trim()));
+            }
+        }
+        return new ReceiptPriority(column, files);
+    }
+
+    @Override
+    public int applyAsInt(List<ExcelRow> rows) {
+        ExcelRow row = rows.get(0);
+        if (column != null) {
+            String value = column.get(row).trim();
+            if (!value.isEmpty()) {
+                try {
+                    // Числа из эксель приходят как "5.0"
+                    return (int) Double.parseDouble(value);
+                } catch (NumberFormatException ignored) {
+                    // Нечисловой приоритет не мешает отправке, берется приоритет книги
+                }
+            }
+        }
+        return bySchema.computeIfAbsent(row.schema(), this::filePriority);
+    }
+
+    private int filePriority(RowSchema schema) {
+        String source = schema.source();
+        int sheet = source.indexOf('!');
+        String book = sheet >= 0 ? source.substring(0, sheet) : source;
+        for (Map.Entry<PathMatcher, Integer> entry : files.entrySet()) {
+            if (entry.getKey().matches(Paths.get(book))) return entry.getValue();
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,23 @@
+package app.job;
+
+/**
+ * Результат обработки одной строки для записи в логи.
+ * line - строка для лога успешных или неуспешных обработок,
+ * rowKey - ключ чека (0, если строку не удалось разобрать),
+ * sent - был ли запрос реально отправлен (такие результаты идут в журнал).
+ */
+public record ResultRecord(
+        boolean success,
+        String line,
+        long rowKey,
+        String publicId,
+        int httpCode,
+        int attempts,
+        long latencyMillis,
+        boolean sent
+) {
+    //Строка, не дошедшая до отправки: ошибка разбора, нет ключа и т.п.
+    public static ResultRecord rejected(String line, long rowKey, String publicId) {
+        return new ResultRecord(false, line, rowKey, publicId, 0, 0, 0, false);
+    }
+}
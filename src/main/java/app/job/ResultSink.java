@@ -0,0 +1,175 @@
+package app.job;
+
+import app.journal.SendJournal;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.StreamWriteFeature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Асинхронная запись результатов. Рабочие потоки только кладут записи
+ * в неблокирующую очередь, а один поток-писатель забирает их пачками
+ * и пишет в логи успешных и неуспешных обработок, журнал отправки
+ * и, если задан, структурированный файл результатов (jsonl или csv).
+ * Сброс на диск - по размеру пачки или по времени.
+ */
+public class ResultSink implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(ResultSink.class);
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final Queue<ResultRecord> queue = new ConcurrentLinkedQueue<>();
+    private final BufferedWriter successWriter;
+    private final BufferedWriter failedWriter;
+    private final BufferedWriter resultsWriter;
+    private final JsonGenerator resultsJson;
+    private final SendJournal journal;
+    private final int batchSize;
+    private final long flushNanos;
+    private final Thread writer;
+    private volatile boolean closed;
+
+    /**
+     * @param results     структурированный файл результатов, null - не писать;
+     *                    формат по расширению: .csv или jsonl для остальных
+     * @param journal     журнал отправки, может быть null
+     * @param batchSize   после скольких записей сбрасывать файлы на диск
+     * @param flushMillis максимальная задержка сброса
+     */
+    public ResultSink(Path successLog, Path failedLog, Path results, SendJournal journal,
+                      int batchSize, long flushMillis) throws IOException {
+        this.successWriter = Files.newBufferedWriter(successLog);
+        this.failedWriter = Files.newBufferedWriter(failedLog);
+        this.journal = journal;
+        this.batchSize = Math.max(1, batchSize);
+        this.flushNanos = TimeUnit.MILLISECONDS.toNanos(flushMillis);
+
+        if (results == null) {
+            resultsWriter = null;
+            resultsJson = null;
+        } else {
+            resultsWriter = Files.newBufferedWriter(results);
+            if (results.getFileName().toString().toLowerCase().endsWith(".csv")) {
+                resultsJson = null;
+                resultsWriter.write("rowKey,publicId,success,httpCode,latencyMs,attempts,message");
+                resultsWriter.newLine();
+            } else {
+                // Writer закрывается сам в close(), генератор его не трогает
+                resultsJson = JsonFactory.builder().disable(StreamWriteFeature.AUTO_CLOSE_TARGET).build()
+                        .createGenerator(resultsWriter);
+                resultsJson.setRootValueSeparator(null);
+            }
+        }
+
+        writer = new Thread(this::run, "result-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    //Не блокирует вызывающий поток
+    public void add(ResultRecord record) {
+        queue.offer(record);
+    }
+
+    private void run() {
+        int pending = 0;
+        long lastFlush = System.nanoTime();
+        while (true) {
+            boolean wasClosed = closed;
+            ResultRecord record;
+            int drained = 0;
+            while (drained < batchSize && (record = queue.poll()) != null) {
+                write(record);
+                drained++;
+            }
+            pending += drained;
+
+            long now = System.nanoTime();
+            if (pending > 0 && (pending >= batchSize || now - lastFlush >= flushNanos)) {
+                flush();
+                pending = 0;
+                lastFlush = now;
+            }
+            if (drained == 0) {
+                if (wasClosed) break;
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+        }
+        flush();
+    }
+
+    private void write(ResultRecord r) {
+        try {
+            BufferedWriter target = r.success() ? successWriter : failedWriter;
+            target.write(r.line());
+            target.newLine();
+            if (journal != null && r.sent()) journal.record(r.rowKey(), r.success());
+            if (resultsJson != null) writeJson(r);
+            else if (resultsWriter != null) writeCsv(r);
+        } catch (IOException e) {
+            log.error("Ошибка записи результата", e);
+        }
+    }
+
+    private void writeJson(ResultRecord r) throws IOException {
+        resultsJson.writeStartObject();
+        resultsJson.writeStringField("rowKey", Long.toHexString(r.rowKey()));
+        resultsJson.writeStringField("publicId", r.publicId());
+        resultsJson.writeBooleanField("success", r.success());
+        resultsJson.writeNumberField("httpCode", r.httpCode());
+        resultsJson.writeNumberField("latencyMs", r.latencyMillis());
+        resultsJson.writeNumberField("attempts", r.attempts());
+        resultsJson.writeStringField("message", r.line());
+        resultsJson.writeEndObject();
+        resultsJson.flush();
+        resultsWriter.newLine();
+    }
+
+    private void writeCsv(ResultRecord r) throws IOException {
+        resultsWriter.write(Long.toHexString(r.rowKey()) + ',' + csv(r.publicId()) + ',' + r.success() + ','
+                + r.httpCode() + ',' + r.latencyMillis() + ',' + r.attempts() + ',' + csv(r.line()));
+        resultsWriter.newLine();
+    }
+
+    private static String csv(String value) {
+        if (value == null) return "";
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) return value;
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    private void flush() {
+        try {
+            successWriter.flush();
+            failedWriter.flush();
+            if (resultsWriter != null) resultsWriter.flush();
+            if (journal != null) journal.flush();
+        } catch (IOException e) {
+            log.error("Ошибка сброса результатов на диск", e);
+        }
+    }
+
+    //Дописывает все, что уже в очереди, и закрывает файлы
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try (successWriter; failedWriter) {
+            if (resultsJson != null) resultsJson.close();
+            if (resultsWriter != null) resultsWriter.close();
+        }
+    }
+}
@@ -0,0 +1,347 @@
+package app.job;
+
+import app.journal.DedupIndex;
+import app.journal.SendJournal;
+import app.metrics.Metrics;
+import app.model.CorrectionReceipt;
+import app.model.ReceiptValidationException;
+import app.reader.ExcelReader;
+import app.reader.ExcelRow;
+import app.sender.CloudPaymentSender;
+import app.sender.MerchantRegistry;
+import app.spool.SpoolRecord;
+import app.util.SendResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.http.HttpRequest;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Обработка строк одного запуска: поиск мерчанта в реестре, отправка чека
+ * и передача результата в ResultSink для записи в логи.
+ * Единица работы - строки одного чека: одна строка или, при groupMaxItems > 1,
+ * идущие подряд строки с одинаковыми OrganizationInn и CorrectionNumber.
+ */
+public class SendJob {
+    private static final Logger log = LoggerFactory.getLogger(SendJob.class);
+
+    private final CloudPaymentSender sender;
+    private final MerchantRegistry merchants;
+    private final ResultSink sink;
+    // Журнал для продолжения прерванного запуска, может отсутствовать
+    private final SendJournal journal;
+    // Индекс отправленных чеков для защиты от дублей, может отсутствовать
+    private final DedupIndex dedup;
+    // Сколько строк можно склеить в один чек, 1 - без склейки
+    private final int groupMaxItems;
+    private final Metrics metrics;
+    private final AtomicInteger successCount = new AtomicInteger(0);
+    private final AtomicInteger failedCount = new AtomicInteger(0);
+    private final AtomicInteger skippedCount = new AtomicInteger(0);
+    private final AtomicInteger duplicateCount = new AtomicInteger(0);
+
+    public SendJob(CloudPaymentSender sender, MerchantRegistry merchants,
+                   ResultSink sink, SendJournal journal, Metrics metrics) {
+        this(sender, merchants, sink, journal, null, 1, metrics);
+    }
+
+    public SendJob(CloudPaymentSender sender, MerchantRegistry merchants, ResultSink sink,
+                   SendJournal journal, DedupIndex dedup, int groupMaxItems, Metrics metrics) {
+        this.sender = sender;
+        this.merchants = merchants;
+        this.sink = sink;
+        this.journal = journal;
+        this.dedup = dedup;
+        this.groupMaxItems = Math.max(1, groupMaxItems);
+        this.metrics = metrics;
+    }
+
+    /**
+     * Чтение файла с замером этапа READ: consumer получает строки по чекам.
+     * Возвращает число чеков.
+     */
+    public int read(ExcelReader reader, Consumer<List<ExcelRow>> consumer) throws IOException {
+        AtomicInteger receipts = new AtomicInteger(0);
+        Consumer<List<ExcelRow>> counted = rows -> {
+            receipts.incrementAndGet();
+            consumer.accept(rows);
+        };
+        if (groupMaxItems == 1) {
+            reader.readRows(metrics.timedReads(row -> counted.accept(List.of(row))));
+        } else {
+            ReceiptGrouper grouper = new ReceiptGrouper(groupMaxItems, counted);
+            reader.readRows(metrics.timedReads(grouper));
+            grouper.flush();
+        }
+        return receipts.get();
+    }
+
+    //Отправка одного чека с ожиданием ответа
+    public void process(List<ExcelRow> rows) {
+        CorrectionReceipt receipt = parse(rows);
+        if (receipt == null) return;
+        try {
+            MerchantRegistry.Merchant merchant = admit(rows, receipt);
+            if (merchant == null) return;
+
+            writeResult(rows, receipt, sender.sendCorrection(receipt, merchant));
+        } catch (Exception e) {
+            writeError(rows, receipt, e);
+        }
+    }
+
+    /**
+     * Проверка чека без отправки для режима compile: разбор, журнал,
+     * дубли и наличие ключа мерчанта. null - чек отклонен или пропущен.
+     */
+    public CorrectionReceipt check(List<ExcelRow> rows) {
+        CorrectionReceipt receipt = parse(rows);
+        if (receipt == null || admit(rows, receipt) == null) return null;
+        return receipt;
+    }
+
+    /**
+     * Отправка готового тела из spool-файла с ожиданием ответа.
+     * Журнал и дубли проверяются заново: между compile и отправкой
+     * чек мог уйти другим запуском.
+     */
+    public void process(SpoolRecord record) {
+        if (journal != null && journal.isDone(record.rowKey())) {
+            skippedCount.incrementAndGet();
+            metrics.rowSkipped(1);
+            return;
+        }
+        MerchantRegistry.Merchant merchant = merchants.get(record.publicId());
+        if (merchant == null) {
+            log.warn("Не найден apiSecret для publicId: {}", record.publicId());
+            reject(ResultRecord.rejected("Нет ключа для publicId=" + record.publicId(), record.rowKey(),
+                    record.publicId()), 1);
+            return;
+        }
+        if (dedup != null) {
+            DedupIndex.Status status = dedup.claim(record.dedupKey());
+            if (status != DedupIndex.Status.NEW) {
+                duplicateCount.incrementAndGet();
+                log.warn("Дубль чека в строке {}: {}", record.source(), status);
+                reject(ResultRecord.rejected("Дубль чека, " + reason(status) + " " + record.source(),
+                        record.rowKey(), record.publicId()), 1);
+                return;
+            }
+        }
+        try {
+            SendResult result = sender.send(merchant.request(record.body()), record.publicId());
+            writeResult(record.rowKey(), record.dedupKey(), record.publicId(), 1, result);
+        } catch (Exception e) {
+            if (dedup != null) dedup.release(record.dedupKey());
+            reject(ResultRecord.rejected(record.source(), record.rowKey(), record.publicId()), 1);
+            log.error("Ошибка при обработке строки {}", record.source(), e);
+        }
+    }
+
+    /**
+     * Этап конвейера: поиск ключа и формирование запроса.
+     * Возвращает null, если чек уже записан в лог ошибок.
+     */
+    public Prepared prepare(List<ExcelRow> rows) {
+        CorrectionReceipt receipt = parse(rows);
+        if (receipt == null) return null;
+        try {
+            MerchantRegistry.Merchant merchant = admit(rows, receipt);
+            if (merchant == null) return null;
+            return new Prepared(rows, receipt, sender.prepareRequest(receipt, merchant), 1, 0, 0, 0);
+        } catch (Exception e) {
+            writeError(rows, receipt, e);
+            return null;
+        }
+    }
+
+    /**
+     * Этап конвейера: одна попытка отправки без повторов.
+     * Ошибка 429/5xx возвращается в Outcome, повтор планирует конвейер.
+     */
+    public Outcome sendOnce(Prepared prepared) {
+        try {
+            SendResult result = sender.sendOnce(prepared.request(), prepared.receipt().publicId());
+            long latency = (System.nanoTime() - prepared.startNanos()) / 1_000_000;
+            return new Outcome(prepared.rows(), prepared.receipt(), result.withTiming(prepared.attempt(), latency), null);
+        } catch (Exception e) {
+            return new Outcome(prepared.rows(), prepared.receipt(), null, e);
+        }
+    }
+
+    //Этап конвейера: передача результата на запись
+    public void record(Outcome outcome) {
+        if (outcome.error() != null) writeError(outcome.rows(), outcome.receipt(), outcome.error());
+        else writeResult(outcome.rows(), outcome.receipt(), outcome.result());
+    }
+
+    //Отправка одного чека без блокировки потока
+    public CompletableFuture<Void> processAsync(List<ExcelRow> rows) {
+        CorrectionReceipt receipt = parse(rows);
+        if (receipt == null) return CompletableFuture.completedFuture(null);
+        MerchantRegistry.Merchant merchant = admit(rows, receipt);
+        if (merchant == null) return CompletableFuture.completedFuture(null);
+
+        return sender.sendCorrectionAsync(receipt, merchant).handle((result, error) -> {
+            if (error != null) {
+                writeError(rows, receipt, error instanceof CompletionException && error.getCause() != null
+                        ? error.getCause() : error);
+            } else {
+                writeResult(rows, receipt, result);
+            }
+            return null;
+        });
+    }
+
+    public Metrics metrics() {
+        return metrics;
+    }
+
+    public int successCount() {
+        return successCount.get();
+    }
+
+    public int failedCount() {
+        return failedCount.get();
+    }
+
+    public int skippedCount() {
+        return skippedCount.get();
+    }
+
+    public int duplicateCount() {
+        return duplicateCount.get();
+    }
+
+    /**
+     * Разбор и проверка строк чека до отправки и до расхода лимита запросов.
+     * Некорректная строка сразу пишется в лог ошибок с указанием поля,
+     * уже отправленная по журналу - пропускается.
+     */
+    private CorrectionReceipt parse(List<ExcelRow> rows) {
+        try {
+            CorrectionReceipt receipt = CorrectionReceipt.fromRows(rows);
+            if (journal != null && journal.isDone(receipt.rowKey())) {
+                // Уже отправлена в прошлом запуске
+                skippedCount.incrementAndGet();
+                metrics.rowSkipped(rows.size());
+                return null;
+            }
+            return receipt;
+        } catch (ReceiptValidationException e) {
+            log.warn("Строка {} не прошла проверку: {}", source(rows), e.getMessage());
+            reject(ResultRecord.rejected("Некорректная строка " + source(rows) + ", " + e.getMessage() + " "
+                    + describe(rows), 0, ""), rows.size());
+            return null;
+        }
+    }
+
+    /**
+     * Мерчант чека, если чек можно отправлять. Дубль по индексу (тот же ИНН,
+     * номер, дата и сумма) не отправляется и пишется в лог ошибок. Ключ дубля
+     * занимается после проверки мерчанта и снимается, если чек не ушел.
+     */
+    private MerchantRegistry.Merchant admit(List<ExcelRow> rows, CorrectionReceipt receipt) {
+        MerchantRegistry.Merchant merchant = merchantFor(rows, receipt);
+        if (merchant == null || dedup != null && isDuplicate(rows, receipt)) return null;
+        return merchant;
+    }
+
+    private boolean isDuplicate(List<ExcelRow> rows, CorrectionReceipt receipt) {
+        DedupIndex.Status status = dedup.claim(receipt.dedupKey());
+        if (status == DedupIndex.Status.NEW) return false;
+        duplicateCount.incrementAndGet();
+        String reason = reason(status);
+        log.warn("Дубль чека {} в строке {}: {}", receipt.correctionNumber(), source(rows), reason);
+        reject(ResultRecord.rejected("Дубль чека, " + reason + ": ИНН " + receipt.organizationInn()
+                        + ", номер " + receipt.correctionNumber() + " от " + receipt.correctionDate()
+                        + ", сумма " + receipt.electronic() + " " + source(rows),
+                receipt.rowKey(), receipt.publicId()), rows.size());
+        return true;
+    }
+
+    private static String reason(DedupIndex.Status status) {
+        return status == DedupIndex.Status.SENT ? "уже отправлен ранее" : "повторяется в файле";
+    }
+
+    private MerchantRegistry.Merchant merchantFor(List<ExcelRow> rows, CorrectionReceipt receipt) {
+        String publicId = receipt.publicId();
+        MerchantRegistry.Merchant merchant = merchants.get(publicId);
+        if (merchant == null) {
+            log.warn("Не найден apiSecret для publicId: {}", publicId);
+            reject(ResultRecord.rejected("Нет ключа для publicId=" + publicId, receipt.rowKey(), publicId),
+                    rows.size());
+        }
+        return merchant;
+    }
+
+    private void writeResult(List<ExcelRow> rows, CorrectionReceipt receipt, SendResult result) {
+        writeResult(receipt.rowKey(), receipt.dedupKey(), receipt.publicId(), rows.size(), result);
+    }
+
+    //rows - строк файла в чеке, запись spool считается одной строкой
+    private void writeResult(long rowKey, long dedupKey, String publicId, int rows, SendResult result) {
+        (result.success ? successCount : failedCount).incrementAndGet();
+        if (dedup != null) {
+            if (result.success) dedup.confirm(dedupKey);
+            else dedup.release(dedupKey);
+        }
+        metrics.rowDone(publicId, result.success, rows);
+        metrics.stage(Metrics.Stage.ROW).record(result.latencyMillis * 1000);
+        sink.add(new ResultRecord(result.success, "HTTP " + result.httpCode + " " + result.responseBody,
+                rowKey, publicId, result.httpCode, result.attempts, result.latencyMillis, true));
+    }
+
+    private void writeError(List<ExcelRow> rows, CorrectionReceipt receipt, Throwable e) {
+        if (dedup != null) dedup.release(receipt.dedupKey());
+        reject(ResultRecord.rejected(source(rows) + " " + describe(rows), receipt.rowKey(), receipt.publicId()),
+                rows.size());
+        log.error("Ошибка при обработке строки {}: {}", source(rows), describe(rows), e);
+    }
+
+    //Источник чека для логов: первая строка и сколько строк в него склеено
+    public static String source(List<ExcelRow> rows) {
+        String first = rows.get(0).source();
+        return rows.size() == 1 ? first : first + " (строк: " + rows.size() + ")";
+    }
+
+    private static String describe(List<ExcelRow> rows) {
+        return rows.size() == 1 ? rows.get(0).toString() : rows.toString();
+    }
+
+    private void reject(ResultRecord record, int rows) {
+        failedCount.incrementAndGet();
+        metrics.rowDone(record.publicId(), false, rows);
+        sink.add(record);
+    }
+
+    /**
+     * Подготовленный запрос. attempt, previousDelayMs, startNanos и deferrals нужны
+     * конвейеру, чтобы планировать повторы без блокировки потока.
+     */
+    public record Prepared(List<ExcelRow> rows, CorrectionReceipt receipt, HttpRequest request,
+                           int attempt, long previousDelayMs, long startNanos, int deferrals) {
+        //Отметка начала отправки перед первой попыткой
+        public Prepared started() {
+            return new Prepared(rows, receipt, request, attempt, previousDelayMs, System.nanoTime(), deferrals);
+        }
+
+        public Prepared retry(long delayMs) {
+            return new Prepared(rows, receipt, request, attempt + 1, delayMs, startNanos, deferrals);
+        }
+
+        //Отложен автоматом отключения: запрос не уходил, попытка не тратится
+        public Prepared deferred() {
+            return new Prepared(rows, receipt, request, attempt, previousDelayMs, startNanos, deferrals + 1);
+        }
+    }
+
+    public record Outcome(List<ExcelRow> rows, CorrectionReceipt receipt, SendResult result, Throwable error) {
+    }
+}
@@ -0,0 +1,183 @@
+package app.job;
+
+import app.reader.ExcelReader;
+import app.reader.ExcelRow;
+import app.sender.CircuitOpenException;
+import app.sender.RetryPolicy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Конвейер отправки с ограниченными очередями между этапами:
+ * чтение строк -> формирование json -> отправка -> запись результата.
+ * Последний этап - ResultSink со своим потоком-писателем.
+ * Повторы после 429/5xx не усыпляют поток отправки: запрос уходит
+ * в очередь отложенных задач и возвращается на этап отправки по таймеру.
+ * Так же ждет строка мерчанта с разомкнутым автоматом, попытка на это не тратится.
+ * У каждого этапа своя параллельность, заполненная очередь
+ * останавливает предыдущий этап, поэтому память не растет с размером файла.
+ * С FairSchedule очередь этапа отправки разбирается по кругу мерчантов с учетом приоритета.
+ */
+public class SendPipeline {
+    private static final Logger log = LoggerFactory.getLogger(SendPipeline.class);
+
+    private final SendJob job;
+    private final RetryPolicy retryPolicy;
+    private final int buildThreads;
+    private final int sendThreads;
+    private final int capacity;
+    // Справедливая очередь отправки, null - порядок файла
+    private final FairSchedule fair;
+
+    public SendPipeline(SendJob job, RetryPolicy retryPolicy, int buildThreads, int sendThreads, int capacity) {
+        this(job, retryPolicy, buildThreads, sendThreads, capacity, null);
+    }
+
+    public SendPipeline(SendJob job, RetryPolicy retryPolicy, int buildThreads, int sendThreads, int capacity,
+                        FairSchedule fair) {
+        this.job = job;
+        this.retryPolicy = retryPolicy;
+        this.buildThreads = buildThreads;
+        this.sendThreads = sendThreads;
+        this.capacity = capacity;
+        this.fair = fair;
+    }
+
+    /**
+     * Прогоняет файл через конвейер и ждет завершения всех этапов.
+     * statsSeconds - как часто писать в лог глубину очередей, 0 - не писать.
+     */
+    public int run(ExcelReader reader, int statsSeconds) throws Exception {
+        ScheduledExecutorService retries = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "pipeline-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Чеки от передачи на отправку до записи результата, включая отложенные повторы
+        InFlight inFlight = new InFlight();
+
+        // Этап отправки ссылается сам на себя, чтобы вернуть в очередь отложенный повтор
+        AtomicReference<PipelineStage<SendJob.Prepared>> sendStage = new AtomicReference<>();
+        PipelineStage.Handler<SendJob.Prepared> sendHandler =
+                prepared -> sendOrRetry(prepared, sendStage.get(), retries, inFlight);
+        PipelineStage<SendJob.Prepared> send = fair == null
+                ? new PipelineStage<>("send", capacity, sendThreads, sendHandler)
+                : new PipelineStage<>("send", fair.queue(SendJob.Prepared::rows), sendThreads, sendHandler);
+        sendStage.set(send);
+        PipelineStage<List<ExcelRow>> build = new PipelineStage<>("build", capacity, buildThreads,
+                rows -> {
+                    SendJob.Prepared prepared = job.prepare(rows);
+                    if (prepared == null) return;
+                    inFlight.add();
+                    try {
+                        send.put(prepared);
+                    } catch (InterruptedException e) {
+                        inFlight.done();
+                        throw e;
+                    }
+                });
+
+        ScheduledExecutorService stats = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "pipeline-stats");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (statsSeconds > 0) {
+            stats.scheduleAtFixedRate(() -> log.info("Очереди конвейера: build={} send={} в работе={}",
+                    build.depth(), send.depth(), inFlight.count()), statsSeconds, statsSeconds, TimeUnit.SECONDS);
+        }
+
+        int receiptsCount;
+        try {
+            receiptsCount = job.read(reader, rows -> {
+                try {
+                    build.put(rows);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Чтение файла прервано", e);
+                }
+            });
+            // Закрываем этапы по порядку, каждый дожидается опустошения своей очереди
+            build.close();
+            build.await();
+            // Сборка завершена, новых чеков не будет: ждем записи результата по каждому,
+            // отложенный повтор остается в счете, пока не вернется и не будет записан
+            inFlight.awaitZero();
+            send.close();
+            send.await();
+        } finally {
+            stats.shutdownNow();
+            retries.shutdownNow();
+        }
+        return receiptsCount;
+    }
+
+    /**
+     * Одна попытка отправки. При 429/5xx, если политика разрешает повтор,
+     * запрос ставится в очередь с задержкой, иначе результат уходит на запись.
+     */
+    private void sendOrRetry(SendJob.Prepared prepared, PipelineStage<SendJob.Prepared> send,
+                             ScheduledExecutorService retries, InFlight inFlight) {
+        boolean rescheduled = false;
+        try {
+            // Первая попытка; отложенная автоматом строка возвращается с уже отмеченным началом
+            if (prepared.startNanos() == 0) {
+                retryPolicy.onFirstAttempt();
+                prepared = prepared.started();
+            }
+            SendJob.Outcome outcome = job.sendOnce(prepared);
+            long delay = -1;
+            SendJob.Prepared next = null;
+            if (outcome.error() instanceof CircuitOpenException open) {
+                delay = retryPolicy.deferMillis(prepared.deferrals(), open);
+                next = prepared.deferred();
+            } else if (outcome.error() instanceof RetryPolicy.RetryableException retryable) {
+                delay = retryPolicy.nextDelayMillis(prepared.attempt(), prepared.previousDelayMs(), retryable);
+                next = prepared.retry(delay);
+            }
+            if (delay >= 0) {
+                SendJob.Prepared scheduled = next;
+                retries.schedule(() -> {
+                    try {
+                        send.put(scheduled);
+                    } catch (InterruptedException e) {
+                        inFlight.done();
+                        Thread.currentThread().interrupt();
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+                rescheduled = true;
+                return;
+            }
+            job.record(outcome);
+        } finally {
+            if (!rescheduled) inFlight.done();
+        }
+    }
+
+    //Счетчик чеков в работе с ожиданием нуля
+    private static final class InFlight {
+        private int count;
+
+        synchronized void add() {
+            count++;
+        }
+
+        synchronized void done() {
+            if (--count == 0) notifyAll();
+        }
+
+        synchronized int count() {
+            return count;
+        }
+
+        synchronized void awaitZero() throws InterruptedException {
+            while (count > 0) wait();
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package app.journal;
+
+import app.util.LongHashSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Индекс отправленных чеков между запусками для защиты от дублей.
+ * Хэш-таблица ключей long фиксированной емкости в файле, отображенном в память:
+ * открытая адресация с линейным пробированием, вставка через CAS без блокировок.
+ * Память процесса не растет с историей: таблица живет в страничном кэше ОС,
+ * файл занимает capacity * 8 байт. Ключ 0 означает пустую ячейку.
+ * В индекс попадают только успешно отправленные чеки, повторы внутри
+ * запуска отслеживаются отдельно в памяти, пока первая копия в работе:
+ * в режиме службы память не растет с числом обработанных чеков.
+ */
+public class DedupIndex implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(DedupIndex.class);
+
+    private static final long MAGIC = 0x5450534444555031L; // "TPSDDUP1"
+    // magic, емкость, число ключей, признак открытого файла
+    private static final int HEADER_SIZE = 64;
+    // Ячеек в одном отображении: FileChannel.map ограничен 2 ГБ
+    private static final int SEGMENT_BITS = 27;
+    private static final long SEGMENT_SLOTS = 1L << SEGMENT_BITS;
+    // Выше этой загрузки пробирование становится длинным, новые ключи не пишутся
+    private static final double MAX_LOAD = 0.9;
+    private static final VarHandle SLOT = MethodHandles.byteBufferViewVarHandle(long[].class,
+            ByteOrder.LITTLE_ENDIAN);
+
+    public enum Status {
+        //Чек встречается впервые
+        NEW,
+        //Чек уже успешно отправлен в одном из прошлых запусков или раньше в этом
+        SENT,
+        //Чек повторяется в текущем запуске, первая копия еще в работе
+        REPEAT
+    }
+
+    private final Path file;
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private final MappedByteBuffer[] segments;
+    private final long capacity;
+    private final long mask;
+    private final AtomicLong size = new AtomicLong();
+    private final LongHashSet claimed = new LongHashSet(1024);
+    private volatile boolean full;
+
+    /**
+     * @param file     файл индекса, создается если его нет
+     * @param capacity число ячеек, округляется вверх до степени двойки.
+     *                 Если у существующего файла емкость меньше, он перестраивается
+     */
+    public DedupIndex(Path file, long capacity) throws IOException {
+        this.file = file;
+        long wanted = Long.highestOneBit(Math.max(1024, capacity - 1)) << 1;
+        if (Files.exists(file) && Files.size(file) > 0) {
+            long existing = readCapacity(file);
+            if (existing < wanted) rebuild(file, existing, wanted);
+            else wanted = existing;
+        }
+        this.capacity = wanted;
+        this.mask = wanted - 1;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        boolean created = channel.size() == 0;
+        this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        this.segments = map(channel, wanted);
+
+        if (created) {
+            header.putLong(0, MAGIC).putLong(8, wanted).putLong(16, 0);
+        } else if (header.getLong(0) != MAGIC) {
+            channel.close();
+            throw new IOException("Файл не является индексом дублей: " + file);
+        }
+        if (!created && header.getLong(24) != 0) {
+            // Прошлый запуск не закрыл индекс, счетчик в заголовке мог отстать
+            log.warn("Индекс дублей {} не был закрыт, пересчет ключей", file);
+            size.set(count());
+        } else {
+            size.set(header.getLong(16));
+        }
+        header.putLong(24, 1);
+        header.force();
+        full = size.get() >= capacity * MAX_LOAD;
+    }
+
+    /**
+     * Проверка чека перед отправкой. NEW - ключ занят за текущим запуском,
+     * повтор той же строки дальше по файлу вернет REPEAT.
+     */
+    public Status claim(long key) {
+        key = nonZero(key);
+        if (contains(key)) return Status.SENT;
+        synchronized (claimed) {
+            // confirm снимает отметку после записи в таблицу, повторная проверка под блокировкой ее увидит
+            if (contains(key)) return Status.SENT;
+            return claimed.add(key) ? Status.NEW : Status.REPEAT;
+        }
+    }
+
+    //Чек не отправлен: следующая его копия в этом запуске может уйти
+    public void release(long key) {
+        key = nonZero(key);
+        synchronized (claimed) {
+            claimed.remove(key);
+        }
+    }
+
+    /**
+     * Отметка успешной отправки, ключ сохраняется для следующих запусков,
+     * а отметка текущего запуска снимается. В заполненном индексе она
+     * остается в памяти, чтобы повторы в этом запуске все равно ловились.
+     */
+    public void confirm(long key) {
+        key = nonZero(key);
+        if (insert(key)) release(key);
+    }
+
+    //false, если индекс заполнен и ключ не записан
+    private boolean insert(long key) {
+        if (full) return false;
+        // Ключ уже перемешан Hash64, поэтому младшие биты сразу служат номером ячейки
+        for (long i = key & mask; ; i = (i + 1) & mask) {
+            MappedByteBuffer segment = segments[(int) (i >>> SEGMENT_BITS)];
+            int offset = (int) (i & (SEGMENT_SLOTS - 1)) * Long.BYTES;
+            long cur = (long) SLOT.getVolatile(segment, offset);
+            while (cur == 0) {
+                if (SLOT.compareAndSet(segment, offset, 0L, key)) {
+                    if (size.incrementAndGet() >= capacity * MAX_LOAD && !full) {
+                        full = true;
+                        log.warn("Индекс дублей {} заполнен на {}%, увеличьте dedupCapacity",
+                                file, (int) (MAX_LOAD * 100));
+                    }
+                    return true;
+                }
+                cur = (long) SLOT.getVolatile(segment, offset);
+            }
+            if (cur == key) return true;
+        }
+    }
+
+    public boolean contains(long key) {
+        key = nonZero(key);
+        for (long i = key & mask; ; i = (i + 1) & mask) {
+            long cur = (long) SLOT.getVolatile(segments[(int) (i >>> SEGMENT_BITS)],
+                    (int) (i & (SEGMENT_SLOTS - 1)) * Long.BYTES);
+            if (cur == key) return true;
+            if (cur == 0) return false;
+        }
+    }
+
+    public long size() {
+        return size.get();
+    }
+
+    public long capacity() {
+        return capacity;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            for (MappedByteBuffer segment : segments) segment.force();
+            header.putLong(16, size.get()).putLong(24, 0);
+            header.force();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private long count() {
+        long n = 0;
+        for (MappedByteBuffer segment : segments) {
+            for (int offset = 0; offset < segment.capacity(); offset += Long.BYTES) {
+                if (segment.getLong(offset) != 0) n++;
+            }
+        }
+        return n;
+    }
+
+    private static long nonZero(long key) {
+        return key == 0 ? 1 : key;
+    }
+
+    private static MappedByteBuffer[] map(FileChannel channel, long capacity) throws IOException {
+        int count = (int) ((capacity + SEGMENT_SLOTS - 1) / SEGMENT_SLOTS);
+        MappedByteBuffer[] segments = new MappedByteBuffer[count];
+        for (int s = 0; s < count; s++) {
+            long slots = Math.min(SEGMENT_SLOTS, capacity - s * SEGMENT_SLOTS);
+            segments[s] = channel.map(FileChannel.MapMode.READ_WRITE,
+                    HEADER_SIZE + s * SEGMENT_SLOTS * Long.BYTES, slots * Long.BYTES);
+            segments[s].order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return segments;
+    }
+
+    private static long readCapacity(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getLong(0) != MAGIC) throw new IOException("Файл не является индексом дублей: " + file);
+            return header.getLong(8);
+        }
+    }
+
+    //Перенос ключей в таблицу большей емкости через временный файл
+    private static void rebuild(Path file, long from, long to) throws IOException {
+        log.info("Перестройка индекса дублей {}: емкость {} -> {}", file, from, to);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.deleteIfExists(tmp);
+        try (FileChannel source = FileChannel.open(file, StandardOpenOption.READ);
+             DedupIndex target = new DedupIndex(tmp, to)) {
+            MappedByteBuffer[] old = new MappedByteBuffer[(int) ((from + SEGMENT_SLOTS - 1) / SEGMENT_SLOTS)];
+            for (int s = 0; s < old.length; s++) {
+                long slots = Math.min(SEGMENT_SLOTS, from - s * SEGMENT_SLOTS);
+                old[s] = source.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + s * SEGMENT_SLOTS * Long.BYTES,
+                        slots * Long.BYTES);
+                old[s].order(ByteOrder.LITTLE_ENDIAN);
+                for (int offset = 0; offset < old[s].capacity(); offset += Long.BYTES) {
+                    long key = old[s].getLong(offset);
+                    if (key != 0) target.confirm(key);
+                }
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,221 @@
+package app.journal;
+
+import app.util.LongHashSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Журнал отправленных чеков для продолжения прерванного запуска.
+ * Файл только дописывается: заголовок и записи фиксированной длины
+ * (ключ строки long + результат byte). Записи копятся в буфере и
+ * сбрасываются на диск с fsync пачкой, по размеру или по таймеру.
+ * Запись и fsync идут вне lock: под ним только подмена буфера, поэтому
+ * isDone и record не ждут диска.
+ * При открытии успешные ключи загружаются в LongHashSet, туда же
+ * добавляются успешные ключи текущего запуска: такие строки пропускаются
+ * и при повторном запуске, и при повторе книги в режиме службы.
+ */
+public class SendJournal implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(SendJournal.class);
+
+    private static final long MAGIC = 0x5450534A524E4C31L; // "TPSJRNL1"
+    private static final int HEADER_SIZE = Long.BYTES;
+    private static final int RECORD_SIZE = Long.BYTES + 1;
+    private static final byte FAILED = 0;
+    private static final byte SUCCESS = 1;
+
+    private final FileChannel channel;
+    // Успешные ключи, под lock: record дописывает их во время отправки
+    private final LongHashSet done;
+    // Копящийся буфер под lock; второй буфер пишется на диск под writeLock
+    private ByteBuffer buffer;
+    private ByteBuffer spare;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final ScheduledExecutorService flusher;
+
+    /**
+     * @param file        файл журнала, создается если его нет
+     * @param batchSize   сколько записей копить до сброса на диск
+     * @param flushMillis как часто сбрасывать неполную пачку
+     */
+    public SendJournal(Path file, int batchSize, long flushMillis) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        this.done = load();
+        this.buffer = ByteBuffer.allocate(Math.max(1, batchSize) * RECORD_SIZE);
+        this.spare = ByteBuffer.allocate(buffer.capacity());
+
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "journal-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+    }
+
+    //Строка уже успешно отправлена в одном из прошлых запусков или раньше в этом
+    public boolean isDone(long key) {
+        lock.lock();
+        try {
+            return done.contains(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int doneCount() {
+        lock.lock();
+        try {
+            return done.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void record(long key, boolean success) throws IOException {
+        boolean full;
+        while (true) {
+            lock.lock();
+            try {
+                if (buffer.hasRemaining()) {
+                    buffer.putLong(key).put(success ? SUCCESS : FAILED);
+                    if (success) done.add(key);
+                    full = !buffer.hasRemaining();
+                    break;
+                }
+            } finally {
+                lock.unlock();
+            }
+            // Буфер заполнил другой поток и еще не сбросил его
+            flush();
+        }
+        if (full) flush();
+    }
+
+    public void flush() throws IOException {
+        writeLock.lock();
+        try {
+            ByteBuffer pending;
+            lock.lock();
+            try {
+                if (buffer.position() == 0) return;
+                pending = buffer;
+                buffer = spare;
+                spare = pending;
+            } finally {
+                lock.unlock();
+            }
+            try {
+                pending.flip();
+                while (pending.hasRemaining()) channel.write(pending);
+                channel.force(false);
+            } finally {
+                pending.clear();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        // Без прерывания: прерванный в write или force поток закрывает FileChannel,
+        // и последняя пачка уже не записывается
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException e) {
+            log.error("Не удалось записать журнал отправки", e);
+        }
+    }
+
+    //Чтение журнала; неполная последняя запись после сбоя отбрасывается
+    private LongHashSet load() throws IOException {
+        long size = channel.size();
+        if (size == 0) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putLong(MAGIC);
+            header.flip();
+            while (header.hasRemaining()) channel.write(header);
+            channel.force(false);
+            return new LongHashSet(16);
+        }
+
+        LongHashSet set = new LongHashSet((int) Math.min((size - HEADER_SIZE) / RECORD_SIZE, Integer.MAX_VALUE / 4));
+        long end = scan(channel, size, (key, success) -> {
+            if (success) set.add(key);
+        });
+        if (end != size) {
+            log.warn("Журнал обрезан после сбоя, отброшено {} байт", size - end);
+            channel.truncate(end);
+        }
+        channel.position(end);
+        return set;
+    }
+
+    //Разбор записей до последней целой, возвращает позицию ее конца
+    private static long scan(FileChannel channel, long size, Entry entry) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        channel.read(header, 0);
+        if (header.flip().remaining() < HEADER_SIZE || header.getLong() != MAGIC) {
+            throw new IOException("Файл не является журналом отправки");
+        }
+
+        long records = (size - HEADER_SIZE) / RECORD_SIZE;
+        long end = HEADER_SIZE + records * RECORD_SIZE;
+        ByteBuffer chunk = ByteBuffer.allocate(RECORD_SIZE * 8192);
+        long pos = HEADER_SIZE;
+        while (pos < end) {
+            chunk.clear().limit((int) Math.min(chunk.capacity(), end - pos));
+            int read = channel.read(chunk, pos);
+            if (read <= 0) break;
+            pos += read;
+            chunk.flip();
+            while (chunk.remaining() >= RECORD_SIZE) {
+                long key = chunk.getLong();
+                entry.accept(key, chunk.get() == SUCCESS);
+            }
+            // Запись, разрезанная границей чтения, дочитывается со следующей порцией
+            pos -= chunk.remaining();
+        }
+        return end;
+    }
+
+    /**
+     * Чтение записей другого журнала по порядку, например журнала шарда
+     * при слиянии. У одного ключа может быть неудача, а потом успех.
+     */
+    public static void read(Path file, Entry entry) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            scan(channel, channel.size(), entry);
+        }
+    }
+
+    public interface Entry {
+        void accept(long key, boolean success) throws IOException;
+    }
+}
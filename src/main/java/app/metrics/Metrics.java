@@ -0,0 +1,162 @@
+package app.metrics;
+
+import app.reader.ExcelRow;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Метрики запуска: гистограммы времени по этапам, счетчики по кодам HTTP
+ * и по publicId. Все счетчики без блокировок, пишутся из рабочих потоков,
+ * читаются строкой прогресса и эндпоинтом /metrics.
+ */
+public class Metrics {
+    /**
+     * READ - разбор строки файла, BUILD - сборка json и запроса,
+     * LIMIT - ожидание автомата, предела и лимита частоты, HTTP - запрос,
+     * RETRY - пауза перед повтором, ROW - от первой попытки до результата.
+     */
+    public enum Stage { READ, BUILD, LIMIT, HTTP, RETRY, ROW }
+
+    private final Map<Stage, Histogram> stages = new EnumMap<>(Stage.class);
+    private final Map<String, LongAdder> httpCodes = new ConcurrentHashMap<>();
+    private final Map<String, Merchant> merchants = new ConcurrentHashMap<>();
+    private final LongAdder rowsRead = new LongAdder();
+    private final LongAdder success = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    // Строки файла в завершенных чеках: при склейке чек - несколько строк
+    private final LongAdder rowsFinished = new LongAdder();
+    // Время первого ответа API (currentTimeMillis), 0 - ответов еще не было
+    private final AtomicLong firstResponseMillis = new AtomicLong();
+
+    public Metrics() {
+        for (Stage stage : Stage.values()) stages.put(stage, new Histogram());
+    }
+
+    public Histogram stage(Stage stage) {
+        return stages.get(stage);
+    }
+
+    public void recordNanos(Stage stage, long nanos) {
+        stages.get(stage).recordNanos(nanos);
+    }
+
+    //Ответ API; code 0 - сетевая ошибка без ответа
+    public void response(int code) {
+        if (firstResponseMillis.get() == 0) firstResponseMillis.compareAndSet(0, System.currentTimeMillis());
+        httpCodes.computeIfAbsent(code == 0 ? "error" : Integer.toString(code), c -> new LongAdder()).increment();
+    }
+
+    //Итог чека из rows строк файла: записан в лог успешных или ошибок
+    public void rowDone(String publicId, boolean ok, int rows) {
+        (ok ? success : failed).increment();
+        rowsFinished.add(rows);
+        if (publicId == null || publicId.isEmpty()) return;
+        Merchant merchant = merchants.computeIfAbsent(publicId, id -> new Merchant());
+        (ok ? merchant.success : merchant.failed).increment();
+    }
+
+    public void rowSkipped(int rows) {
+        skipped.increment();
+        rowsFinished.add(rows);
+    }
+
+    /**
+     * Обертка над consumer строк файла: время между строками за вычетом
+     * работы самого consumer - это время разбора листа.
+     */
+    public Consumer<ExcelRow> timedReads(Consumer<ExcelRow> consumer) {
+        long[] last = {System.nanoTime()};
+        return row -> {
+            recordNanos(Stage.READ, System.nanoTime() - last[0]);
+            rowsRead.increment();
+            try {
+                consumer.accept(row);
+            } finally {
+                last[0] = System.nanoTime();
+            }
+        };
+    }
+
+    public long firstResponseMillis() {
+        return firstResponseMillis.get();
+    }
+
+    public long rowsRead() {
+        return rowsRead.sum();
+    }
+
+    public long successCount() {
+        return success.sum();
+    }
+
+    public long failedCount() {
+        return failed.sum();
+    }
+
+    public long doneCount() {
+        return success.sum() + failed.sum() + skipped.sum();
+    }
+
+    //Строки файла в чеках из doneCount
+    public long rowsFinished() {
+        return rowsFinished.sum();
+    }
+
+    /**
+     * Текстовый формат Prometheus. Гистограммы отдаются как summary
+     * с перцентилями 0.5/0.9/0.99 в секундах.
+     */
+    public String prometheus() {
+        StringBuilder sb = new StringBuilder(4096);
+        sb.append("# TYPE tps_stage_seconds summary\n");
+        for (Map.Entry<Stage, Histogram> e : stages.entrySet()) {
+            String stage = e.getKey().name().toLowerCase();
+            Histogram h = e.getValue();
+            for (double q : new double[]{0.5, 0.9, 0.99}) {
+                sb.append("tps_stage_seconds{stage=\"").append(stage).append("\",quantile=\"").append(q)
+                        .append("\"} ").append(seconds(h.percentile(q))).append('\n');
+            }
+            sb.append("tps_stage_seconds_sum{stage=\"").append(stage).append("\"} ")
+                    .append(seconds(h.sum())).append('\n');
+            sb.append("tps_stage_seconds_count{stage=\"").append(stage).append("\"} ")
+                    .append(h.count()).append('\n');
+        }
+
+        sb.append("# TYPE tps_http_responses_total counter\n");
+        new TreeMap<>(httpCodes).forEach((code, n) -> sb.append("tps_http_responses_total{code=\"")
+                .append(code).append("\"} ").append(n.sum()).append('\n'));
+
+        sb.append("# TYPE tps_rows_read_total counter\n");
+        sb.append("tps_rows_read_total ").append(rowsRead.sum()).append('\n');
+        sb.append("# TYPE tps_rows_total counter\n");
+        sb.append("tps_rows_total{result=\"success\"} ").append(success.sum()).append('\n');
+        sb.append("tps_rows_total{result=\"failed\"} ").append(failed.sum()).append('\n');
+        sb.append("tps_rows_total{result=\"skipped\"} ").append(skipped.sum()).append('\n');
+
+        sb.append("# TYPE tps_merchant_rows_total counter\n");
+        new TreeMap<>(merchants).forEach((id, m) -> {
+            String label = id.replace("\\", "\\\\").replace("\"", "\\\"");
+            sb.append("tps_merchant_rows_total{publicId=\"").append(label).append("\",result=\"success\"} ")
+                    .append(m.success.sum()).append('\n');
+            sb.append("tps_merchant_rows_total{publicId=\"").append(label).append("\",result=\"failed\"} ")
+                    .append(m.failed.sum()).append('\n');
+        });
+        return sb.toString();
+    }
+
+    private static String seconds(long micros) {
+        return Double.toString(micros / 1_000_000.0);
+    }
+
+    private static final class Merchant {
+        private final LongAdder success = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+    }
+}
@@ -0,0 +1,65 @@
+package app.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.function.LongSupplier;
+
+/**
+ * Строка прогресса для периодического вывода в лог: обработано,
+ * скорость за последний интервал, доля ошибок, p50/p99 чека и ETA.
+ * Обработано, скорость и total считаются в одних единицах: строках
+ * файла (при склейке в чеке их несколько) или чеках spool.
+ * total -1, если неизвестно.
+ */
+public class ProgressLog implements Runnable {
+    private static final Logger log = LoggerFactory.getLogger(ProgressLog.class);
+
+    private final Metrics metrics;
+    private final long total;
+    private final LongSupplier done;
+    private final String unit;
+    private long lastDone;
+    private long lastNanos = System.nanoTime();
+
+    private ProgressLog(Metrics metrics, long total, LongSupplier done, String unit) {
+        this.metrics = metrics;
+        this.total = total;
+        this.done = done;
+        this.unit = unit;
+    }
+
+    //Прогресс по строкам файла, total - оценка числа строк
+    public static ProgressLog rows(Metrics metrics, long total) {
+        return new ProgressLog(metrics, total, metrics::rowsFinished, "строк");
+    }
+
+    //Прогресс по чекам, total - число чеков (записей spool)
+    public static ProgressLog receipts(Metrics metrics, long total) {
+        return new ProgressLog(metrics, total, metrics::doneCount, "чеков");
+    }
+
+    @Override
+    public void run() {
+        long now = System.nanoTime();
+        long done = this.done.getAsLong();
+        double rate = (done - lastDone) * 1e9 / Math.max(1, now - lastNanos);
+        lastDone = done;
+        lastNanos = now;
+
+        long finished = metrics.successCount() + metrics.failedCount();
+        double errorPct = finished == 0 ? 0 : metrics.failedCount() * 100.0 / finished;
+        Histogram row = metrics.stage(Metrics.Stage.ROW);
+        String eta = total > 0 && rate > 0
+                ? format(Duration.ofSeconds((long) (Math.max(0, total - done) / rate))) : "?";
+        log.info("Прогресс: {}/{} {}, {} {}/с, ошибки {}%, p50 {} мс, p99 {} мс, осталось {}",
+                done, total > 0 ? total : "?", unit, String.format("%.1f", rate), unit, String.format("%.1f", errorPct),
+                row.percentile(0.5) / 1000, row.percentile(0.99) / 1000, eta);
+    }
+
+    //Формат ЧЧ:ММ:СС по остаткам, а не по полным минутам и секундам
+    public static String format(Duration duration) {
+        return String.format("%02d:%02d:%02d", duration.toHours(), duration.toMinutesPart(), duration.toSecondsPart());
+    }
+}
@@ -0,0 +1,176 @@
+package app.model;
+
+import app.reader.Column;
+import app.reader.ExcelRow;
+import app.util.Hash64;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Чек коррекции, разобранный и проверенный один раз при чтении строки.
+ * До отправителя доходят только корректные чеки с готовыми числовыми полями,
+ * поэтому на этапе отправки строки больше не парсятся.
+ */
+public record CorrectionReceipt(
+        String publicId,
+        String organizationInn,
+        int taxationSystem,
+        int correctionReceiptType,
+        String correctionDate,
+        String correctionNumber,
+        double electronic,
+        List<Item> items
+) {
+    private static final Column PUBLIC_ID = new Column("publicId");
+    private static final Column ORGANIZATION_INN = new Column("OrganizationInn");
+    private static final Column TAXATION_SYSTEM = new Column("TaxationSystem");
+    private static final Column CORRECTION_RECEIPT_TYPE = new Column("CorrectionReceiptType");
+    private static final Column CORRECTION_DATE = new Column("CorrectionDate");
+    private static final Column CORRECTION_NUMBER = new Column("CorrectionNumber");
+    private static final Column AMOUNTS = new Column("Amounts");
+    private static final Column LABEL = new Column("Label");
+    private static final Column PRICE = new Column("Price");
+    private static final Column QUANTITY = new Column("Quantity");
+    private static final Column AMOUNT = new Column("Amount");
+    private static final Column CORRECTION_TYPE = new Column("CorrectionType");
+    private static final Column PAYMENT_PLACE = new Column("PaymentPlace");
+    private static final Column PAYMENT_ADDRESS = new Column("PaymentAddress");
+
+    /**
+     * Позиция чека. Цена, количество и сумма уходят в API строками, как в эксель.
+     */
+    public record Item(
+            String label,
+            String price,
+            String quantity,
+            String amount,
+            int correctionType,
+            String paymentPlace,
+            String paymentAddress
+    ) {
+    }
+
+    /**
+     * Разбор и проверка строки эксель.
+     *
+     * @throws ReceiptValidationException с именем поля, если строка некорректна
+     */
+    public static CorrectionReceipt fromRow(ExcelRow row) throws ReceiptValidationException {
+        Item item = new Item(
+                LABEL.get(row),
+                PRICE.get(row),
+                QUANTITY.get(row),
+                AMOUNT.get(row),
+                parseInt(row, CORRECTION_TYPE),
+                PAYMENT_PLACE.get(row),
+                PAYMENT_ADDRESS.get(row)
+        );
+        return new CorrectionReceipt(
+                required(row, PUBLIC_ID),
+                required(row, ORGANIZATION_INN),
+                parseInt(row, TAXATION_SYSTEM),
+                parseInt(row, CORRECTION_RECEIPT_TYPE),
+                required(row, CORRECTION_DATE),
+                required(row, CORRECTION_NUMBER),
+                parseAmount(row, AMOUNTS),
+                List.of(item)
+        );
+    }
+
+    /**
+     * Один чек из нескольких строк эксель: позиции всех строк в одном items,
+     * суммы Amounts складываются. Поля чека кроме позиций должны совпадать.
+     *
+     * @throws ReceiptValidationException если строка некорректна или отличается от первой
+     */
+    public static CorrectionReceipt fromRows(List<ExcelRow> rows) throws ReceiptValidationException {
+        CorrectionReceipt first = fromRow(rows.get(0));
+        if (rows.size() == 1) return first;
+        List<Item> items = new ArrayList<>(rows.size());
+        items.addAll(first.items);
+        // Сумма через BigDecimal, чтобы 0.1 + 0.2 не уходило в API как 0.30000000000000004
+        BigDecimal electronic = BigDecimal.valueOf(first.electronic);
+        for (int i = 1; i < rows.size(); i++) {
+            CorrectionReceipt next = fromRow(rows.get(i));
+            if (!next.publicId.equals(first.publicId)) throw mismatch(PUBLIC_ID);
+            if (next.taxationSystem != first.taxationSystem) throw mismatch(TAXATION_SYSTEM);
+            if (next.correctionReceiptType != first.correctionReceiptType) throw mismatch(CORRECTION_RECEIPT_TYPE);
+            if (!next.correctionDate.equals(first.correctionDate)) throw mismatch(CORRECTION_DATE);
+            items.addAll(next.items);
+            electronic = electronic.add(BigDecimal.valueOf(next.electronic));
+        }
+        return new CorrectionReceipt(first.publicId, first.organizationInn, first.taxationSystem,
+                first.correctionReceiptType, first.correctionDate, first.correctionNumber,
+                electronic.doubleValue(), List.copyOf(items));
+    }
+
+    /**
+     * Устойчивый ключ чека: хэш publicId и всех полей.
+     * Одинаковое содержимое дает одинаковый ключ в любом запуске.
+     */
+    public long rowKey() {
+        List<String> parts = new ArrayList<>(8 + items.size() * 7);
+        parts.add(publicId);
+        parts.add(organizationInn);
+        parts.add(Integer.toString(taxationSystem));
+        parts.add(Integer.toString(correctionReceiptType));
+        parts.add(correctionDate);
+        parts.add(correctionNumber);
+        parts.add(Double.toString(electronic));
+        for (Item item : items) {
+            parts.add(item.label());
+            parts.add(item.price());
+            parts.add(item.quantity());
+            parts.add(item.amount());
+            parts.add(Integer.toString(item.correctionType()));
+            parts.add(item.paymentPlace());
+            parts.add(item.paymentAddress());
+        }
+        return Hash64.of(parts.toArray(new String[0]));
+    }
+
+    /**
+     * Ключ для поиска дублей: один и тот же чек коррекции организации,
+     * даже если он пришел с другим publicId или другими позициями.
+     */
+    public long dedupKey() {
+        return Hash64.of(organizationInn, correctionNumber, correctionDate, Double.toString(electronic));
+    }
+
+    private static ReceiptValidationException mismatch(Column column) {
+        return new ReceiptValidationException(column.name(), "отличается в строках одного чека");
+    }
+
+    private static String required(ExcelRow row, Column column) throws ReceiptValidationException {
+        String value = column.get(row);
+        if (value.isBlank()) throw new ReceiptValidationException(column.name(), "пустое значение");
+        return value;
+    }
+
+    //Коды в эксель часто приходят как "1.0", поэтому число читается как double
+    private static int parseInt(ExcelRow row, Column column) throws ReceiptValidationException {
+        String value = required(row, column);
+        try {
+            double number = Double.parseDouble(value);
+            if (number != Math.rint(number)) {
+                throw new ReceiptValidationException(column.name(), "ожидается целое число, получено '" + value + "'");
+            }
+            return (int) number;
+        } catch (NumberFormatException e) {
+            throw new ReceiptValidationException(column.name(), "не число '" + value + "'");
+        }
+    }
+
+    //Пустая сумма считается нулем, как и раньше; нечисловая - ошибка
+    private static double parseAmount(ExcelRow row, Column column) throws ReceiptValidationException {
+        String value = column.get(row);
+        if (value.isBlank()) return 0.0;
+        try {
+            return Double.parseDouble(value.replace(",", "."));
+        } catch (NumberFormatException e) {
+            throw new ReceiptValidationException(column.name(), "не число '" + value + "'");
+        }
+    }
+}
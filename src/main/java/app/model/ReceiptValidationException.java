@@ -0,0 +1,19 @@
+package app.model;
+
+/**
+ * Ошибка проверки строки эксель: в каком поле и что не так.
+ */
+public class ReceiptValidationException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    private final String field;
+
+    public ReceiptValidationException(String field, String reason) {
+        super(field + ": " + reason);
+        this.field = field;
+    }
+
+    public String getField() {
+        return field;
+    }
+}
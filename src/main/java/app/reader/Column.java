@@ -0,0 +1,42 @@
+package app.reader;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Именованная колонка, индекс которой вычисляется один раз на схему.
+ * Позволяет читать значения из ExcelRow без поиска по имени на каждой строке.
+ * Индекс хранит сама схема в ячейке с номером колонки id, поэтому строки
+ * разных листов вперемешку не вытесняют друг у друга найденный индекс.
+ */
+public final class Column {
+    private static final AtomicInteger COUNT = new AtomicInteger();
+
+    private final String name;
+    private final int id = COUNT.getAndIncrement();
+
+    public Column(String name) {
+        this.name = name;
+    }
+
+    public String get(ExcelRow row) {
+        return row.get(row.schema().slot(this));
+    }
+
+    //Есть ли колонка в схеме строки
+    public boolean isPresent(ExcelRow row) {
+        return row.schema().slot(this) >= 0;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    int id() {
+        return id;
+    }
+
+    //Сколько колонок создано, размер таблицы индексов в схеме
+    static int count() {
+        return COUNT.get();
+    }
+}
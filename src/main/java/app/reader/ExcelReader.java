@@ -1,95 +1,376 @@
 package app.reader;
 
-import org.apache.poi.ss.usermodel.*;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.model.SharedStrings;
+import org.apache.poi.xssf.model.StylesTable;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
 
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.math.BigDecimal;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 /**
  * Класс обработки файла эксель. Перебирает строки и ячейки эксель,
  * проверяет на типы данных в ячейке, и возвращает список строк
  * excelPath - путь к эксель файлу.
+ * Чтение потоковое (SAX), лист целиком в память не загружается.
+ * Может читать несколько книг и все их листы: листы разбираются
+ * параллельно на parserThreads потоках и сливаются в один поток строк.
  */
 public class ExcelReader {
-    private final String excelFile;
+    private static final String STOP = "stop";
+    // Очередь строк от потоков разбора к потоку consumer
+    private static final int QUEUE_CAPACITY = 1024;
+    private static final ExcelRow END = new ExcelRow(new RowSchema(List.of(), ""), new String[0], 0);
+
+    private final List<Path> files;
+    private final boolean allSheets;
+    private final int parserThreads;
+
+    //Одна книга, только первый лист
     public ExcelReader(String excelFile) {
-        this.excelFile = excelFile;
+        this(List.of(Paths.get(excelFile)), false, 1);
     }
 
-    public List<Map<String, String>> readAllRows() throws IOException {
-        List<Map<String,String>> list = new ArrayList<>();
-        try (InputStream stream = Files.newInputStream(Paths.get(excelFile));
-             Workbook workbook = new XSSFWorkbook(stream)) {
-
-            Sheet sheet = workbook.getSheetAt(0);
-            Iterator<Row> rows = sheet.iterator();
-            if (!rows.hasNext()) return list;
-            Row header = rows.next();
-            List<String> cols = new ArrayList<>();
-            for(Cell cell: header) cols.add(cell.getStringCellValue().trim());
-
-            //Бежим строкам
-            while (rows.hasNext()) {
-                Row row = rows.next();
-                if (isRowEmpty(row)) continue;
-                Map<String, String> map = new HashMap<>();
-
-                //Достаем каждую ячейку и обрабатываем ее
-                for (int i = 0; i < cols.size(); i++) {
-                    Cell cell = row.getCell(i);
-                    String value = "";
-
-                    // Проверка на типы данных в ячейке
-                    if (cell != null) {
-                        switch (cell.getCellType()) {
-                            case STRING -> {
-                                value = cell.getStringCellValue().trim();
-                            }
-                            case NUMERIC -> {
-                                if (DateUtil.isCellDateFormatted(cell)) {
-                                    // Если это дата — сохраняем в ISO-формате (YYYY-MM-DD)
-                                    value = cell.getLocalDateTimeCellValue().toLocalDate().toString();
-                                } else {
-                                    // Число — сохраняем без экспоненциальной записи
-                                    BigDecimal bd = BigDecimal.valueOf(cell.getNumericCellValue());
-                                    value = bd.stripTrailingZeros().toPlainString();
-                                }
-                            }
-                            case BOOLEAN -> {
-                                value = Boolean.toString(cell.getBooleanCellValue());
-                            }
-                            default -> {
-                                // Принудительно как текст
-                                cell.setCellType(CellType.STRING);
-                                value = cell.getStringCellValue().trim();
+    /**
+     * files - книги в порядке чтения, allSheets - все листы или только первый,
+     * parserThreads - сколько листов разбирается одновременно.
+     */
+    public ExcelReader(List<Path> files, boolean allSheets, int parserThreads) {
+        this.files = List.copyOf(files);
+        this.allSheets = allSheets;
+        this.parserThreads = Math.max(1, parserThreads);
+    }
+
+    /**
+     * Список книг по пути из конфига: файл, каталог (все *.xlsx в нем)
+     * или маска в имени файла, например data/receipts-*.xlsx.
+     */
+    public static List<Path> resolve(String spec) throws IOException {
+        int glob = -1;
+        for (int i = 0; i < spec.length() && glob < 0; i++) {
+            if ("*?[{".indexOf(spec.charAt(i)) >= 0) glob = i;
+        }
+        if (glob < 0) {
+            Path path = Paths.get(spec);
+            return Files.isDirectory(path) ? list(path, "*.xlsx") : List.of(path);
+        }
+        int slash = Math.max(spec.lastIndexOf('/'), spec.lastIndexOf('\\'));
+        if (slash > glob) throw new IOException("Маска допускается только в имени файла: " + spec);
+        return list(slash < 0 ? Paths.get(".") : Paths.get(spec.substring(0, slash + 1)), spec.substring(slash + 1));
+    }
+
+    public List<Path> files() {
+        return files;
+    }
+
+    public List<ExcelRow> readAllRows() throws IOException {
+        List<ExcelRow> list = new ArrayList<>();
+        readRows(list::add);
+        return list;
+    }
+
+    /**
+     * Потоково читает листы и отдает строки в consumer по мере разбора.
+     * Первая строка каждого листа считается заголовком, пустые строки пропускаются.
+     * consumer всегда вызывается из текущего потока; при параллельном разборе
+     * строки разных листов перемешиваются, внутри листа порядок сохраняется.
+     */
+    public void readRows(Consumer<ExcelRow> consumer) throws IOException {
+        if (parserThreads == 1 || (files.size() == 1 && !allSheets)) {
+            for (Path file : files) {
+                Book book = open(file);
+                try {
+                    for (Sheet sheet : book.sheets) book.parse(sheet, consumer);
+                } catch (SAXException | ParserConfigurationException e) {
+                    throw new IOException("Ошибка чтения файла " + file, e);
+                } finally {
+                    book.close();
+                }
+            }
+        } else {
+            readParallel(consumer);
+        }
+    }
+
+    /**
+     * Оценка числа строк данных (без заголовков) по элементу dimension
+     * всех читаемых листов. Разбор останавливается до данных листа.
+     * -1, если оценить нельзя.
+     */
+    public int estimateRows() {
+        int total = 0;
+        for (Path file : files) {
+            try (OPCPackage pkg = OPCPackage.open(file.toFile(), PackageAccess.READ)) {
+                Iterator<InputStream> sheets = new XSSFReader(pkg).getSheetsData();
+                while (sheets.hasNext()) {
+                    try (InputStream sheet = sheets.next()) {
+                        int rows = dimensionRows(sheet);
+                        if (rows < 0) return -1;
+                        total += rows;
+                    }
+                    if (!allSheets) break;
+                }
+            } catch (Exception e) {
+                return -1;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Отдельный поток открывает книги по очереди и ставит их листы в пул разбора.
+     * Открыто не больше parserThreads книг: общие строки книги держатся в памяти,
+     * пока не разобран ее последний лист.
+     */
+    private void readParallel(Consumer<ExcelRow> consumer) throws IOException {
+        BlockingQueue<ExcelRow> rows = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        AtomicReference<Exception> error = new AtomicReference<>();
+        // Задачи в работе: открытие книг плюс неразобранные листы
+        AtomicInteger pending = new AtomicInteger(1);
+        Semaphore openBooks = new Semaphore(parserThreads);
+        List<Book> opened = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger threadIds = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(parserThreads + 1, r -> {
+            Thread thread = new Thread(r, "excel-parser-" + threadIds.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        Consumer<Exception> fail = e -> {
+            if (error.compareAndSet(null, e)) rows.offer(END);
+        };
+        Runnable finish = () -> {
+            if (pending.decrementAndGet() > 0) return;
+            try {
+                rows.put(END);
+            } catch (InterruptedException e) {
+                // Чтение уже остановлено, ждать END некому
+                Thread.currentThread().interrupt();
+            }
+        };
+
+        pool.execute(() -> {
+            try {
+                for (Path file : files) {
+                    openBooks.acquire();
+                    Book book = open(file);
+                    opened.add(book);
+                    if (book.sheets.isEmpty()) {
+                        book.close();
+                        openBooks.release();
+                    }
+                    for (Sheet sheet : book.sheets) {
+                        pending.incrementAndGet();
+                        pool.execute(() -> {
+                            try {
+                                book.parse(sheet, row -> put(rows, row));
+                            } catch (Exception e) {
+                                fail.accept(new IOException("Ошибка чтения листа " + book.source(sheet), e));
+                            } finally {
+                                if (book.sheetDone()) openBooks.release();
+                                finish.run();
                             }
-                        }
+                        });
                     }
-                    map.put(cols.get(i), value != null ? value.trim() : "");
                 }
-                list.add(map);
+            } catch (Exception e) {
+                fail.accept(e);
+            } finally {
+                finish.run();
+            }
+        });
+
+        try {
+            while (true) {
+                ExcelRow row = rows.take();
+                // После ошибки остальные листы не дочитываются
+                if (row == END || error.get() != null) break;
+                consumer.accept(row);
+            }
+            Exception e = error.get();
+            if (e instanceof IOException io) throw io;
+            if (e != null) throw new IOException("Ошибка чтения файлов", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Чтение файлов прервано", e);
+        } finally {
+            pool.shutdownNow();
+            try {
+                pool.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (opened) {
+                for (Book book : opened) book.close();
+            }
+        }
+    }
+
+    //Ожидание места в очереди; прерывание - значит чтение уже остановлено
+    private static void put(BlockingQueue<ExcelRow> rows, ExcelRow row) {
+        try {
+            rows.put(row);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Разбор листа прерван", e);
+        }
+    }
+
+    private Book open(Path file) throws IOException {
+        OPCPackage pkg = null;
+        try {
+            pkg = OPCPackage.open(file.toFile(), PackageAccess.READ);
+            return new Book(file, pkg, new XSSFReader(pkg), allSheets);
+        } catch (OpenXML4JException | SAXException | ParserConfigurationException | RuntimeException e) {
+            if (pkg != null) pkg.revert();
+            throw new IOException("Ошибка чтения файла " + file, e);
+        }
+    }
+
+    private static List<Path> list(Path dir, String glob) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, glob)) {
+            for (Path file : stream) {
+                // Пропускаем файлы блокировки Excel вида ~$book.xlsx
+                if (Files.isRegularFile(file) && !file.getFileName().toString().startsWith("~$")) files.add(file);
+            }
+        }
+        if (files.isEmpty()) throw new IOException("Не найдено книг: " + dir + File.separator + glob);
+        Collections.sort(files);
+        return files;
+    }
+
+    //Число строк без заголовка по ссылке dimension вида "A1:N1001", -1 если ее нет
+    private static int dimensionRows(InputStream sheet) throws IOException, SAXException,
+            ParserConfigurationException {
+        int[] result = {-1};
+        XMLReader parser = XMLHelper.newXMLReader();
+        parser.setContentHandler(new DefaultHandler() {
+            @Override
+            public void startElement(String uri, String localName, String qName, Attributes attrs)
+                    throws SAXException {
+                if (localName.equals("dimension")) {
+                    String ref = attrs.getValue("ref");
+                    String last = ref == null ? "" : ref.substring(ref.indexOf(':') + 1);
+                    String digits = last.replaceAll("[^0-9]", "");
+                    if (!digits.isEmpty()) result[0] = Math.max(0, Integer.parseInt(digits) - 1);
+                }
+                if (localName.equals("dimension") || localName.equals("sheetData")) {
+                    throw new SAXException(STOP);
+                }
             }
+        });
+        try {
+            parser.parse(new InputSource(sheet));
+        } catch (SAXException e) {
+            if (!STOP.equals(e.getMessage())) throw e;
         }
-        return list;
+        return result[0];
     }
-    //Проверка ячеек входящей строки на наличие текста или чисел
-    private boolean isRowEmpty(Row row) {
-        for (Cell cell : row) {
-            if (cell != null && cell.getCellType() != CellType.BLANK) {
-                String res = "";
-                if (cell.getCellType() == CellType.STRING) {
-                    res = cell.getStringCellValue().trim();
-                } else if (cell.getCellType() == CellType.NUMERIC) {
-                    res = Double.toString(cell.getNumericCellValue());
+
+    //Проверка флага date1904 в книге, от него зависит отсчет дат
+    private static boolean isDate1904(XSSFReader reader) throws IOException, OpenXML4JException,
+            SAXException, ParserConfigurationException {
+        boolean[] result = {false};
+        try (InputStream stream = reader.getWorkbookData()) {
+            XMLReader parser = XMLHelper.newXMLReader();
+            parser.setContentHandler(new DefaultHandler() {
+                @Override
+                public void startElement(String uri, String localName, String qName, Attributes attrs) {
+                    if (localName.equals("workbookPr")) {
+                        String value = attrs.getValue("date1904");
+                        result[0] = "1".equals(value) || "true".equalsIgnoreCase(value);
+                    }
                 }
-                if (!res.isEmpty()) return false;
+            });
+            parser.parse(new InputSource(stream));
+        }
+        return result[0];
+    }
+
+    private record Sheet(String name, PackagePart part) {
+    }
+
+    /**
+     * Открытая книга: общие строки и стили только читаются, поэтому
+     * листы одной книги можно разбирать из разных потоков.
+     * Закрывается после последнего листа или при остановке чтения.
+     */
+    private static final class Book {
+        private final Path file;
+        private final OPCPackage pkg;
+        private final SharedStrings sharedStrings;
+        private final StylesTable styles;
+        private final boolean date1904;
+        private final List<Sheet> sheets = new ArrayList<>();
+        private int remaining;
+        private boolean closed;
+
+        Book(Path file, OPCPackage pkg, XSSFReader reader, boolean allSheets) throws IOException,
+                OpenXML4JException, SAXException, ParserConfigurationException {
+            this.file = file;
+            this.pkg = pkg;
+            this.date1904 = isDate1904(reader);
+            this.sharedStrings = reader.getSharedStringsTable();
+            this.styles = reader.getStylesTable();
+            XSSFReader.SheetIterator it = reader.getSheetIterator();
+            while (it.hasNext()) {
+                // Сам поток листа открывается позже, в потоке разбора
+                it.next().close();
+                sheets.add(new Sheet(it.getSheetName(), it.getSheetPart()));
+                if (!allSheets) break;
             }
+            remaining = sheets.size();
+        }
+
+        void parse(Sheet sheet, Consumer<ExcelRow> consumer) throws IOException, SAXException,
+                ParserConfigurationException {
+            try (InputStream stream = sheet.part().getInputStream()) {
+                XMLReader parser = XMLHelper.newXMLReader();
+                parser.setContentHandler(new SheetHandler(sharedStrings, styles, date1904, source(sheet), consumer));
+                parser.parse(new InputSource(stream));
+            }
+        }
+
+        String source(Sheet sheet) {
+            return file.getFileName() + "!" + sheet.name();
+        }
+
+        //Отметка разобранного листа, true - это был последний и книга закрыта
+        synchronized boolean sheetDone() {
+            if (--remaining > 0) return false;
+            close();
+            return true;
+        }
+
+        synchronized void close() {
+            if (closed) return;
+            closed = true;
+            pkg.revert();
         }
-        return true;
     }
 }
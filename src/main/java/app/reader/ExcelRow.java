@@ -0,0 +1,49 @@
+package app.reader;
+
+/**
+ * Строка эксель: значения ячеек по индексам колонок из RowSchema.
+ * Отсутствующая колонка или ячейка возвращается как пустая строка.
+ * rowNumber - номер строки на листе, как его показывает Excel.
+ */
+public class ExcelRow {
+    private final RowSchema schema;
+    private final String[] values;
+    private final int rowNumber;
+
+    public ExcelRow(RowSchema schema, String[] values, int rowNumber) {
+        this.schema = schema;
+        this.values = values;
+        this.rowNumber = rowNumber;
+    }
+
+    public String get(int idx) {
+        return idx >= 0 && idx < values.length ? values[idx] : "";
+    }
+
+    public String get(String column) {
+        return get(schema.indexOf(column));
+    }
+
+    public RowSchema schema() {
+        return schema;
+    }
+
+    public int rowNumber() {
+        return rowNumber;
+    }
+
+    //Источник строки для логов: "книга.xlsx!Лист1:15"
+    public String source() {
+        return schema.source() + ":" + rowNumber;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        for (int i = 0; i < schema.size(); i++) {
+            if (i > 0) sb.append(", ");
+            sb.append(schema.name(i)).append('=').append(get(i));
+        }
+        return sb.append('}').toString();
+    }
+}
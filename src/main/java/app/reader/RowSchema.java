@@ -0,0 +1,70 @@
+package app.reader;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Схема строк листа, строится один раз по заголовку.
+ * Сопоставляет имя колонки с ее индексом, чтобы строки
+ * хранили только значения, а не повторяли заголовки.
+ * source - откуда лист, вида "книга.xlsx!Лист1", для логов.
+ * Индексы колонок Column хранятся в массиве по id колонки и ищутся
+ * по имени один раз на схему.
+ */
+public class RowSchema {
+    private final String[] names;
+    private final Map<String, Integer> index = new HashMap<>();
+    private final String source;
+    // Индекс + 1 по id колонки, 0 - еще не искали
+    private volatile int[] slots = new int[0];
+
+    public RowSchema(List<String> names, String source) {
+        this.source = source;
+        this.names = names.toArray(new String[0]);
+        for (int i = 0; i < this.names.length; i++) {
+            // При повторе заголовка побеждает последняя колонка, как раньше в HashMap
+            index.put(this.names[i], i);
+        }
+    }
+
+    //Индекс колонки по имени, -1 если колонки нет
+    public int indexOf(String name) {
+        Integer idx = index.get(name);
+        return idx != null ? idx : -1;
+    }
+
+    //Индекс колонки Column, -1 если колонки нет
+    int slot(Column column) {
+        int id = column.id();
+        int[] s = slots;
+        if (id < s.length) {
+            int slot = s[id];
+            if (slot != 0) return slot - 1;
+        }
+        return resolve(column);
+    }
+
+    // Запись в массив видна читателям через volatile slots; устаревший 0 только повторит поиск
+    private synchronized int resolve(Column column) {
+        int id = column.id();
+        int[] s = slots;
+        if (id >= s.length) s = Arrays.copyOf(s, Math.max(id + 1, Column.count()));
+        s[id] = indexOf(column.name()) + 1;
+        slots = s;
+        return s[id] - 1;
+    }
+
+    public String name(int idx) {
+        return names[idx];
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    public String source() {
+        return source;
+    }
+}
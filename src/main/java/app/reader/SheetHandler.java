@@ -0,0 +1,157 @@
+package app.reader;
+
+import org.apache.poi.ss.usermodel.BuiltinFormats;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.xssf.model.SharedStrings;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * SAX-обработчик листа xlsx. Разбирает строки по мере чтения xml
+ * и отдает их в consumer, не держа весь лист в памяти.
+ * Типы ячеек обрабатываются так же, как в ExcelReader: даты в ISO,
+ * числа без экспоненты, булевы как true/false.
+ * source - книга и лист, попадает в схему строк для логов.
+ */
+class SheetHandler extends DefaultHandler {
+    private final SharedStrings sharedStrings;
+    private final StylesTable styles;
+    private final boolean date1904;
+    private final String source;
+    private final Consumer<ExcelRow> consumer;
+
+    // Кэш признака "формат даты" по индексу стиля
+    private final Map<Integer, Boolean> dateStyles = new HashMap<>();
+
+    private RowSchema schema;
+    private final List<String> current = new ArrayList<>();
+    private boolean rowHasData;
+    private int rowNumber;
+
+    private int column;
+    private String cellType;
+    private String cellStyle;
+    private boolean collecting;
+    private final StringBuilder text = new StringBuilder();
+
+    SheetHandler(SharedStrings sharedStrings, StylesTable styles, boolean date1904,
+                 String source, Consumer<ExcelRow> consumer) {
+        this.sharedStrings = sharedStrings;
+        this.styles = styles;
+        this.date1904 = date1904;
+        this.source = source;
+        this.consumer = consumer;
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes attrs) {
+        switch (localName) {
+            case "row" -> {
+                current.clear();
+                rowHasData = false;
+                // Атрибут r может отсутствовать, тогда строки идут подряд
+                String ref = attrs.getValue("r");
+                rowNumber = ref != null ? Integer.parseInt(ref) : rowNumber + 1;
+            }
+            case "c" -> {
+                column = columnIndex(attrs.getValue("r"), current.size());
+                cellType = attrs.getValue("t");
+                cellStyle = attrs.getValue("s");
+                text.setLength(0);
+            }
+            case "v", "t" -> collecting = true;
+            default -> { }
+        }
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) {
+        if (collecting) text.append(ch, start, length);
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) {
+        switch (localName) {
+            case "v", "t" -> collecting = false;
+            case "c" -> {
+                String value = cellValue();
+                while (current.size() < column) current.add("");
+                current.add(value != null ? value.trim() : "");
+            }
+            case "row" -> endRow();
+            default -> { }
+        }
+    }
+
+    private void endRow() {
+        if (schema == null) {
+            schema = new RowSchema(current, source);
+            return;
+        }
+        if (!rowHasData) return;
+
+        String[] values = new String[schema.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i < current.size() ? current.get(i) : "";
+        }
+        consumer.accept(new ExcelRow(schema, values, rowNumber));
+    }
+
+    // Проверка на типы данных в ячейке
+    private String cellValue() {
+        String raw = text.toString();
+        if (cellType == null || cellType.equals("n")) {
+            if (raw.isEmpty()) return "";
+            rowHasData = true;
+            double number = Double.parseDouble(raw);
+            if (isDateStyle() && DateUtil.isValidExcelDate(number)) {
+                // Если это дата — сохраняем в ISO-формате (YYYY-MM-DD)
+                return DateUtil.getLocalDateTime(number, date1904).toLocalDate().toString();
+            }
+            // Число — сохраняем без экспоненциальной записи
+            return BigDecimal.valueOf(number).stripTrailingZeros().toPlainString();
+        }
+        String value = switch (cellType) {
+            case "s" -> sharedStrings.getItemAt(Integer.parseInt(raw)).getString();
+            case "b" -> Boolean.toString(raw.equals("1"));
+            // inlineStr, str (результат формулы), e и прочее — как текст
+            default -> raw;
+        };
+        if (!cellType.equals("b") && !value.trim().isEmpty()) rowHasData = true;
+        return value;
+    }
+
+    private boolean isDateStyle() {
+        if (cellStyle == null || styles == null) return false;
+        int idx = Integer.parseInt(cellStyle);
+        return dateStyles.computeIfAbsent(idx, i -> {
+            XSSFCellStyle style = styles.getStyleAt(i);
+            if (style == null) return false;
+            short format = style.getDataFormat();
+            String formatString = style.getDataFormatString();
+            if (formatString == null) formatString = BuiltinFormats.getBuiltinFormat(format);
+            return DateUtil.isADateFormat(format, formatString);
+        });
+    }
+
+    //Номер колонки из ссылки вида "AB12"
+    private static int columnIndex(String ref, int fallback) {
+        if (ref == null) return fallback;
+        int col = 0;
+        for (int i = 0; i < ref.length(); i++) {
+            char ch = ref.charAt(i);
+            if (ch < 'A' || ch > 'Z') break;
+            col = col * 26 + (ch - 'A' + 1);
+        }
+        return col - 1;
+    }
+}
@@ -0,0 +1,187 @@
+package app.sender;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteBufferFeeder;
+
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+
+/**
+ * Ответ API на чек: Success, Message и Model.Id. Тело разбирается неблокирующим
+ * парсером jackson прямо из буферов HttpClient, без строки и дерева JsonNode.
+ * Сами байты тела копируются, только если по коду ответа видно, что они нужны
+ * логам (responseBody).
+ *
+ * @param success     Success из ответа, null - поля нет или тело не json
+ * @param body        тело ответа, null - не сохранялось
+ * @param contentType заголовок Content-Type, пустой - его не было
+ */
+public record ApiResponse(Boolean success, String message, String receiptId, String body, String contentType) {
+
+    /**
+     * Какие тела ответов сохраняются для логов. FAILED - тела ответов с кодом
+     * не 200; у ответа 200 с Success=false в лог идут разобранные поля.
+     */
+    public enum Keep {ALL, FAILED, NONE}
+
+    //Строка для лога: тело, если оно сохранено, иначе разобранные поля или тип тела, если это не json
+    public String describe() {
+        if (body != null) return body;
+        StringBuilder line = new StringBuilder();
+        if (success != null) line.append("Success=").append(success);
+        if (receiptId != null) line.append(line.isEmpty() ? "" : " ").append("Id=").append(receiptId);
+        if (message != null) line.append(line.isEmpty() ? "" : " ").append("Message=").append(message);
+        if (line.isEmpty()) line.append("Content-Type=").append(contentType.isEmpty() ? "нет" : contentType);
+        return line.toString();
+    }
+
+    /**
+     * Обработчик тела. Тело 429 и 5xx не читается: запрос повторяется,
+     * а для паузы нужен только заголовок Retry-After.
+     */
+    public static HttpResponse.BodyHandler<ApiResponse> handler(JsonFactory factory, Keep keep) {
+        return info -> {
+            int code = info.statusCode();
+            if (code == 429 || code >= 500) return HttpResponse.BodySubscribers.replacing(null);
+            boolean copy = keep == Keep.ALL || keep == Keep.FAILED && code != 200;
+            return new Subscriber(factory, copy, info.headers().firstValue("Content-Type").orElse(""));
+        };
+    }
+
+    //Разбор готового тела тем же парсером, для прогрева при старте
+    public static ApiResponse parse(JsonFactory factory, byte[] body) {
+        Subscriber subscriber = new Subscriber(factory, false, "application/json");
+        subscriber.onNext(List.of(ByteBuffer.wrap(body)));
+        subscriber.onComplete();
+        return subscriber.result.join();
+    }
+
+    private static final class Subscriber implements HttpResponse.BodySubscriber<ApiResponse> {
+        private final CompletableFuture<ApiResponse> result = new CompletableFuture<>();
+        private final String contentType;
+        private JsonParser parser;
+        private ByteBufferFeeder feeder;
+        // Копия тела, если оно пойдет в лог
+        private byte[] raw;
+        private int length;
+
+        private int depth;
+        private String field;
+        private boolean inModel;
+        private Boolean success;
+        private String message;
+        private String receiptId;
+
+        Subscriber(JsonFactory factory, boolean copy, String contentType) {
+            this.contentType = contentType;
+            if (copy) raw = new byte[512];
+            try {
+                parser = factory.createNonBlockingByteBufferParser();
+                feeder = (ByteBufferFeeder) parser.getNonBlockingInputFeeder();
+            } catch (IOException e) {
+                parser = null;
+            }
+        }
+
+        @Override
+        public CompletionStage<ApiResponse> getBody() {
+            return result;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> items) {
+            for (ByteBuffer buffer : items) {
+                if (!buffer.hasRemaining()) continue;
+                if (raw != null) copy(buffer.duplicate());
+                if (parser == null) continue;
+                try {
+                    feeder.feedInput(buffer);
+                    drain();
+                } catch (IOException e) {
+                    // Не json: остаются поля, прочитанные до ошибки, байты тела копируются дальше
+                    close();
+                }
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            close();
+            result.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            if (parser != null) {
+                try {
+                    feeder.endOfInput();
+                    drain();
+                } catch (IOException ignored) {
+                }
+                close();
+            }
+            String body = raw == null ? null : new String(raw, 0, length, StandardCharsets.UTF_8);
+            result.complete(new ApiResponse(success, message, receiptId, body, contentType));
+        }
+
+        //Все токены из поданных байтов; нужны поля верхнего уровня и Model.Id
+        private void drain() throws IOException {
+            JsonToken token;
+            while ((token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+                switch (token) {
+                    case START_OBJECT, START_ARRAY -> {
+                        if (depth == 1 && token == JsonToken.START_OBJECT && "Model".equals(field)) inModel = true;
+                        depth++;
+                    }
+                    case END_OBJECT, END_ARRAY -> {
+                        depth--;
+                        if (depth == 1) inModel = false;
+                    }
+                    case FIELD_NAME -> field = parser.currentName();
+                    default -> {
+                        if (depth == 1) {
+                            if ("Success".equals(field)) success = parser.getValueAsBoolean();
+                            else if ("Message".equals(field)) message = text(token);
+                        } else if (depth == 2 && inModel && "Id".equals(field)) {
+                            receiptId = text(token);
+                        }
+                    }
+                }
+            }
+        }
+
+        private String text(JsonToken token) throws IOException {
+            return token == JsonToken.VALUE_NULL ? null : parser.getText();
+        }
+
+        private void copy(ByteBuffer buffer) {
+            int n = buffer.remaining();
+            if (length + n > raw.length) raw = Arrays.copyOf(raw, Math.max(raw.length * 2, length + n));
+            buffer.get(raw, length, n);
+            length += n;
+        }
+
+        private void close() {
+            if (parser == null) return;
+            try {
+                parser.close();
+            } catch (IOException ignored) {
+            }
+            parser = null;
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package app.sender;
+
+/**
+ * Автомат отключения мерчанта разомкнут, запрос не отправлялся.
+ * Строка откладывается до пробного запроса без расхода попыток
+ * (RetryPolicy.deferMillis), в ошибки уходит после maxRetries отсрочек.
+ */
+public class CircuitOpenException extends RetryPolicy.RetryableException {
+    private static final long serialVersionUID = 1L;
+
+    public CircuitOpenException(String publicId, long retryAfterMillis) {
+        super("Автомат отключения разомкнут для publicId=" + publicId, retryAfterMillis);
+    }
+}
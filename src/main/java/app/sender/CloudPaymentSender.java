@@ -1,76 +1,217 @@
 package app.sender;
 
 import app.builder.BuilderJson;
-import app.util.RateLimiter;
+import app.metrics.Metrics;
+import app.model.CorrectionReceipt;
+import app.util.RateLimiterRegistry;
 import app.util.SendResult;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
-import java.time.Duration;
-import java.util.Base64;
-import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Класс обращения в API и отправка json
  *Created by Aleksey Selikhov 18.10.2025
  */
 public class CloudPaymentSender {
+    private static final Logger log = LoggerFactory.getLogger(CloudPaymentSender.class);
     private final HttpClient httpClient;
-    private final String apiUrl;
-    private final RateLimiter rateLimiter;
+    private final RateLimiterRegistry rateLimiters;
+    private final MerchantGuards guards;
     private final BuilderJson builderJson;
     private final RetryPolicy retryPolicy;
-    private final ObjectMapper mapper;
+    // Планировщик ожидания лимита и повторов для асинхронной отправки
+    private final ScheduledExecutorService scheduler;
+    private final Metrics metrics;
+    // Ответ разбирается потоково, тело хранится только для логов
+    private final HttpResponse.BodyHandler<ApiResponse> responseHandler;
 
-    public CloudPaymentSender(HttpClient httpClient, String apiUrl,
-                              RateLimiter rateLimiter,
+    public CloudPaymentSender(HttpClient httpClient,
+                              RateLimiterRegistry rateLimiters, MerchantGuards guards,
                               BuilderJson builderJson, RetryPolicy retryPolicy,
                               ObjectMapper mapper) {
+        this(httpClient, rateLimiters, guards, builderJson, retryPolicy, mapper, null, new Metrics());
+    }
+
+    public CloudPaymentSender(HttpClient httpClient,
+                              RateLimiterRegistry rateLimiters, MerchantGuards guards,
+                              BuilderJson builderJson, RetryPolicy retryPolicy,
+                              ObjectMapper mapper, ScheduledExecutorService scheduler, Metrics metrics) {
+        this(httpClient, rateLimiters, guards, builderJson, retryPolicy, mapper, scheduler, metrics,
+                ApiResponse.Keep.ALL);
+    }
+
+    /**
+     * @param keepBody какие тела ответов писать в логи; без тела в лог идут Success, Id и Message
+     */
+    public CloudPaymentSender(HttpClient httpClient,
+                              RateLimiterRegistry rateLimiters, MerchantGuards guards,
+                              BuilderJson builderJson, RetryPolicy retryPolicy,
+                              ObjectMapper mapper, ScheduledExecutorService scheduler, Metrics metrics,
+                              ApiResponse.Keep keepBody) {
         this.httpClient = httpClient;
-        this.apiUrl = apiUrl;
-        this.rateLimiter = rateLimiter;
+        this.rateLimiters = rateLimiters;
+        this.guards = guards;
         this.builderJson = builderJson;
         this.retryPolicy = retryPolicy;
-        this.mapper = mapper;
+        this.scheduler = scheduler;
+        this.metrics = metrics;
+        this.responseHandler = ApiResponse.handler(mapper.getFactory(), keepBody);
+    }
+
+    //Сколько еще ждать токен лимита мерчанта, для справедливой очереди
+    public long rateWaitNanos(String publicId) {
+        return rateLimiters.waitNanos(publicId);
     }
 
-    public SendResult sendCorrection(Map<String,String> row, String publicId, String key) throws Exception {
-
-        String authHeader = "Basic " + Base64.getEncoder()
-                .encodeToString((publicId + ":" + key).getBytes(StandardCharsets.UTF_8));
-        rateLimiter.acquire();
-
-        String jsonBody = builderJson.buildJSON(row);
-        System.out.println(jsonBody);
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(apiUrl))
-                .timeout(Duration.ofSeconds(50))
-                .header("Authorization", authHeader)
-                .header("Content-Type", "application/json")
-                .POST(HttpRequest.BodyPublishers.ofString(jsonBody))
-                .build();
-
-        return retryPolicy.executeWithRetry(() -> {
-            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-            int code = response.statusCode();
-            String body = response.body();
-
-            if (code == 200) {
-                boolean ok = true;
-                try {
-                    var node = mapper.readTree(body);
-                    if (node.has("Success")) ok = node.get("Success").asBoolean();
-                } catch (Exception ignored) {}
-                return new SendResult(ok, code, body);
-            } else if (code == 429 || code >= 500) {
-                throw new RetryPolicy.RetryableException("Ошибка запроса: " + code);
-            } else {
-                return new SendResult(false, code, body);
-            }
+    public SendResult sendCorrection(CorrectionReceipt receipt, MerchantRegistry.Merchant merchant) throws Exception {
+        return send(prepareRequest(receipt, merchant), receipt.publicId());
+    }
+
+    /**
+     * Отправка заранее подготовленного запроса с ожиданием лимита и повторами.
+     * Позволяет формировать json и отправлять его на разных этапах.
+     */
+    public SendResult send(HttpRequest request, String publicId) throws Exception {
+        long start = System.nanoTime();
+        AtomicInteger attempts = new AtomicInteger();
+        SendResult result = retryPolicy.executeWithRetry(() -> {
+            attempts.incrementAndGet();
+            return toResult(exchange(request, publicId));
         });
+        return result.withTiming(attempts.get(), elapsedMillis(start));
+    }
+
+    /**
+     * Одна попытка отправки без повторов: ожидание лимита и запрос.
+     * 429 и 5xx выбрасываются как RetryableException, повтор планирует вызывающий.
+     */
+    public SendResult sendOnce(HttpRequest request, String publicId) throws Exception {
+        return toResult(exchange(request, publicId));
+    }
+
+    /**
+     * Неблокирующая отправка: ожидание лимита, запрос и повторы
+     * выполняются через sendAsync и планировщик, поток не занимается.
+     */
+    public CompletableFuture<SendResult> sendCorrectionAsync(CorrectionReceipt receipt,
+                                                             MerchantRegistry.Merchant merchant) {
+        HttpRequest request;
+        try {
+            request = prepareRequest(receipt, merchant);
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        AtomicInteger attempts = new AtomicInteger();
+        long start = System.nanoTime();
+        return retryPolicy.executeWithRetryAsync(() -> {
+                    attempts.incrementAndGet();
+                    return exchangeAsync(request, receipt.publicId()).thenCompose(response -> {
+                        try {
+                            return CompletableFuture.completedFuture(toResult(response));
+                        } catch (RetryPolicy.RetryableException e) {
+                            return CompletableFuture.failedFuture(e);
+                        }
+                    });
+                }, scheduler)
+                .thenApply(result -> result.withTiming(attempts.get(), elapsedMillis(start)));
+    }
+
+    //Формирование json и запроса для чека, заголовки и URI берутся из прототипа мерчанта
+    public HttpRequest prepareRequest(CorrectionReceipt receipt, MerchantRegistry.Merchant merchant) throws Exception {
+        long start = System.nanoTime();
+        byte[] jsonBody = builderJson.writeJSON(receipt);
+        if (log.isDebugEnabled()) log.debug(new String(jsonBody, StandardCharsets.UTF_8));
+        HttpRequest request = merchant.request(jsonBody);
+        metrics.recordNanos(Metrics.Stage.BUILD, System.nanoTime() - start);
+        return request;
+    }
+
+    /**
+     * Одна попытка запроса к API мерчанта: автомат отключения, слот
+     * адаптивного предела, токен лимита частоты. Ответ учитывается в пределе.
+     */
+    private HttpResponse<ApiResponse> exchange(HttpRequest request, String publicId) throws Exception {
+        MerchantGuards.Guard guard = guards.get(publicId);
+        long waitStart = System.nanoTime();
+        guard.acquire();
+        try {
+            rateLimiters.get(publicId).acquire();
+        } catch (InterruptedException e) {
+            guard.onCancel();
+            throw e;
+        }
+
+        long start = System.nanoTime();
+        metrics.recordNanos(Metrics.Stage.LIMIT, start - waitStart);
+        HttpResponse<ApiResponse> response;
+        try {
+            response = httpClient.send(request, responseHandler);
+        } catch (InterruptedException e) {
+            guard.onCancel();
+            throw e;
+        } catch (Exception e) {
+            guard.onError(elapsedMillis(start));
+            onExchange(0, start);
+            throw e;
+        }
+        guard.onResponse(response.statusCode(), elapsedMillis(start));
+        onExchange(response.statusCode(), start);
+        return response;
+    }
+
+    private CompletableFuture<HttpResponse<ApiResponse>> exchangeAsync(HttpRequest request, String publicId) {
+        MerchantGuards.Guard guard = guards.get(publicId);
+        long waitStart = System.nanoTime();
+        return guard.acquireAsync()
+                .thenCompose(ignored -> rateLimiters.get(publicId).acquireAsync(scheduler))
+                .thenCompose(ignored -> {
+                    long start = System.nanoTime();
+                    metrics.recordNanos(Metrics.Stage.LIMIT, start - waitStart);
+                    return httpClient.sendAsync(request, responseHandler)
+                            .whenComplete((response, error) -> {
+                                if (error != null) {
+                                    guard.onError(elapsedMillis(start));
+                                    onExchange(0, start);
+                                } else {
+                                    guard.onResponse(response.statusCode(), elapsedMillis(start));
+                                    onExchange(response.statusCode(), start);
+                                }
+                            });
+                });
+    }
+
+    private void onExchange(int code, long startNanos) {
+        metrics.recordNanos(Metrics.Stage.HTTP, System.nanoTime() - startNanos);
+        metrics.response(code);
+    }
+
+    private static long elapsedMillis(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000_000;
+    }
+
+    //Разбор ответа: 429 и 5xx повторяем, остальное возвращаем как результат
+    private SendResult toResult(HttpResponse<ApiResponse> response) throws RetryPolicy.RetryableException {
+        int code = response.statusCode();
+        ApiResponse body = response.body();
+
+        if (code == 200) {
+            // Ответ без Success или не json считается успешным
+            return new SendResult(!Boolean.FALSE.equals(body.success()), code, body.describe());
+        } else if (code == 429 || code >= 500) {
+            throw new RetryPolicy.RetryableException("Ошибка запроса: " + code,
+                    RetryPolicy.retryAfterMillis(response));
+        } else {
+            return new SendResult(false, code, body.describe());
+        }
     }
 }
@@ -0,0 +1,117 @@
+package app.sender;
+
+import app.util.AdaptiveLimit;
+import app.util.CircuitBreaker;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Защита API по мерчантам: автомат отключения и адаптивный предел
+ * одновременных запросов на каждый publicId. Мерчант, у которого API
+ * отвечает 5xx, не занимает потоки и лимит запросов остальных.
+ * 429 автомат не размыкает: это перегрузка, ее снимают лимит частоты и предел.
+ */
+public class MerchantGuards {
+    private final int breakerWindow;
+    private final int breakerMinCalls;
+    private final double breakerFailureRate;
+    private final long breakerOpenMillis;
+    private final int initialLimit;
+    private final int maxLimit;
+    private final double latencyTolerance;
+    private final Map<String, Guard> guards = new ConcurrentHashMap<>();
+
+    public MerchantGuards(int breakerWindow, int breakerMinCalls, double breakerFailureRate, long breakerOpenMillis,
+                          int initialLimit, int maxLimit, double latencyTolerance) {
+        this.breakerWindow = breakerWindow;
+        this.breakerMinCalls = breakerMinCalls;
+        this.breakerFailureRate = breakerFailureRate;
+        this.breakerOpenMillis = breakerOpenMillis;
+        this.initialLimit = initialLimit;
+        this.maxLimit = maxLimit;
+        this.latencyTolerance = latencyTolerance;
+    }
+
+    public Guard get(String publicId) {
+        return guards.computeIfAbsent(publicId, id -> new Guard(id,
+                new CircuitBreaker(id, breakerWindow, breakerMinCalls, breakerFailureRate, breakerOpenMillis),
+                new AdaptiveLimit(initialLimit, 1, maxLimit, latencyTolerance)));
+    }
+
+    //Текущие пределы по мерчантам для лога
+    public String describe() {
+        StringBuilder sb = new StringBuilder();
+        guards.forEach((id, guard) -> {
+            if (sb.length() > 0) sb.append(", ");
+            sb.append(id).append('=').append(guard.limit.limit());
+            if (guard.breaker.isOpen()) sb.append("(отключен)");
+        });
+        return sb.toString();
+    }
+
+    public static final class Guard {
+        private final String publicId;
+        private final CircuitBreaker breaker;
+        private final AdaptiveLimit limit;
+
+        private Guard(String publicId, CircuitBreaker breaker, AdaptiveLimit limit) {
+            this.publicId = publicId;
+            this.breaker = breaker;
+            this.limit = limit;
+        }
+
+        /**
+         * Проверка автомата и занятие слота в пределе, до расхода токена лимита частоты.
+         * При разомкнутом автомате бросает CircuitOpenException без ожидания.
+         */
+        public void acquire() throws CircuitOpenException, InterruptedException {
+            checkClosed();
+            try {
+                limit.acquire();
+            } catch (InterruptedException e) {
+                breaker.onCancel();
+                throw e;
+            }
+        }
+
+        public CompletableFuture<Void> acquireAsync() {
+            try {
+                checkClosed();
+            } catch (CircuitOpenException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+            return limit.acquireAsync();
+        }
+
+        /**
+         * Учет ответа: 5xx - ошибка для автомата, 429 и 5xx - перегрузка для предела,
+         * остальные коды значат, что API мерчанта доступен. 429 автомат не учитывает,
+         * только освобождает место пробного запроса.
+         */
+        public void onResponse(int code, long latencyMillis) {
+            if (code >= 500) breaker.onFailure();
+            else if (code == 429) breaker.onCancel();
+            else breaker.onSuccess();
+            limit.release(latencyMillis, code == 429 || code >= 500);
+        }
+
+        //Сетевая ошибка или таймаут
+        public void onError(long latencyMillis) {
+            breaker.onFailure();
+            limit.release(latencyMillis, true);
+        }
+
+        //Слот занят, но запрос не ушел
+        public void onCancel() {
+            breaker.onCancel();
+            limit.release();
+        }
+
+        private void checkClosed() throws CircuitOpenException {
+            long wait = breaker.tryAcquire();
+            if (wait > 0) throw new CircuitOpenException(publicId, wait);
+        }
+    }
+}
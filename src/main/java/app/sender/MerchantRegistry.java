@@ -0,0 +1,91 @@
+package app.sender;
+
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Реестр мерчантов из файла ключей. Для каждого publicId один раз
+ * собирается прототип запроса: URI, таймаут, Authorization и Content-Type.
+ * При отправке прототип копируется и к нему добавляется только тело.
+ * apiSecret после регистрации не хранится - остается только готовый заголовок,
+ * промежуточные буферы с "publicId:apiSecret" затираются.
+ */
+public class MerchantRegistry {
+    private final URI uri;
+    private final Duration timeout;
+    private final Map<String, Merchant> merchants = new ConcurrentHashMap<>();
+
+    public MerchantRegistry(String apiUrl, Duration timeout) {
+        this.uri = URI.create(apiUrl);
+        this.timeout = timeout;
+    }
+
+    public void register(String publicId, CharSequence apiSecret) {
+        HttpRequest.Builder prototype = HttpRequest.newBuilder()
+                .uri(uri)
+                .timeout(timeout)
+                .header("Authorization", basicAuth(publicId, apiSecret))
+                .header("Content-Type", "application/json");
+        merchants.put(publicId, new Merchant(publicId, prototype));
+    }
+
+    //Удаляет мерчантов, которых нет в publicIds: ключ убрали из файла при перечитывании
+    public void retainAll(Set<String> publicIds) {
+        merchants.keySet().retainAll(publicIds);
+    }
+
+    //null, если ключа для publicId нет
+    public Merchant get(String publicId) {
+        return merchants.get(publicId);
+    }
+
+    public int size() {
+        return merchants.size();
+    }
+
+    private static String basicAuth(String publicId, CharSequence apiSecret) {
+        CharBuffer chars = CharBuffer.allocate(publicId.length() + 1 + apiSecret.length());
+        chars.append(publicId).append(':').append(apiSecret).flip();
+        ByteBuffer bytes = StandardCharsets.UTF_8.encode(chars);
+        byte[] raw = new byte[bytes.remaining()];
+        bytes.get(raw);
+        try {
+            return "Basic " + Base64.getEncoder().encodeToString(raw);
+        } finally {
+            Arrays.fill(raw, (byte) 0);
+            Arrays.fill(chars.array(), '\0');
+            if (bytes.hasArray()) Arrays.fill(bytes.array(), (byte) 0);
+        }
+    }
+
+    /**
+     * Мерчант с неизменяемым после регистрации прототипом запроса.
+     * copy() только читает прототип, поэтому безопасен из разных потоков.
+     */
+    public static final class Merchant {
+        private final String publicId;
+        private final HttpRequest.Builder prototype;
+
+        private Merchant(String publicId, HttpRequest.Builder prototype) {
+            this.publicId = publicId;
+            this.prototype = prototype;
+        }
+
+        public String publicId() {
+            return publicId;
+        }
+
+        public HttpRequest request(byte[] body) {
+            return prototype.copy().POST(HttpRequest.BodyPublishers.ofByteArray(body)).build();
+        }
+    }
+}
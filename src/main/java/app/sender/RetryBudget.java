@@ -0,0 +1,40 @@
+package app.sender;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Общий на процесс бюджет повторов.
+ * Каждая первая попытка пополняет бюджет на ratio токена, каждый повтор
+ * тратит один токен. Когда API лежит, повторы быстро упираются в бюджет
+ * и не умножают нагрузку, а в нормальной работе редкие повторы проходят.
+ */
+public class RetryBudget {
+    private static final long SCALE = 1000;
+
+    private final long depositPerAttempt;
+    private final long maxBalance;
+    private final AtomicLong balance;
+
+    /**
+     * @param ratio     сколько повторов разрешено на одну первую попытку
+     * @param maxTokens предел накопления; бюджет стартует полным
+     */
+    public RetryBudget(double ratio, int maxTokens) {
+        this.depositPerAttempt = Math.round(Math.max(0, ratio) * SCALE);
+        this.maxBalance = Math.max(1, maxTokens) * SCALE;
+        this.balance = new AtomicLong(maxBalance);
+    }
+
+    public void deposit() {
+        balance.accumulateAndGet(depositPerAttempt, (cur, add) -> Math.min(maxBalance, cur + add));
+    }
+
+    //Забирает токен на повтор, false - бюджет исчерпан
+    public boolean tryWithdraw() {
+        while (true) {
+            long cur = balance.get();
+            if (cur < SCALE) return false;
+            if (balance.compareAndSet(cur, cur - SCALE)) return true;
+        }
+    }
+}
@@ -1,41 +1,229 @@
 package app.sender;
 
+import app.metrics.Metrics;
+
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Универсальный класс
+ * Задержка между попытками растет экспоненциально со случайным разбросом (jitter),
+ * чтобы после волны 429 потоки не повторяли запросы одновременно.
+ * Заголовок Retry-After от сервера соблюдается, общее число повторов
+ * ограничено бюджетом RetryBudget.
  * Created by Aleksey Selikhov 18.10.2025
  */
 public class RetryPolicy {
+    /**
+     * NONE - чистая экспонента, FULL - случайно от 0 до экспоненты,
+     * DECORRELATED - случайно от начальной задержки до утроенной предыдущей.
+     */
+    public enum Jitter { NONE, FULL, DECORRELATED }
+
     private final int maxRetries;
     private final long initialDelayMs;
+    private final long maxDelayMs;
+    private final Jitter jitter;
+    private final RetryBudget budget;
+    // Паузы перед повторами, может отсутствовать
+    private final Metrics metrics;
 
     public RetryPolicy(int maxRetries, long initialDelayMs) {
+        this(maxRetries, initialDelayMs, 30_000, Jitter.FULL, null, null);
+    }
+
+    public RetryPolicy(int maxRetries, long initialDelayMs, long maxDelayMs, Jitter jitter, RetryBudget budget,
+                       Metrics metrics) {
         this.maxRetries = maxRetries;
         this.initialDelayMs = initialDelayMs;
+        this.maxDelayMs = Math.max(initialDelayMs, maxDelayMs);
+        this.jitter = jitter;
+        this.budget = budget;
+        this.metrics = metrics;
     }
 
+    /**
+     * Повторы с паузой в текущем потоке. Строка мерчанта с разомкнутым
+     * автоматом ждет пробного запроса по deferMillis, попытки на это не тратятся.
+     */
     public <T> T executeWithRetry(RetryableOperation<T> operation) throws Exception {
         int attempt = 0;
-        long delay = initialDelayMs;
+        int deferrals = 0;
+        long delay = 0;
+        onFirstAttempt();
 
         while (true) {
             attempt++;
             try {
                 return operation.run();
+            } catch (CircuitOpenException ex) {
+                long wait = deferMillis(deferrals++, ex);
+                if (wait < 0) throw ex;
+                attempt--;
+                Thread.sleep(wait);
             } catch (RetryableException ex) {
-                if (attempt >= maxRetries) throw ex;
+                delay = nextDelayMillis(attempt, delay, ex);
+                if (delay < 0) throw ex;
                 Thread.sleep(delay);
-                delay *= 2;
             }
         }
     }
+
+    /**
+     * Асинхронный вариант: повтор не усыпляет поток,
+     * а ставится в очередь отложенных задач scheduler.
+     * Строка, отложенная автоматом отключения, ждет там же по deferMillis.
+     */
+    public <T> CompletableFuture<T> executeWithRetryAsync(AsyncOperation<T> operation,
+                                                          ScheduledExecutorService scheduler) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        onFirstAttempt();
+        attemptAsync(operation, scheduler, result, 1, 0, 0);
+        return result;
+    }
+
+    //Первая попытка пополняет бюджет повторов
+    public void onFirstAttempt() {
+        if (budget != null) budget.deposit();
+    }
+
+    /**
+     * Задержка перед следующей попыткой после неудачной попытки attempt.
+     * Возвращает -1, если повторять нельзя: исчерпаны попытки или бюджет.
+     */
+    public long nextDelayMillis(int attempt, long previousDelayMs, RetryableException ex) {
+        if (attempt >= maxRetries) return -1;
+        if (budget != null && !budget.tryWithdraw()) return -1;
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long exponential = initialDelayMs << Math.min(attempt - 1, 30);
+        long cap = Math.min(maxDelayMs, exponential > 0 ? exponential : maxDelayMs);
+        long delay = switch (jitter) {
+            case NONE -> cap;
+            case FULL -> random.nextLong(cap + 1);
+            case DECORRELATED -> {
+                long upper = Math.max(initialDelayMs, previousDelayMs * 3);
+                yield Math.min(maxDelayMs, initialDelayMs + random.nextLong(upper - initialDelayMs + 1));
+            }
+        };
+        if (ex.getRetryAfterMillis() >= 0) {
+            // Сервер сам сказал, когда повторять; небольшой разброс сверху
+            long retryAfter = Math.min(ex.getRetryAfterMillis(), maxDelayMs);
+            delay = Math.max(delay, retryAfter + random.nextLong(initialDelayMs + 1));
+        }
+        if (metrics != null) metrics.stage(Metrics.Stage.RETRY).record(delay * 1000);
+        return delay;
+    }
+
+    /**
+     * Пауза строки, отложенной разомкнутым автоматом: до пробного запроса с небольшим
+     * разбросом. Запрос не уходил, поэтому попытка и бюджет повторов не тратятся;
+     * у отложенных строк свой предел maxRetries, чтобы запуск не ждал лежащего
+     * мерчанта бесконечно. -1 - строку пора записать в ошибки.
+     */
+    public long deferMillis(int deferrals, CircuitOpenException ex) {
+        if (deferrals >= maxRetries) return -1;
+        return Math.max(0, ex.getRetryAfterMillis()) + ThreadLocalRandom.current().nextLong(initialDelayMs + 1);
+    }
+
+    /**
+     * Значение заголовка Retry-After в миллисекундах: число секунд или HTTP-дата.
+     * -1, если заголовка нет или он не разобран.
+     */
+    public static long retryAfterMillis(HttpResponse<?> response) {
+        String value = response.headers().firstValue("Retry-After").orElse(null);
+        if (value == null || value.isBlank()) return -1;
+        value = value.trim();
+        try {
+            return Math.max(0, Long.parseLong(value) * 1000);
+        } catch (NumberFormatException ignored) {
+        }
+        try {
+            ZonedDateTime at = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME);
+            return Math.max(0, Duration.between(ZonedDateTime.now(at.getZone()), at).toMillis());
+        } catch (DateTimeParseException ignored) {
+            return -1;
+        }
+    }
+
+    private <T> void attemptAsync(AsyncOperation<T> operation, ScheduledExecutorService scheduler,
+                                  CompletableFuture<T> result, int attempt, long previousDelay, int deferrals) {
+        CompletableFuture<T> future;
+        try {
+            future = operation.run();
+        } catch (Exception e) {
+            future = CompletableFuture.failedFuture(e);
+        }
+
+        future.whenComplete((value, error) -> {
+            if (error == null) {
+                result.complete(value);
+                return;
+            }
+            Throwable cause = unwrap(error);
+            if (cause instanceof CircuitOpenException open) {
+                long wait = deferMillis(deferrals, open);
+                if (wait >= 0) {
+                    scheduler.schedule(() -> attemptAsync(operation, scheduler, result, attempt, previousDelay,
+                            deferrals + 1), wait, TimeUnit.MILLISECONDS);
+                    return;
+                }
+            }
+            long delay = cause instanceof RetryableException retryable && !(cause instanceof CircuitOpenException)
+                    ? nextDelayMillis(attempt, previousDelay, retryable) : -1;
+            if (delay >= 0) {
+                scheduler.schedule(() -> attemptAsync(operation, scheduler, result, attempt + 1, delay, deferrals),
+                        delay, TimeUnit.MILLISECONDS);
+            } else {
+                result.completeExceptionally(cause);
+            }
+        });
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        while ((error instanceof CompletionException || error instanceof ExecutionException)
+                && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error;
+    }
+
     @FunctionalInterface
     public interface RetryableOperation<T> {
         T run() throws Exception;
     }
 
+    @FunctionalInterface
+    public interface AsyncOperation<T> {
+        CompletableFuture<T> run() throws Exception;
+    }
+
     public static class RetryableException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private final long retryAfterMillis;
+
         public RetryableException(String msg) {
+            this(msg, -1);
+        }
+
+        public RetryableException(String msg, long retryAfterMillis) {
             super(msg);
+            this.retryAfterMillis = retryAfterMillis;
+        }
+
+        //Задержка из Retry-After, -1 если сервер ее не прислал
+        public long getRetryAfterMillis() {
+            return retryAfterMillis;
         }
     }
 }
@@ -0,0 +1,329 @@
+package app.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Режим службы: каталог входящих книг отслеживается через WatchService.
+ * Книга, размер и время изменения которой не менялись settleMillis, переносится
+ * в подкаталог .processing и обрабатывается в отдельном потоке, затем вместе
+ * со своими логами уходит в done или failed. Все книги обрабатываются на общих
+ * компонентах запуска, поэтому лимиты мерчантов действуют на все книги сразу.
+ * Изменение книги ключей перечитывается на лету.
+ */
+public class InboxService implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(InboxService.class);
+    private static final String PROCESSING = ".processing";
+    private static final DateTimeFormatter STAMP = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-");
+
+    /**
+     * Обработка одной книги. Исключение означает, что книга не обработана
+     * до конца и уходит в failed; отклоненные строки пишутся в лог ошибок.
+     */
+    public interface FileHandler {
+        void handle(Path workbook, FileLogs logs) throws Exception;
+    }
+
+    //Перечитывание книги ключей, при ошибке прежние ключи остаются
+    public interface KeysLoader {
+        void load() throws Exception;
+    }
+
+    //Логи одной книги, results - null, если структурированный файл не нужен
+    public record FileLogs(Path success, Path failed, Path results) {
+        List<Path> all() {
+            List<Path> paths = new ArrayList<>(List.of(success, failed));
+            if (results != null) paths.add(results);
+            return paths;
+        }
+    }
+
+    private final Path inbox;
+    private final Path processing;
+    private final Path done;
+    private final Path failed;
+    private final Path keysFile;
+    private final KeysLoader keysLoader;
+    private final FileHandler handler;
+    private final String resultsExtension;
+    private final long settleNanos;
+    private final ExecutorService files;
+    private final WatchService watcher;
+    // Книги, которые еще дописываются; трогает только поток run()
+    private final Map<Path, Pending> pending = new HashMap<>();
+    private final AtomicInteger active = new AtomicInteger();
+    private volatile boolean closed;
+
+    /**
+     * @param keysFile         книга ключей для перечитывания, null - не следить
+     * @param fileThreads      сколько книг обрабатывается одновременно
+     * @param resultsExtension расширение файла результатов (.jsonl, .csv), null - без него
+     */
+    public InboxService(Path inbox, Path done, Path failed, Path keysFile, KeysLoader keysLoader,
+                        FileHandler handler, int fileThreads, long settleMillis,
+                        String resultsExtension) throws IOException {
+        this.inbox = inbox.toAbsolutePath().normalize();
+        this.processing = this.inbox.resolve(PROCESSING);
+        this.done = done.toAbsolutePath().normalize();
+        this.failed = failed.toAbsolutePath().normalize();
+        this.keysFile = keysFile == null ? null : keysFile.toAbsolutePath().normalize();
+        this.keysLoader = keysLoader;
+        this.handler = handler;
+        this.resultsExtension = resultsExtension;
+        this.settleNanos = TimeUnit.MILLISECONDS.toNanos(settleMillis);
+        Files.createDirectories(this.inbox);
+        Files.createDirectories(processing);
+        Files.createDirectories(this.done);
+        Files.createDirectories(this.failed);
+
+        AtomicInteger counter = new AtomicInteger();
+        this.files = Executors.newFixedThreadPool(Math.max(1, fileThreads), r -> {
+            Thread thread = new Thread(r, "inbox-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.watcher = FileSystems.getDefault().newWatchService();
+    }
+
+    /**
+     * Цикл наблюдения, возвращается после close(). Книги, оставшиеся
+     * в .processing после аварийной остановки, возвращаются во входящие.
+     */
+    public void run() throws IOException, InterruptedException {
+        recover();
+        inbox.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        if (keysFile != null) {
+            keysFile.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+        }
+        log.info("Служба запущена, входящие: {}, готовые: {}, ошибки: {}", inbox, done, failed);
+        scan();
+        long keysChanged = 0;
+        try {
+            while (!closed) {
+                WatchKey key = watcher.poll(Math.max(1, settleNanos), TimeUnit.NANOSECONDS);
+                if (key != null) {
+                    Path dir = (Path) key.watchable();
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            scan();
+                            continue;
+                        }
+                        Path file = dir.resolve((Path) event.context());
+                        if (file.equals(keysFile)) {
+                            keysChanged = System.nanoTime();
+                        } else if (dir.equals(inbox) && isWorkbook(file)) {
+                            pending.putIfAbsent(file, new Pending());
+                        }
+                    }
+                    if (!key.reset() && dir.equals(inbox)) {
+                        throw new IOException("Каталог входящих недоступен: " + inbox);
+                    }
+                }
+                // Книгу ключей перечитываем, когда запись в нее затихла
+                if (keysChanged != 0 && System.nanoTime() - keysChanged >= settleNanos) {
+                    keysChanged = 0;
+                    reloadKeys();
+                }
+                claimSettled();
+            }
+        } catch (ClosedWatchServiceException e) {
+            // close() из другого потока
+        }
+    }
+
+    /**
+     * Остановка: новые книги не берутся, начатые дорабатываются.
+     * Если они не успели за stopTimeout, обработка прерывается, и при
+     * следующем запуске книги возвращаются во входящие.
+     */
+    public void stop(Duration stopTimeout) throws InterruptedException {
+        closed = true;
+        try {
+            watcher.close();
+        } catch (IOException e) {
+            log.warn("Ошибка закрытия WatchService", e);
+        }
+        files.shutdown();
+        if (!files.awaitTermination(stopTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+            log.warn("Книги не обработаны за {} с, обработка прервана: {}", stopTimeout.toSeconds(), active.get());
+            files.shutdownNow();
+        }
+    }
+
+    //Остановка с ожиданием начатых книг до минуты; прерывание ожидания сохраняется в флаге потока
+    @Override
+    public void close() {
+        try {
+            stop(Duration.ofMinutes(1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void scan() throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(inbox)) {
+            for (Path file : stream) {
+                if (isWorkbook(file) && !file.equals(keysFile)) pending.putIfAbsent(file, new Pending());
+            }
+        }
+    }
+
+    //Берет в работу книги, которые перестали меняться
+    private void claimSettled() {
+        long now = System.nanoTime();
+        for (Iterator<Map.Entry<Path, Pending>> it = pending.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Path, Pending> entry = it.next();
+            Path file = entry.getKey();
+            Pending state = entry.getValue();
+            long size;
+            FileTime modified;
+            try {
+                size = Files.size(file);
+                modified = Files.getLastModifiedTime(file);
+            } catch (IOException e) {
+                // Книгу удалили или переименовали до того, как она была взята
+                it.remove();
+                continue;
+            }
+            if (size != state.size || !modified.equals(state.modified)) {
+                state.size = size;
+                state.modified = modified;
+                state.since = now;
+                continue;
+            }
+            if (now - state.since < settleNanos) continue;
+
+            Path claimed = processing.resolve(file.getFileName());
+            // Книга с тем же именем еще в работе: новая ждет, пока та уйдет в done или failed
+            if (Files.exists(claimed)) continue;
+            try {
+                Files.move(file, claimed, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                // На Windows книга может быть еще открыта копированием, попробуем позже
+                log.debug("Книга {} пока занята: {}", file, e.toString());
+                state.since = now;
+                continue;
+            }
+            it.remove();
+            active.incrementAndGet();
+            try {
+                files.execute(() -> process(claimed));
+            } catch (RejectedExecutionException e) {
+                // Служба останавливается, книгу вернет recover() при следующем запуске
+                active.decrementAndGet();
+                return;
+            }
+        }
+    }
+
+    private void process(Path workbook) {
+        String name = workbook.getFileName().toString();
+        String base = name.substring(0, name.lastIndexOf('.'));
+        FileLogs logs = new FileLogs(processing.resolve(base + ".success.log"),
+                processing.resolve(base + ".failed.log"),
+                resultsExtension == null ? null : processing.resolve(base + ".results" + resultsExtension));
+        log.info("Книга {} взята в работу", name);
+        boolean ok;
+        try {
+            handler.handle(workbook, logs);
+            ok = true;
+        } catch (InterruptedException e) {
+            // Остановка службы: книга остается в .processing до следующего запуска
+            log.warn("Обработка книги {} прервана", name);
+            active.decrementAndGet();
+            return;
+        } catch (Exception e) {
+            log.error("Книга {} не обработана", name, e);
+            ok = false;
+        }
+        Path target = ok ? done : failed;
+        try {
+            List<Path> moved = new ArrayList<>(logs.all());
+            moved.add(0, workbook);
+            moveAll(moved, target);
+            log.info("Книга {} перенесена в {}", name, target);
+        } catch (IOException e) {
+            log.error("Не удалось перенести книгу {} в {}", name, target, e);
+        } finally {
+            active.decrementAndGet();
+        }
+    }
+
+    //Переносит книгу с логами одним набором; при совпадении имен добавляется отметка времени
+    private static void moveAll(List<Path> paths, Path target) throws IOException {
+        String stamp = "";
+        for (Path path : paths) {
+            if (Files.exists(target.resolve(path.getFileName()))) {
+                stamp = LocalDateTime.now().format(STAMP);
+                break;
+            }
+        }
+        for (Path path : paths) {
+            if (Files.exists(path)) {
+                Files.move(path, target.resolve(stamp + path.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+
+    private void recover() throws IOException {
+        List<Path> leftovers = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(processing)) {
+            for (Path file : stream) {
+                if (isWorkbook(file)) {
+                    log.warn("Книга {} не была обработана до конца, возвращается во входящие", file.getFileName());
+                    Files.move(file, inbox.resolve(file.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+                } else {
+                    leftovers.add(file);
+                }
+            }
+        }
+        // Логи прерванной обработки сохраняются: в них чеки, которые уже ушли
+        if (!leftovers.isEmpty()) moveAll(leftovers, failed);
+    }
+
+    private void reloadKeys() {
+        try {
+            keysLoader.load();
+        } catch (Exception e) {
+            log.error("Не удалось перечитать книгу ключей {}, остаются прежние ключи", keysFile, e);
+        }
+    }
+
+    private static boolean isWorkbook(Path file) {
+        String name = file.getFileName().toString();
+        return name.toLowerCase().endsWith(".xlsx") && !name.startsWith("~$") && Files.isRegularFile(file);
+    }
+
+    private static final class Pending {
+        long size = -1;
+        FileTime modified;
+        long since = System.nanoTime();
+    }
+}
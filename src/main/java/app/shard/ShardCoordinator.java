@@ -0,0 +1,205 @@
+package app.shard;
+
+import app.journal.DedupIndex;
+import app.journal.SendJournal;
+import app.spool.SpoolReader;
+import app.util.Hash64;
+import app.util.LongHashSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Разделение отправки между процессами-исполнителями. Координатор раскладывает
+ * готовые тела запросов по spool-файлам шардов по хэшу publicId, поэтому лимит
+ * каждого мерчанта целиком принадлежит одному исполнителю. Исполнитель - тот же
+ * jar в режиме spool со своим журналом, на этой или на другой машине с общим каталогом.
+ * После их завершения логи и журналы шардов сливаются в общие.
+ */
+public class ShardCoordinator {
+    private static final Logger log = LoggerFactory.getLogger(ShardCoordinator.class);
+
+    private final Path dir;
+    private final int shards;
+
+    public ShardCoordinator(Path dir, int shards) throws IOException {
+        if (shards < 1) throw new IllegalArgumentException("Число шардов должно быть больше 0: " + shards);
+        this.dir = dir;
+        this.shards = shards;
+        Files.createDirectories(dir);
+    }
+
+    public static int shardOf(String publicId, int shards) {
+        return (int) Math.floorMod(Hash64.of(publicId), (long) shards);
+    }
+
+    public int shards() {
+        return shards;
+    }
+
+    //Удаление файлов прошлого разделения: журнал шарда от старого spool исказил бы итог
+    public void clean() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "{shard-*,rejected.log,compile.log}")) {
+            for (Path file : files) Files.delete(file);
+        }
+    }
+
+    public Path spool(int shard) {
+        return dir.resolve("shard-" + shard + ".spool");
+    }
+
+    //Строки, отклоненные координатором при разборе книги
+    public Path rejected() {
+        return dir.resolve("rejected.log");
+    }
+
+    /**
+     * Параметры исполнителя шарда поверх конфига координатора.
+     * Журнал у каждого свой, индекс дублей ведет только координатор.
+     *
+     * @param resultsExtension расширение файла результатов, null - без него
+     * @param metricsPort      порт метрик координатора, исполнители берут следующие; 0 - без метрик
+     */
+    public List<String> workerArgs(int shard, String resultsExtension, int metricsPort) {
+        String prefix = dir.resolve("shard-" + shard).toString();
+        return List.of("mode=spool",
+                "spoolFile=" + spool(shard),
+                "successLog=" + prefix + ".success.log",
+                "failedLog=" + prefix + ".failed.log",
+                "resultsFile=" + (resultsExtension == null ? "" : prefix + ".results" + resultsExtension),
+                "journalFile=" + prefix + ".journal",
+                "dedupFile=",
+                "metricsPort=" + (metricsPort > 0 ? metricsPort + 1 + shard : 0));
+    }
+
+    /**
+     * Запуск исполнителей процессами на этой машине и ожидание всех.
+     * command - java с параметрами JVM, classpath, класс и конфиг; вывод
+     * исполнителя пишется в shard-N.out. Возвращает число упавших исполнителей.
+     */
+    public int runLocal(List<String> command, String resultsExtension, int metricsPort)
+            throws IOException, InterruptedException {
+        List<Process> workers = new ArrayList<>(shards);
+        try {
+            for (int shard = 0; shard < shards; shard++) {
+                List<String> args = new ArrayList<>(command);
+                args.addAll(workerArgs(shard, resultsExtension, metricsPort));
+                workers.add(new ProcessBuilder(args)
+                        .redirectErrorStream(true)
+                        .redirectOutput(dir.resolve("shard-" + shard + ".out").toFile())
+                        .start());
+                log.info("Исполнитель шарда {} запущен, pid {}", shard, workers.get(shard).pid());
+            }
+            int failed = 0;
+            for (int shard = 0; shard < shards; shard++) {
+                int code = workers.get(shard).waitFor();
+                if (code != 0) {
+                    failed++;
+                    log.error("Исполнитель шарда {} завершился с кодом {}, вывод в {}", shard, code,
+                            dir.resolve("shard-" + shard + ".out"));
+                } else {
+                    log.info("Исполнитель шарда {} завершен", shard);
+                }
+            }
+            return failed;
+        } finally {
+            // Прерванный координатор не оставляет исполнителей работать без присмотра
+            for (Process worker : workers) worker.destroy();
+        }
+    }
+
+    /**
+     * Слияние шардов: отклоненные строки и логи шардов склеиваются в общие логи,
+     * записи журналов шардов переносятся в общий журнал, ключи отправленных
+     * чеков - в индекс дублей. Повторное слияние безопасно: записи журнала
+     * повторятся, но набор отправленных ключей не изменится.
+     *
+     * @param results общий файл результатов, null - не собирать
+     * @param journal общий журнал, может быть null
+     * @param dedup   индекс дублей, может быть null
+     */
+    public Totals merge(Path successLog, Path failedLog, Path results, SendJournal journal, DedupIndex dedup)
+            throws IOException {
+        long success = 0;
+        long failed = 0;
+        long notSent = 0;
+        try (OutputStream successOut = Files.newOutputStream(successLog);
+             OutputStream failedOut = Files.newOutputStream(failedLog);
+             OutputStream resultsOut = results == null ? null : Files.newOutputStream(results)) {
+            append(rejected(), failedOut);
+            boolean csv = results != null && results.getFileName().toString().toLowerCase().endsWith(".csv");
+            boolean header = true;
+            for (int shard = 0; shard < shards; shard++) {
+                String prefix = "shard-" + shard;
+                append(dir.resolve(prefix + ".success.log"), successOut);
+                append(dir.resolve(prefix + ".failed.log"), failedOut);
+                if (resultsOut != null) {
+                    Path part = dir.resolve(prefix + ".results" + (csv ? ".csv" : ".jsonl"));
+                    // У csv каждого шарда свой заголовок, в общий файл попадает первый
+                    if (csv && !header) appendSkippingHeader(part, resultsOut);
+                    else header = !append(part, resultsOut);
+                }
+
+                Path shardJournal = dir.resolve(prefix + ".journal");
+                LongHashSet sent = new LongHashSet(1024);
+                LongHashSet attempted = new LongHashSet(1024);
+                if (Files.exists(shardJournal)) {
+                    SendJournal.read(shardJournal, (key, ok) -> {
+                        if (journal != null) journal.record(key, ok);
+                        attempted.add(key);
+                        if (ok) sent.add(key);
+                    });
+                }
+                long[] counts = new long[2];
+                if (Files.exists(spool(shard))) {
+                    new SpoolReader(spool(shard)).forEach(record -> {
+                        if (sent.contains(record.rowKey())) {
+                            if (dedup != null) dedup.confirm(record.dedupKey());
+                        } else if (attempted.contains(record.rowKey())) {
+                            counts[0]++;
+                        } else {
+                            counts[1]++;
+                        }
+                    });
+                }
+                log.info("Шард {}: успешно {}, ошибки {}, не отправлено {}", shard, sent.size(), counts[0], counts[1]);
+                success += sent.size();
+                failed += counts[0];
+                notSent += counts[1];
+                if (journal != null) journal.flush();
+            }
+        }
+        return new Totals(success, failed, notSent);
+    }
+
+    //Итог слияния: notSent - чеки, до которых исполнитель не дошел
+    public record Totals(long success, long failed, long notSent) {
+    }
+
+    //false, если файла нет
+    private static boolean append(Path part, OutputStream out) throws IOException {
+        if (!Files.exists(part)) return false;
+        Files.copy(part, out);
+        return true;
+    }
+
+    private static void appendSkippingHeader(Path part, OutputStream out) throws IOException {
+        if (!Files.exists(part)) return;
+        try (BufferedReader reader = Files.newBufferedReader(part, StandardCharsets.UTF_8)) {
+            reader.readLine();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                out.write((line + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package app.spool;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * Чтение spool-файла через отображение в память окнами до WINDOW байт:
+ * FileChannel.map ограничен 2 ГБ, а spool может быть больше.
+ * Запись, пересекающая конец окна, читается из следующего окна.
+ */
+public class SpoolReader {
+    private static final long WINDOW = 1L << 30;
+
+    private final Path file;
+    private final long windowSize;
+
+    public SpoolReader(Path file) {
+        this(file, WINDOW);
+    }
+
+    //Окно меньшего размера, чтобы проверить переход записей через границу без файла в гигабайты
+    SpoolReader(Path file, long windowSize) {
+        this.file = file;
+        this.windowSize = windowSize;
+    }
+
+    //Число записей из заголовка
+    public long count() throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return header(channel);
+        }
+    }
+
+    /**
+     * Отдает записи по порядку в consumer из текущего потока.
+     * Возвращает число прочитанных записей.
+     */
+    public long forEach(Consumer<SpoolRecord> consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long expected = header(channel);
+            long size = channel.size();
+            long pos = SpoolWriter.HEADER_SIZE;
+            long read = 0;
+            while (read < expected) {
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(windowSize, size - pos));
+                int start = 0;
+                SpoolRecord record;
+                while (read < expected && (record = next(window)) != null) {
+                    consumer.accept(record);
+                    read++;
+                    start = window.position();
+                }
+                if (start == 0 && read < expected) throw new IOException("Spool-файл поврежден: " + file);
+                pos += start;
+            }
+            return read;
+        }
+    }
+
+    //Следующая запись окна или null, если она не уместилась в окно целиком
+    private static SpoolRecord next(MappedByteBuffer window) {
+        int start = window.position();
+        try {
+            long rowKey = window.getLong();
+            long dedupKey = window.getLong();
+            String publicId = string(window, window.getShort());
+            String source = string(window, window.getShort());
+            byte[] body = new byte[window.getInt()];
+            window.get(body);
+            return new SpoolRecord(rowKey, dedupKey, publicId, source, body);
+        } catch (RuntimeException e) {
+            // BufferUnderflowException или отрицательная длина на обрезанной записи
+            window.position(start);
+            return null;
+        }
+    }
+
+    private static String string(MappedByteBuffer window, int length) {
+        byte[] bytes = new byte[length];
+        window.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private long header(FileChannel channel) throws IOException {
+        MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, SpoolWriter.HEADER_SIZE);
+        if (header.getLong() != SpoolWriter.MAGIC) throw new IOException("Файл не является spool-файлом: " + file);
+        return header.getLong();
+    }
+}
@@ -0,0 +1,8 @@
+package app.spool;
+
+/**
+ * Готовый к отправке чек из spool-файла: тело запроса и все,
+ * что нужно для журнала, индекса дублей и логов, без исходных строк.
+ */
+public record SpoolRecord(long rowKey, long dedupKey, String publicId, String source, byte[] body) {
+}
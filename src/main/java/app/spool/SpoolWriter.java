@@ -0,0 +1,93 @@
+package app.spool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Запись spool-файла: заголовок и записи с префиксами длины
+ * (rowKey, dedupKey, publicId, источник строки, тело json).
+ * Пишется во временный файл и переименовывается при закрытии,
+ * поэтому недописанный spool после сбоя не подхватится на отправке.
+ * Не потокобезопасен.
+ */
+public class SpoolWriter implements AutoCloseable {
+    static final long MAGIC = 0x545053535030304CL; // "TPSSP00L"
+    // magic и число записей
+    static final int HEADER_SIZE = 2 * Long.BYTES;
+
+    private final Path file;
+    private final Path tmp;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+    private long count;
+    private boolean completed;
+
+    public SpoolWriter(Path file) throws IOException {
+        this.file = file;
+        this.tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        this.channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        // Число записей дописывается в заголовок при закрытии
+        buffer.putLong(MAGIC).putLong(0);
+    }
+
+    public void append(long rowKey, long dedupKey, String publicId, String source, byte[] body) throws IOException {
+        byte[] id = publicId.getBytes(StandardCharsets.UTF_8);
+        byte[] src = source.getBytes(StandardCharsets.UTF_8);
+        int size = 2 * Long.BYTES + Short.BYTES + id.length + Short.BYTES + src.length + Integer.BYTES + body.length;
+        if (id.length > Short.MAX_VALUE || src.length > Short.MAX_VALUE) {
+            throw new IOException("Слишком длинный publicId или источник строки: " + source);
+        }
+        if (buffer.remaining() < size) flushBuffer();
+        // Запись больше буфера пишется напрямую
+        ByteBuffer target = size <= buffer.capacity() ? buffer : ByteBuffer.allocate(size);
+        target.putLong(rowKey).putLong(dedupKey)
+                .putShort((short) id.length).put(id)
+                .putShort((short) src.length).put(src)
+                .putInt(body.length).put(body);
+        if (target != buffer) write(target.flip());
+        count++;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    //Закрытие с публикацией файла; при ошибке выше по стеку вызывать abort
+    @Override
+    public void close() throws IOException {
+        if (completed) return;
+        completed = true;
+        try {
+            flushBuffer();
+            channel.write(ByteBuffer.allocate(Long.BYTES).putLong(0, count), Long.BYTES);
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    //Отказ от файла: временный удаляется, прежний spool остается как был
+    public void abort() throws IOException {
+        if (completed) return;
+        completed = true;
+        channel.close();
+        Files.deleteIfExists(tmp);
+    }
+
+    private void flushBuffer() throws IOException {
+        write(buffer.flip());
+        buffer.clear();
+    }
+
+    private void write(ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) channel.write(data);
+    }
+}
@@ -0,0 +1,127 @@
+package app.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Адаптивный предел одновременных запросов для одного ключа (AIMD).
+ * Пока ответы быстрые, предел растет примерно на 1 за каждые limit ответов.
+ * На 429/5xx/таймаут предел делится пополам, на рост задержки выше
+ * latencyTolerance от базовой - уменьшается на 10%. Уменьшение не чаще
+ * одного раза за время ответа, чтобы пачка ошибок одного окна не обнулила предел.
+ * Базовая задержка - минимум наблюдаемых, медленно подтягивается вверх.
+ */
+public class AdaptiveLimit {
+    private final int minLimit;
+    private final int maxLimit;
+    private final double latencyTolerance;
+
+    private double limit;
+    private int inFlight;
+    private double baselineMillis;
+    private long lastDecrease;
+    private final ArrayDeque<CompletableFuture<Void>> waiters = new ArrayDeque<>();
+
+    public AdaptiveLimit(int initialLimit, int minLimit, int maxLimit, double latencyTolerance) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.latencyTolerance = Math.max(1.0, latencyTolerance);
+        this.limit = Math.max(this.minLimit, Math.min(this.maxLimit, initialLimit));
+        this.lastDecrease = System.nanoTime() - TimeUnit.MINUTES.toNanos(1);
+    }
+
+    public void acquire() throws InterruptedException {
+        CompletableFuture<Void> slot = acquireAsync();
+        try {
+            slot.get();
+        } catch (InterruptedException e) {
+            // Слот мог быть выдан одновременно с прерыванием - возвращаем его
+            if (!cancel(slot)) release();
+            throw e;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    //Future завершается, когда освободится место в пределе
+    public CompletableFuture<Void> acquireAsync() {
+        synchronized (this) {
+            if (waiters.isEmpty() && inFlight < (int) limit) {
+                inFlight++;
+                return CompletableFuture.completedFuture(null);
+            }
+            CompletableFuture<Void> slot = new CompletableFuture<>();
+            waiters.add(slot);
+            return slot;
+        }
+    }
+
+    /**
+     * Завершение запроса с замером.
+     * overload - ответ 429/5xx или таймаут, сигнал перегрузки.
+     */
+    public void release(long latencyMillis, boolean overload) {
+        List<CompletableFuture<Void>> granted;
+        synchronized (this) {
+            inFlight--;
+            long now = System.nanoTime();
+            boolean canDecrease = now - lastDecrease >= TimeUnit.MILLISECONDS.toNanos(Math.max(1, latencyMillis));
+            if (overload) {
+                if (canDecrease) decrease(0.5, now);
+            } else {
+                if (baselineMillis == 0 || latencyMillis < baselineMillis) baselineMillis = Math.max(1, latencyMillis);
+                else baselineMillis += (latencyMillis - baselineMillis) * 0.01;
+
+                if (latencyMillis > baselineMillis * latencyTolerance) {
+                    if (canDecrease) decrease(0.9, now);
+                } else if (inFlight + 1 >= limit / 2) {
+                    // Растем только когда предел действительно используется
+                    limit = Math.min(maxLimit, limit + 1.0 / limit);
+                }
+            }
+            granted = grant();
+        }
+        granted.forEach(slot -> slot.complete(null));
+    }
+
+    //Возврат слота без замера: запрос не был отправлен
+    public void release() {
+        List<CompletableFuture<Void>> granted;
+        synchronized (this) {
+            inFlight--;
+            granted = grant();
+        }
+        granted.forEach(slot -> slot.complete(null));
+    }
+
+    public synchronized int limit() {
+        return (int) limit;
+    }
+
+    public synchronized int inFlight() {
+        return inFlight;
+    }
+
+    private synchronized boolean cancel(CompletableFuture<Void> slot) {
+        return waiters.remove(slot);
+    }
+
+    private void decrease(double factor, long now) {
+        limit = Math.max(minLimit, limit * factor);
+        lastDecrease = now;
+    }
+
+    //Выдача слотов ожидающим, future завершаются вне блокировки
+    private List<CompletableFuture<Void>> grant() {
+        List<CompletableFuture<Void>> granted = new ArrayList<>();
+        while (!waiters.isEmpty() && inFlight < (int) limit) {
+            inFlight++;
+            granted.add(waiters.poll());
+        }
+        return granted;
+    }
+}
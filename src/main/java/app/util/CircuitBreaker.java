@@ -0,0 +1,125 @@
+package app.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Автомат отключения для одного ключа (publicId).
+ * Считает долю ошибок по скользящему окну последних window запросов.
+ * Когда доля ошибок достигает failureRate, автомат размыкается на openMillis:
+ * запросы не отправляются, вызывающий откладывает строку.
+ * После паузы пропускается один пробный запрос - успех замыкает автомат,
+ * ошибка снова размыкает его.
+ */
+public class CircuitBreaker {
+    private static final Logger log = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    private enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final String name;
+    private final int minCalls;
+    private final double failureRate;
+    private final long openNanos;
+
+    // Кольцо результатов последних запросов, true - ошибка
+    private final boolean[] window;
+    private int position;
+    private int calls;
+    private int failures;
+
+    private State state = State.CLOSED;
+    private long openUntil;
+    private boolean probeInFlight;
+
+    public CircuitBreaker(String name, int window, int minCalls, double failureRate, long openMillis) {
+        this.name = name;
+        this.window = new boolean[Math.max(1, window)];
+        this.minCalls = Math.max(1, Math.min(minCalls, this.window.length));
+        this.failureRate = failureRate;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, openMillis));
+    }
+
+    /**
+     * Разрешение на запрос. 0 - можно отправлять, иначе сколько
+     * миллисекунд еще ждать до следующей проверки.
+     */
+    public synchronized long tryAcquire() {
+        switch (state) {
+            case CLOSED -> {
+                return 0;
+            }
+            case OPEN -> {
+                long left = openUntil - System.nanoTime();
+                if (left > 0) return Math.max(1, TimeUnit.NANOSECONDS.toMillis(left));
+                state = State.HALF_OPEN;
+                probeInFlight = true;
+                return 0;
+            }
+            default -> {
+                if (!probeInFlight) {
+                    probeInFlight = true;
+                    return 0;
+                }
+                // Пробный запрос еще в работе
+                return Math.max(1, TimeUnit.NANOSECONDS.toMillis(openNanos) / 10);
+            }
+        }
+    }
+
+    public synchronized void onSuccess() {
+        if (state == State.HALF_OPEN) {
+            log.info("Автомат для {} замкнут, отправка возобновлена", name);
+            state = State.CLOSED;
+            probeInFlight = false;
+            reset();
+        }
+        record(false);
+    }
+
+    public synchronized void onFailure() {
+        if (state == State.HALF_OPEN) {
+            open("пробный запрос неудачен");
+            return;
+        }
+        record(true);
+        if (state == State.CLOSED && calls >= minCalls && failures >= failureRate * calls) {
+            open("ошибок " + failures + " из " + calls);
+        }
+    }
+
+    //Запрос не отправлен или ответ ничего не говорит о доступности API: освобождаем место пробного запроса
+    public synchronized void onCancel() {
+        if (state == State.HALF_OPEN) probeInFlight = false;
+    }
+
+    public synchronized boolean isOpen() {
+        return state != State.CLOSED;
+    }
+
+    private void record(boolean failure) {
+        if (calls == window.length) {
+            if (window[position]) failures--;
+        } else {
+            calls++;
+        }
+        window[position] = failure;
+        if (failure) failures++;
+        position = (position + 1) % window.length;
+    }
+
+    private void open(String reason) {
+        log.warn("Автомат для {} разомкнут на {} мс: {}", name, TimeUnit.NANOSECONDS.toMillis(openNanos), reason);
+        state = State.OPEN;
+        openUntil = System.nanoTime() + openNanos;
+        probeInFlight = false;
+        reset();
+    }
+
+    private void reset() {
+        calls = 0;
+        failures = 0;
+        position = 0;
+    }
+}
@@ -0,0 +1,40 @@
+package app.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Набор ресурсов, закрываемых в обратном порядке регистрации, как в try-with-resources.
+ * Нужен для ресурсов, которые создаются по условию или работают только через
+ * другие объекты (журнал, индекс дублей, сервер метрик). null не регистрируется.
+ * Ошибка закрытия одного ресурса не мешает закрыть остальные, следующие
+ * ошибки добавляются к первой как suppressed.
+ */
+public class Closer implements Closeable {
+    private final Deque<AutoCloseable> resources = new ArrayDeque<>();
+
+    public <C extends AutoCloseable> C register(C resource) {
+        if (resource != null) resources.push(resource);
+        return resource;
+    }
+
+    @Override
+    public void close() throws IOException {
+        Throwable error = null;
+        while (!resources.isEmpty()) {
+            try {
+                resources.pop().close();
+            } catch (Throwable e) {
+                if (e instanceof InterruptedException) Thread.currentThread().interrupt();
+                if (error == null) error = e;
+                else error.addSuppressed(e);
+            }
+        }
+        if (error instanceof IOException e) throw e;
+        if (error instanceof RuntimeException e) throw e;
+        if (error instanceof Error e) throw e;
+        if (error != null) throw new IOException(error);
+    }
+}
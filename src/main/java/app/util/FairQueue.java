@@ -0,0 +1,311 @@
+package app.util;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * Ограниченная очередь с отдельной подочередью на каждый ключ (publicId).
+ * Ключи обслуживаются по кругу deficit round-robin: за свою очередь ключ
+ * отдает weight элементов. Уровни приоритета строгие: пока в старшем уровне
+ * есть что отдать, младший ждет.
+ * Ключ, которому по readyIn еще рано (лимит частоты мерчанта), пропускается
+ * и уходит в конец круга со своим недобором deficit, а поток получает элемент
+ * другого ключа или младшего уровня. Ждущему лимита ключу место в круге
+ * не нужно: к его готовности круг до него дойдет. Если рано всем, take ждет
+ * ближайшего готового ключа.
+ * Проверка приблизительная: токен резервирует уже отправитель.
+ * poll() без ожидания возвращает null, если ни один ключ не готов, как DelayQueue.
+ */
+public class FairQueue<T> extends AbstractQueue<T> implements BlockingQueue<T> {
+    private final int capacity;
+    private final Function<T, String> key;
+    private final ToIntFunction<T> priority;
+    private final ToLongFunction<String> readyIn;
+    private final ToIntFunction<String> weight;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    // Уровни от старшего приоритета к младшему, пустые удаляются
+    private final TreeMap<Integer, Level<T>> levels = new TreeMap<>(Comparator.reverseOrder());
+    private int count;
+    // Поток, который ждет ближайшего готового ключа по таймеру; остальные ждут сигнала
+    private Thread leader;
+
+    /**
+     * @param key      ключ подочереди элемента
+     * @param priority приоритет элемента, больше - раньше
+     * @param readyIn  сколько наносекунд ключу еще рано отдавать элемент, 0 - можно сейчас
+     * @param weight   сколько элементов ключ отдает за свою очередь
+     */
+    public FairQueue(int capacity, Function<T, String> key, ToIntFunction<T> priority,
+                     ToLongFunction<String> readyIn, ToIntFunction<String> weight) {
+        this.capacity = Math.max(1, capacity);
+        this.key = key;
+        this.priority = priority;
+        this.readyIn = readyIn;
+        this.weight = weight;
+    }
+
+    @Override
+    public boolean offer(T item) {
+        lock.lock();
+        try {
+            if (count == capacity) return false;
+            enqueue(item);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(T item) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (count == capacity) notFull.await();
+            enqueue(item);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(T item, long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (count == capacity) {
+                if (nanos <= 0) return false;
+                nanos = notFull.awaitNanos(nanos);
+            }
+            enqueue(item);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public T poll() {
+        lock.lock();
+        try {
+            return dequeue(null);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public T take() throws InterruptedException {
+        T item;
+        do {
+            item = poll(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } while (item == null);
+        return item;
+    }
+
+    @Override
+    public T poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        long[] nearest = new long[1];
+        lock.lockInterruptibly();
+        try {
+            while (true) {
+                T item = dequeue(nearest);
+                if (item != null) return item;
+                if (nanos <= 0) return null;
+                if (count == 0 || leader != null) {
+                    nanos = notEmpty.awaitNanos(nanos);
+                } else {
+                    Thread current = Thread.currentThread();
+                    leader = current;
+                    try {
+                        long wait = Math.min(nanos, nearest[0]);
+                        nanos -= wait - notEmpty.awaitNanos(wait);
+                    } finally {
+                        if (leader == current) leader = null;
+                    }
+                }
+            }
+        } finally {
+            if (leader == null && count > 0) notEmpty.signal();
+            lock.unlock();
+        }
+    }
+
+    //Первый элемент старшего уровня без учета готовности ключа
+    @Override
+    public T peek() {
+        lock.lock();
+        try {
+            if (levels.isEmpty()) return null;
+            return levels.firstEntry().getValue().active.peekFirst().items.peekFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        lock.lock();
+        try {
+            return capacity - count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //Число ключей с элементами в очереди
+    public int keys() {
+        lock.lock();
+        try {
+            int keys = 0;
+            for (Level<T> level : levels.values()) keys += level.active.size();
+            return keys;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super T> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    //Забирает только элементы готовых ключей
+    @Override
+    public int drainTo(Collection<? super T> c, int maxElements) {
+        lock.lock();
+        try {
+            int n = 0;
+            T item;
+            while (n < maxElements && (item = dequeue(null)) != null) {
+                c.add(item);
+                n++;
+            }
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        lock.lock();
+        try {
+            levels.clear();
+            count = 0;
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //Снимок содержимого, удаление через итератор не поддерживается
+    @Override
+    public Iterator<T> iterator() {
+        lock.lock();
+        try {
+            List<T> snapshot = new ArrayList<>(count);
+            for (Level<T> level : levels.values()) {
+                for (Flow<T> flow : level.active) snapshot.addAll(flow.items);
+            }
+            return Collections.unmodifiableList(snapshot).iterator();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void enqueue(T item) {
+        String k = key.apply(item);
+        Level<T> level = levels.computeIfAbsent(priority.applyAsInt(item), p -> new Level<>());
+        Flow<T> flow = level.flows.get(k);
+        if (flow == null) {
+            flow = new Flow<>(k);
+            level.flows.put(k, flow);
+            level.active.addLast(flow);
+        }
+        flow.items.addLast(item);
+        count++;
+        notEmpty.signal();
+    }
+
+    /**
+     * Следующий элемент по кругу или null. В nearest, если он передан,
+     * записывается, через сколько наносекунд будет готов ближайший ключ.
+     */
+    private T dequeue(long[] nearest) {
+        long wait = Long.MAX_VALUE;
+        for (Iterator<Level<T>> it = levels.values().iterator(); it.hasNext(); ) {
+            Level<T> level = it.next();
+            ArrayDeque<Flow<T>> active = level.active;
+            for (int i = active.size(); i > 0; i--) {
+                Flow<T> flow = active.peekFirst();
+                long ready = readyIn.applyAsLong(flow.key);
+                if (ready > 0) {
+                    // Ключ ждет лимита, его недобор сохраняется до следующего круга
+                    wait = Math.min(wait, ready);
+                    active.addLast(active.pollFirst());
+                    continue;
+                }
+                if (flow.deficit == 0) flow.deficit = Math.max(1, weight.applyAsInt(flow.key));
+                T item = flow.items.pollFirst();
+                flow.deficit--;
+                count--;
+                if (flow.items.isEmpty()) {
+                    active.pollFirst();
+                    level.flows.remove(flow.key);
+                    if (active.isEmpty()) it.remove();
+                } else if (flow.deficit == 0) {
+                    active.addLast(active.pollFirst());
+                }
+                notFull.signal();
+                return item;
+            }
+        }
+        if (nearest != null) nearest[0] = wait;
+        return null;
+    }
+
+    private static final class Level<T> {
+        private final Map<String, Flow<T>> flows = new HashMap<>();
+        // Ключи с элементами в порядке обхода
+        private final ArrayDeque<Flow<T>> active = new ArrayDeque<>();
+    }
+
+    private static final class Flow<T> {
+        private final String key;
+        private final ArrayDeque<T> items = new ArrayDeque<>();
+        private int deficit;
+
+        Flow(String key) {
+            this.key = key;
+        }
+    }
+}
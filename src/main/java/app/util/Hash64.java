@@ -0,0 +1,36 @@
+package app.util;
+
+/**
+ * 64-битный хэш набора строк (FNV-1a с финальным перемешиванием).
+ * Используется как устойчивый между запусками ключ строки.
+ */
+public final class Hash64 {
+    private static final long OFFSET = 0xcbf29ce484222325L;
+    private static final long PRIME = 0x100000001b3L;
+
+    private Hash64() {
+    }
+
+    public static long of(String... parts) {
+        long h = OFFSET;
+        for (String part : parts) {
+            for (int i = 0; i < part.length(); i++) {
+                h ^= part.charAt(i);
+                h *= PRIME;
+            }
+            // Разделитель, чтобы ("ab","c") и ("a","bc") давали разный хэш
+            h ^= 0x1F;
+            h *= PRIME;
+        }
+        return fmix(h);
+    }
+
+    private static long fmix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
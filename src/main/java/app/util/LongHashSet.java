@@ -0,0 +1,93 @@
+package app.util;
+
+/**
+ * Компактное множество long без упаковки в объекты.
+ * Открытая адресация с линейным пробированием, 0 хранится отдельным флагом.
+ * Не потокобезопасно: одновременные чтение и запись - под внешней блокировкой.
+ */
+public class LongHashSet {
+    private long[] table;
+    private int size;
+    private boolean hasZero;
+
+    public LongHashSet(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(16, expected * 2 - 1)) << 1;
+        table = new long[capacity];
+    }
+
+    public boolean add(long value) {
+        if (value == 0) {
+            boolean added = !hasZero;
+            hasZero = true;
+            return added;
+        }
+        if ((size + 1) * 2 > table.length) grow();
+        if (!insert(table, value)) return false;
+        size++;
+        return true;
+    }
+
+    public boolean remove(long value) {
+        if (value == 0) {
+            boolean removed = hasZero;
+            hasZero = false;
+            return removed;
+        }
+        int mask = table.length - 1;
+        int gap = mix(value) & mask;
+        while (table[gap] != value) {
+            if (table[gap] == 0) return false;
+            gap = (gap + 1) & mask;
+        }
+        // Ключи дальше по цепочке сдвигаются в дыру, иначе поиск остановится на ней раньше них
+        for (int i = (gap + 1) & mask; table[i] != 0; i = (i + 1) & mask) {
+            int home = mix(table[i]) & mask;
+            if (((i - home) & mask) >= ((i - gap) & mask)) {
+                table[gap] = table[i];
+                gap = i;
+            }
+        }
+        table[gap] = 0;
+        size--;
+        return true;
+    }
+
+    public boolean contains(long value) {
+        if (value == 0) return hasZero;
+        int mask = table.length - 1;
+        for (int i = mix(value) & mask; ; i = (i + 1) & mask) {
+            long cur = table[i];
+            if (cur == value) return true;
+            if (cur == 0) return false;
+        }
+    }
+
+    public int size() {
+        return size + (hasZero ? 1 : 0);
+    }
+
+    private static boolean insert(long[] table, long value) {
+        int mask = table.length - 1;
+        for (int i = mix(value) & mask; ; i = (i + 1) & mask) {
+            long cur = table[i];
+            if (cur == value) return false;
+            if (cur == 0) {
+                table[i] = value;
+                return true;
+            }
+        }
+    }
+
+    private void grow() {
+        long[] bigger = new long[table.length * 2];
+        for (long value : table) {
+            if (value != 0) insert(bigger, value);
+        }
+        table = bigger;
+    }
+
+    private static int mix(long value) {
+        long h = value * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -1,43 +1,73 @@
 package app.util;
 
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Класс управления частотой вызовов.
  * Нужен чтобы не спамить запросами и не превышать лимиты API
- * count - сколько запросов в секунду разрешено отправлять
+ * rps - сколько запросов в секунду разрешено отправлять
+ * burst - сколько запросов можно отправить подряд без паузы
+ * Реализован как token bucket: токены пополняются по nanoTime,
+ * ожидающий поток спит ровно до момента появления своего токена.
  * Created by Aleksey Selikhov 17.10.2025
  */
 public class RateLimiter {
-    private final int rps;
-    private final AtomicInteger tokens = new AtomicInteger(0);
+    private final long intervalNanos;
+    private final long burstNanos;
+    // Момент, к которому будут израсходованы все выданные токены
+    private final AtomicLong nextFree = new AtomicLong(System.nanoTime());
 
     public RateLimiter(int rps) {
-        this.rps = Math.max(1, rps);
-
-        Thread thread = new Thread(() -> {
-            while(true) {
-                tokens.set(rps);
-                try {
-                    Thread.sleep(1000);
-                } catch (InterruptedException exception) {
-                    break;
-                }
-            }
-        });
-        thread.setDaemon(true);
-        thread.start();
+        this(rps, 1);
+    }
+
+    public RateLimiter(int rps, int burst) {
+        this.intervalNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(1, rps);
+        this.burstNanos = (Math.max(1, burst) - 1) * intervalNanos;
+    }
+
+    public void acquire() throws InterruptedException {
+        long deadline = System.nanoTime() + reserve();
+        long wait;
+        while ((wait = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(this, wait);
+            if (Thread.interrupted()) throw new InterruptedException();
+        }
+    }
+
+    /**
+     * Неблокирующее получение токена: future завершается,
+     * когда подойдет время зарезервированного токена.
+     */
+    public CompletableFuture<Void> acquireAsync(ScheduledExecutorService scheduler) {
+        long wait = reserve();
+        if (wait <= 0) return CompletableFuture.completedFuture(null);
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        scheduler.schedule(() -> future.complete(null), wait, TimeUnit.NANOSECONDS);
+        return future;
+    }
+
+    //Сколько наносекунд пришлось бы ждать токен, без резервирования
+    public long waitNanos() {
+        long now = System.nanoTime();
+        return Math.max(0, Math.max(nextFree.get(), now) - burstNanos - now);
     }
 
-    public void acquire() {
-        while(true) {
-            int cur = tokens.get();
-            if (cur > 0) {
-                if (tokens.compareAndSet(cur, cur-1)) return;
-            } else {
-                try {
-                    Thread.sleep(50);
-                } catch (InterruptedException ignored) {}
+    /**
+     * Резервирует токен и возвращает, сколько наносекунд нужно подождать до него.
+     */
+    public long reserve() {
+        while (true) {
+            long now = System.nanoTime();
+            long free = nextFree.get();
+            long start = Math.max(free, now);
+            if (nextFree.compareAndSet(free, start + intervalNanos)) {
+                // Пока выданных наперед токенов не больше burst, ждать не нужно
+                return Math.max(0, start - burstNanos - now);
             }
         }
     }
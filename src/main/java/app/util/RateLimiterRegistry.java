@@ -0,0 +1,30 @@
+package app.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Набор ограничителей частоты по ключу (publicId).
+ * Лимиты CloudPayments считаются на мерчанта, поэтому каждый ключ
+ * получает свой bucket и крупный мерчант не тормозит остальных.
+ */
+public class RateLimiterRegistry {
+    private final int rps;
+    private final int burst;
+    private final Map<String, RateLimiter> limiters = new ConcurrentHashMap<>();
+
+    public RateLimiterRegistry(int rps, int burst) {
+        this.rps = rps;
+        this.burst = burst;
+    }
+
+    public RateLimiter get(String key) {
+        return limiters.computeIfAbsent(key, k -> new RateLimiter(rps, burst));
+    }
+
+    //Ожидание токена по ключу без создания ограничителя: у нового ключа токен есть сразу
+    public long waitNanos(String key) {
+        RateLimiter limiter = limiters.get(key);
+        return limiter == null ? 0 : limiter.waitNanos();
+    }
+}
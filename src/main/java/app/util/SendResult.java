@@ -4,11 +4,23 @@ public class SendResult {
     public final boolean success;
     public final int httpCode;
     public final String responseBody;
+    // Сколько попыток понадобилось и сколько заняла отправка с повторами
+    public final int attempts;
+    public final long latencyMillis;
 
     public SendResult(boolean success, int httpCode, String responseBody) {
+        this(success, httpCode, responseBody, 1, 0);
+    }
+
+    public SendResult(boolean success, int httpCode, String responseBody, int attempts, long latencyMillis) {
         this.success = success;
         this.httpCode = httpCode;
         this.responseBody = responseBody;
+        this.attempts = attempts;
+        this.latencyMillis = latencyMillis;
     }
 
+    public SendResult withTiming(int attempts, long latencyMillis) {
+        return new SendResult(success, httpCode, responseBody, attempts, latencyMillis);
+    }
 }
@@ -0,0 +1,41 @@
+package app.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Доступ к виртуальным потокам без жесткой привязки к JDK 21.
+ * Проект собирается под Java 17, поэтому executor создается через
+ * reflection и доступен только при запуске на JDK 21 и выше.
+ */
+public final class VirtualThreads {
+    private static final Method NEW_EXECUTOR = find();
+
+    private VirtualThreads() {
+    }
+
+    public static boolean isSupported() {
+        return NEW_EXECUTOR != null;
+    }
+
+    //Executor, запускающий каждую задачу в своем виртуальном потоке
+    public static ExecutorService newPerTaskExecutor() {
+        if (NEW_EXECUTOR == null) {
+            throw new UnsupportedOperationException("Виртуальные потоки требуют JDK 21+, текущая версия: "
+                    + Runtime.version());
+        }
+        try {
+            return (ExecutorService) NEW_EXECUTOR.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Не удалось создать executor виртуальных потоков", e);
+        }
+    }
+
+    private static Method find() {
+        try {
+            return java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package app;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class MainTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void configPathFromArgumentThenEnvironment() {
+        assertEquals(Paths.get("batch.properties"),
+                Main.configPath(new String[]{"threads=4", "batch.properties", "other.properties"}, "env.properties"));
+        assertEquals(Paths.get("env.properties"), Main.configPath(new String[]{"threads=4"}, "env.properties"));
+        assertEquals(Paths.get("src/main/resources/application.properties"), Main.configPath(new String[0], " "));
+        assertEquals(Paths.get("src/main/resources/application.properties"), Main.configPath(new String[0], null));
+    }
+
+    @Test
+    void argumentsOverrideConfigFile() throws IOException {
+        Path cfg = Files.writeString(dir.resolve("app.properties"), "threads=8\nexcelFile=a.xlsx\nmode=send\n");
+        Properties properties = Main.loadConfig(cfg,
+                new String[]{cfg.toString(), "excelFile=data/b-*.xlsx", "apiUrl=http://h/p?a=b", "=x"});
+        assertEquals("8", properties.getProperty("threads"));
+        assertEquals("data/b-*.xlsx", properties.getProperty("excelFile"));
+        // Значение может содержать '=', делится только по первому
+        assertEquals("http://h/p?a=b", properties.getProperty("apiUrl"));
+        assertNull(properties.getProperty(""));
+    }
+}
@@ -0,0 +1,72 @@
+package app.builder;
+
+import app.model.CorrectionReceipt;
+import app.model.ReceiptRows;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class BuilderJsonTest {
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final BuilderJson builder = new BuilderJson(mapper);
+
+    @Test
+    void streamingMatchesTreeByteForByte() throws Exception {
+        // Кавычки, обратная косая, управляющие символы, кириллица и эмодзи (суррогатная пара)
+        CorrectionReceipt receipt = new CorrectionReceipt("pk_1", "7707083893", 0, 1, "2025-01-01",
+                "N-\"1\"\\", 1234.5, List.of(
+                new CorrectionReceipt.Item("Позиция\t№1 😀", "100.5", "2", "201", 1, "https://example.ru", "г. Москва"),
+                new CorrectionReceipt.Item("", "0.1", "1", "0.1", 2, "", "\u0001")));
+        assertSame(receipt);
+        assertSame(ReceiptRows.receipt("pk_1", "N-2", "1e-7"));
+        assertSame(ReceiptRows.receipt("pk_1", "N-3", "12345678901234.56"));
+    }
+
+    @Test
+    void bodyHasApiFields() throws Exception {
+        JsonNode data = mapper.readTree(builder.writeJSON(ReceiptRows.receipt("pk_1", "N-1", "100.5")))
+                .get("correctionReceiptData");
+        assertEquals("7707083893", data.get("organizationInn").asText());
+        assertEquals("N-1", data.get("CauseCorrection").get("correctionNumber").asText());
+        assertEquals(100.5, data.get("amounts").get("electronic").asDouble());
+        // Цена и сумма позиции уходят строками, как в эксель
+        assertEquals("100.5", data.get("items").get(0).get("price").textValue());
+        assertEquals(1, data.get("items").size());
+    }
+
+    @Test
+    void reusedBufferIsNotShared() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> tasks = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                int thread = t;
+                tasks.add(pool.submit(() -> {
+                    for (int i = 0; i < 500; i++) {
+                        CorrectionReceipt receipt = ReceiptRows.receipt("pk_1", "N-" + thread + "-" + i, "1");
+                        String body = new String(builder.writeJSON(receipt), StandardCharsets.UTF_8);
+                        assertEquals(builder.buildJSON(receipt), body);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> task : tasks) task.get();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private void assertSame(CorrectionReceipt receipt) throws Exception {
+        assertArrayEquals(builder.buildJSON(receipt).getBytes(StandardCharsets.UTF_8), builder.writeJSON(receipt));
+    }
+}
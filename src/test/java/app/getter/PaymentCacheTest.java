@@ -0,0 +1,142 @@
+package app.getter;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class PaymentCacheTest {
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void savedEntriesAreLoaded() throws IOException {
+        Path file = dir.resolve("payments.jsonl");
+        try (PaymentCache cache = new PaymentCache(file, mapper, 100, 60)) {
+            cache.put(1, node(1));
+            cache.put(2, node(2));
+        }
+        try (PaymentCache cache = new PaymentCache(file, mapper, 100, 60)) {
+            assertEquals(2, cache.size());
+            assertJson(1, cache.get(1));
+            assertJson(2, cache.get(2));
+            assertNull(cache.get(3));
+        }
+        assertFalse(Files.exists(dir.resolve("payments.jsonl.tmp")));
+    }
+
+    @Test
+    void recentlyReadEntriesSurviveSmallerCache() throws IOException {
+        Path file = dir.resolve("payments.jsonl");
+        try (PaymentCache cache = new PaymentCache(file, mapper, 100, 60)) {
+            for (long id = 1; id <= 10; id++) cache.put(id, node(id));
+            // Прочитанный последним ответ сохраняется в конце LRU
+            cache.get(1);
+        }
+        try (PaymentCache cache = new PaymentCache(file, mapper, 3, 60)) {
+            assertEquals(3, cache.size());
+            assertNotNull(cache.get(1));
+            assertNotNull(cache.get(10));
+            assertNotNull(cache.get(9));
+            assertNull(cache.get(2));
+        }
+    }
+
+    @Test
+    void expiredEntriesAreDropped() throws Exception {
+        Path file = dir.resolve("payments.jsonl");
+        try (PaymentCache cache = new PaymentCache(file, mapper, 100, 0)) {
+            cache.put(1, node(1));
+            Thread.sleep(5);
+            assertNull(cache.get(1));
+            cache.put(2, node(2));
+        }
+        Thread.sleep(5);
+        try (PaymentCache cache = new PaymentCache(file, mapper, 100, 0)) {
+            assertEquals(0, cache.size());
+        }
+    }
+
+    @Test
+    void brokenTailIsSkipped() throws IOException {
+        Path file = dir.resolve("payments.jsonl");
+        try (PaymentCache cache = new PaymentCache(file, mapper, 100, 60)) {
+            cache.put(1, node(1));
+        }
+        Files.writeString(file, "{\"id\":2,\"at\":", StandardOpenOption.APPEND);
+        try (PaymentCache cache = new PaymentCache(file, mapper, 100, 60)) {
+            assertEquals(1, cache.size());
+            assertJson(1, cache.get(1));
+        }
+    }
+
+    @Test
+    void concurrentSavesLeaveWholeFile() throws Exception {
+        Path file = dir.resolve("payments.jsonl");
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try (PaymentCache cache = new PaymentCache(file, mapper, 10_000, 60)) {
+            // Сохранение по таймеру и из close: несколько потоков сохраняют, пока кэш пополняется
+            List<Future<?>> tasks = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                long base = t * 1_000L;
+                tasks.add(pool.submit(() -> {
+                    for (long id = base; id < base + 1_000; id++) {
+                        cache.put(id, node(id));
+                        if (id % 50 == 0) cache.save();
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> task : tasks) task.get();
+        } finally {
+            pool.shutdownNow();
+        }
+        try (PaymentCache cache = new PaymentCache(file, mapper, 10_000, 60)) {
+            assertEquals(4_000, cache.size());
+            for (long id = 0; id < 4_000; id++) assertJson(id, cache.get(id));
+        }
+        assertFalse(Files.exists(dir.resolve("payments.jsonl.tmp")));
+    }
+
+    @Test
+    void memoryOnlyCache() throws IOException {
+        try (PaymentCache cache = new PaymentCache(null, mapper, 2, 60)) {
+            cache.put(1, node(1));
+            cache.put(2, node(2));
+            cache.put(3, node(3));
+            assertEquals(2, cache.size());
+            assertNull(cache.get(1));
+            cache.save();
+        }
+        try (var files = Files.list(dir)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    //Числа после чтения с диска могут быть другого типа узла, сравнивается текст
+    private void assertJson(long id, JsonNode actual) {
+        assertNotNull(actual, "id=" + id);
+        assertEquals(node(id).toString(), actual.toString(), "id=" + id);
+    }
+
+    private JsonNode node(long id) {
+        return mapper.createObjectNode().put("TransactionId", id).put("Amount", id * 10.5);
+    }
+}
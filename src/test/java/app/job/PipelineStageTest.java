@@ -0,0 +1,71 @@
+package app.job;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PipelineStageTest {
+    @Test
+    void closeDrainsQueue() throws InterruptedException {
+        List<Integer> handled = Collections.synchronizedList(new ArrayList<>());
+        PipelineStage<Integer> stage = new PipelineStage<>("test", 10, 3, handled::add);
+        for (int i = 0; i < 1_000; i++) stage.put(i);
+        stage.close();
+        stage.await();
+        assertEquals(1_000, handled.size());
+        assertEquals(0, stage.depth());
+    }
+
+    @Test
+    void fullQueueBlocksProducer() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch taken = new CountDownLatch(1);
+        PipelineStage<Integer> stage = new PipelineStage<>("test", 2, 1, item -> {
+            taken.countDown();
+            release.await();
+        });
+        stage.put(0);
+        assertTrue(taken.await(5, TimeUnit.SECONDS));
+        // Обработчик занят, в очереди место на два элемента
+        stage.put(1);
+        stage.put(2);
+        Thread producer = new Thread(() -> {
+            try {
+                stage.put(3);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        producer.start();
+        producer.join(200);
+        assertTrue(producer.isAlive(), "put должен ждать места в очереди");
+
+        release.countDown();
+        producer.join(5_000);
+        assertFalse(producer.isAlive());
+        stage.close();
+        stage.await();
+    }
+
+    @Test
+    void handlerErrorDoesNotStopWorker() throws InterruptedException {
+        AtomicInteger handled = new AtomicInteger();
+        PipelineStage<Integer> stage = new PipelineStage<>("test", 10, 1, item -> {
+            if (item % 2 == 0) throw new IllegalStateException("ошибка " + item);
+            handled.incrementAndGet();
+        });
+        for (int i = 0; i < 10; i++) stage.put(i);
+        stage.close();
+        stage.await();
+        assertEquals(5, handled.get());
+    }
+}
@@ -0,0 +1,99 @@
+package app.job;
+
+import app.reader.ExcelRow;
+import app.reader.RowSchema;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ReceiptGrouperTest {
+    private static final List<String> HEADER = List.of("OrganizationInn", "CorrectionNumber", "Name");
+
+    private final List<List<ExcelRow>> groups = new ArrayList<>();
+
+    @Test
+    void consecutiveRowsOfReceiptAreGrouped() {
+        RowSchema sheet = new RowSchema(HEADER, "book.xlsx!Лист1");
+        ReceiptGrouper grouper = new ReceiptGrouper(10, groups::add);
+        grouper.accept(row(sheet, 2, "111", "A-1"));
+        grouper.accept(row(sheet, 3, "111", "A-1"));
+        grouper.accept(row(sheet, 4, "111", "A-2"));
+        // Тот же номер у другой организации - другой чек
+        grouper.accept(row(sheet, 5, "222", "A-2"));
+        grouper.flush();
+
+        assertEquals(List.of(List.of(2, 3), List.of(4), List.of(5)), rowNumbers());
+    }
+
+    @Test
+    void interleavedSheetsKeepOwnGroups() {
+        RowSchema first = new RowSchema(HEADER, "book.xlsx!Лист1");
+        RowSchema second = new RowSchema(HEADER, "book.xlsx!Лист2");
+        ReceiptGrouper grouper = new ReceiptGrouper(10, groups::add);
+        // Параллельное чтение: строки двух листов вперемешку, номера чеков совпадают
+        grouper.accept(row(first, 2, "111", "A-1"));
+        grouper.accept(row(second, 2, "111", "A-1"));
+        grouper.accept(row(first, 3, "111", "A-1"));
+        grouper.accept(row(second, 3, "111", "A-1"));
+        grouper.accept(row(first, 4, "111", "A-2"));
+        grouper.accept(row(second, 4, "111", "A-3"));
+        grouper.accept(row(first, 5, "111", "A-2"));
+        grouper.flush();
+
+        assertEquals(4, groups.size());
+        assertEquals(List.of(
+                        "book.xlsx!Лист1:2", "book.xlsx!Лист1:3",
+                        "book.xlsx!Лист2:2", "book.xlsx!Лист2:3",
+                        "book.xlsx!Лист1:4", "book.xlsx!Лист1:5",
+                        "book.xlsx!Лист2:4"),
+                groups.stream().flatMap(List::stream).map(ExcelRow::source).toList());
+        for (List<ExcelRow> group : groups) {
+            assertEquals(1, group.stream().map(ExcelRow::schema).distinct().count());
+        }
+    }
+
+    @Test
+    void groupIsClosedAtMaxItems() {
+        RowSchema sheet = new RowSchema(HEADER, "book.xlsx!Лист1");
+        ReceiptGrouper grouper = new ReceiptGrouper(2, groups::add);
+        for (int n = 2; n <= 6; n++) grouper.accept(row(sheet, n, "111", "A-1"));
+        grouper.flush();
+
+        assertEquals(List.of(List.of(2, 3), List.of(4, 5), List.of(6)), rowNumbers());
+    }
+
+    @Test
+    void rowWithoutNumberGoesAlone() {
+        RowSchema sheet = new RowSchema(HEADER, "book.xlsx!Лист1");
+        ReceiptGrouper grouper = new ReceiptGrouper(10, groups::add);
+        grouper.accept(row(sheet, 2, "111", "A-1"));
+        grouper.accept(row(sheet, 3, "111", ""));
+        grouper.accept(row(sheet, 4, "111", ""));
+        grouper.accept(row(sheet, 5, "111", "A-1"));
+        grouper.flush();
+
+        assertEquals(List.of(List.of(2), List.of(3), List.of(4), List.of(5)), rowNumbers());
+    }
+
+    @Test
+    void flushEmitsOnlyOnce() {
+        RowSchema sheet = new RowSchema(HEADER, "book.xlsx!Лист1");
+        ReceiptGrouper grouper = new ReceiptGrouper(10, groups::add);
+        grouper.accept(row(sheet, 2, "111", "A-1"));
+        grouper.flush();
+        grouper.flush();
+
+        assertEquals(List.of(List.of(2)), rowNumbers());
+    }
+
+    private List<List<Integer>> rowNumbers() {
+        return groups.stream().map(group -> group.stream().map(ExcelRow::rowNumber).toList()).toList();
+    }
+
+    private static ExcelRow row(RowSchema schema, int rowNumber, String inn, String number) {
+        return new ExcelRow(schema, new String[]{inn, number, "item " + rowNumber}, rowNumber);
+    }
+}
@@ -0,0 +1,56 @@
+package app.job;
+
+import app.reader.ExcelRow;
+import app.reader.RowSchema;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ReceiptPriorityTest {
+    private static final List<String> HEADER = List.of("OrganizationInn", "Priority");
+
+    @Test
+    void columnValueWins() {
+        ReceiptPriority priority = ReceiptPriority.parse("Priority", "urgent-*.xlsx:10");
+        RowSchema urgent = new RowSchema(HEADER, "urgent-1.xlsx!Лист1");
+        // Числа из эксель приходят как "5.0"
+        assertEquals(5, priority.applyAsInt(List.of(row(urgent, "5.0"))));
+        assertEquals(10, priority.applyAsInt(List.of(row(urgent, ""))));
+        assertEquals(10, priority.applyAsInt(List.of(row(urgent, "срочно"))));
+    }
+
+    @Test
+    void firstMatchingFileMaskWins() {
+        ReceiptPriority priority = ReceiptPriority.parse(null, "urgent-*.xlsx:10, *-fix.xlsx:5,urgent-*-fix.xlsx:1");
+        assertEquals(10, priority.applyAsInt(rows("urgent-2-fix.xlsx!Лист1")));
+        assertEquals(5, priority.applyAsInt(rows("march-fix.xlsx!Лист2")));
+        assertEquals(0, priority.applyAsInt(rows("march.xlsx!Лист1")));
+        // Повторный вызов для той же схемы берет закэшированное значение
+        RowSchema schema = new RowSchema(HEADER, "march-fix.xlsx!Лист1");
+        assertEquals(5, priority.applyAsInt(List.of(row(schema, ""))));
+        assertEquals(5, priority.applyAsInt(List.of(row(schema, ""))));
+    }
+
+    @Test
+    void noSettingsMeansZero() {
+        ReceiptPriority priority = ReceiptPriority.parse(" ", null);
+        assertEquals(0, priority.applyAsInt(rows("urgent-1.xlsx!Лист1")));
+    }
+
+    @Test
+    void malformedFilePriorityIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> ReceiptPriority.parse(null, "urgent-*.xlsx"));
+        assertThrows(NumberFormatException.class, () -> ReceiptPriority.parse(null, "urgent-*.xlsx:high"));
+    }
+
+    private static List<ExcelRow> rows(String source) {
+        return List.of(row(new RowSchema(HEADER, source), ""));
+    }
+
+    private static ExcelRow row(RowSchema schema, String priority) {
+        return new ExcelRow(schema, new String[]{"111", priority}, 2);
+    }
+}
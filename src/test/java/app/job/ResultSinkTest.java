@@ -0,0 +1,115 @@
+package app.job;
+
+import app.journal.SendJournal;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ResultSinkTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void concurrentResultsAreWrittenOnClose() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try (ResultSink sink = sink(null, null, 64, 60_000)) {
+            List<Future<?>> tasks = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                int thread = t;
+                tasks.add(pool.submit(() -> {
+                    for (int i = 0; i < 1_000; i++) {
+                        sink.add(new ResultRecord(i % 4 != 0, thread + ":" + i, i, "pk", 200, 1, 5, true));
+                    }
+                }));
+            }
+            for (Future<?> task : tasks) task.get();
+        } finally {
+            pool.shutdownNow();
+        }
+        List<String> success = Files.readAllLines(dir.resolve("success.log"));
+        List<String> failed = Files.readAllLines(dir.resolve("failed.log"));
+        assertEquals(6_000, success.size());
+        assertEquals(2_000, failed.size());
+        Set<String> lines = new HashSet<>(success);
+        lines.addAll(failed);
+        assertEquals(8_000, lines.size());
+    }
+
+    @Test
+    void resultsAreFlushedByTimer() throws Exception {
+        try (ResultSink sink = sink(null, null, 1_000, 20)) {
+            sink.add(new ResultRecord(true, "HTTP 200 ok", 1, "pk", 200, 1, 5, true));
+            // Пакет не набран, строка уходит на диск по времени, до close
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (Files.size(dir.resolve("success.log")) == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(List.of("HTTP 200 ok"), Files.readAllLines(dir.resolve("success.log")));
+        }
+    }
+
+    @Test
+    void onlySentResultsGoToJournal() throws IOException {
+        Path journalFile = dir.resolve("journal.bin");
+        try (SendJournal journal = new SendJournal(journalFile, 16, 60_000)) {
+            try (ResultSink sink = sink(null, journal, 16, 60_000)) {
+                sink.add(new ResultRecord(true, "ok", 1, "pk", 200, 1, 5, true));
+                sink.add(new ResultRecord(false, "HTTP 400", 2, "pk", 400, 1, 5, true));
+                sink.add(ResultRecord.rejected("Нет ключа", 3, "pk"));
+            }
+        }
+        try (SendJournal journal = new SendJournal(journalFile, 16, 60_000)) {
+            assertTrue(journal.isDone(1));
+            assertFalse(journal.isDone(2));
+            assertFalse(journal.isDone(3));
+        }
+    }
+
+    @Test
+    void csvResultsAreQuoted() throws IOException {
+        Path results = dir.resolve("results.csv");
+        try (ResultSink sink = sink(results, null, 16, 60_000)) {
+            sink.add(new ResultRecord(false, "HTTP 400 {\"Message\":\"a,b\"}", 255, "pk,1", 400, 2, 15, true));
+        }
+        assertEquals(List.of("rowKey,publicId,success,httpCode,latencyMs,attempts,message",
+                        "ff,\"pk,1\",false,400,15,2,\"HTTP 400 {\"\"Message\"\":\"\"a,b\"\"}\""),
+                Files.readAllLines(results));
+    }
+
+    @Test
+    void jsonlResultsAreOneObjectPerLine() throws IOException {
+        Path results = dir.resolve("results.jsonl");
+        try (ResultSink sink = sink(results, null, 16, 60_000)) {
+            sink.add(new ResultRecord(true, "HTTP 200 \"ok\"", 255, "pk", 200, 1, 15, true));
+            sink.add(ResultRecord.rejected("Нет ключа", 0, "pk2"));
+        }
+        List<String> lines = Files.readAllLines(results);
+        assertEquals(2, lines.size());
+        JsonNode first = new ObjectMapper().readTree(lines.get(0));
+        assertEquals("ff", first.get("rowKey").asText());
+        assertTrue(first.get("success").asBoolean());
+        assertEquals("HTTP 200 \"ok\"", first.get("message").asText());
+        assertEquals("pk2", new ObjectMapper().readTree(lines.get(1)).get("publicId").asText());
+    }
+
+    private ResultSink sink(Path results, SendJournal journal, int batch, long flushMillis) throws IOException {
+        return new ResultSink(dir.resolve("success.log"), dir.resolve("failed.log"), results, journal,
+                batch, flushMillis);
+    }
+}
@@ -0,0 +1,82 @@
+package app.job;
+
+import app.builder.BuilderJson;
+import app.metrics.Metrics;
+import app.model.ReceiptRows;
+import app.reader.ExcelReader;
+import app.sender.CloudPaymentSender;
+import app.sender.MerchantGuards;
+import app.sender.MerchantRegistry;
+import app.sender.RetryPolicy;
+import app.sender.StubApi;
+import app.util.RateLimiterRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.http.HttpClient;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SendPipelineTest {
+    @TempDir
+    Path dir;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Metrics metrics = new Metrics();
+    private StubApi api;
+    private ScheduledExecutorService scheduler;
+    private MerchantRegistry merchants;
+    private RetryPolicy retryPolicy;
+    private CloudPaymentSender sender;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        api = new StubApi();
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        merchants = new MerchantRegistry(api.url(), Duration.ofSeconds(10));
+        merchants.register("pk_1", "secret_1");
+        merchants.register("pk_2", "secret_2");
+        retryPolicy = new RetryPolicy(3, 1, 10, RetryPolicy.Jitter.NONE, null, metrics);
+        sender = new CloudPaymentSender(HttpClient.newHttpClient(), new RateLimiterRegistry(1_000, 100),
+                new MerchantGuards(20, 10, 0.9, 1_000, 16, 64, 2.0),
+                new BuilderJson(mapper), retryPolicy, mapper, scheduler, metrics);
+    }
+
+    @AfterEach
+    void tearDown() {
+        api.close();
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    void everyReceiptReachesResultLog() throws Exception {
+        Path book = ReceiptRows.workbook(dir.resolve("receipts.xlsx"), 300, "pk_1", "pk_2", "pk_missing");
+        // Повторы идут через очередь отложенных задач и должны дойти до записи
+        api.respond(503, "").respond(503, "").respond(429, "", "0");
+
+        SendJob job;
+        int receipts;
+        try (ResultSink sink = new ResultSink(dir.resolve("success.log"), dir.resolve("failed.log"),
+                null, null, 16, 50)) {
+            job = new SendJob(sender, merchants, sink, null, metrics);
+            // Маленькие очереди: этапы упираются друг в друга
+            receipts = new SendPipeline(job, retryPolicy, 2, 4, 4).run(new ExcelReader(book.toString()), 0);
+        }
+
+        assertEquals(300, receipts);
+        assertEquals(200, job.successCount());
+        assertEquals(100, job.failedCount());
+        assertEquals(203, api.requests().size());
+        assertEquals(200, Files.readAllLines(dir.resolve("success.log")).size());
+        assertEquals(100, Files.readAllLines(dir.resolve("failed.log")).size());
+        assertEquals(300, metrics.doneCount());
+    }
+}
@@ -0,0 +1,119 @@
+package app.journal;
+
+import app.journal.DedupIndex.Status;
+import app.util.Hash64;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DedupIndexTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void repeatInRunUntilReleased() throws IOException {
+        try (DedupIndex index = new DedupIndex(dir.resolve("dedup.bin"), 1024)) {
+            long key = Hash64.of("1", "A-1");
+            assertEquals(Status.NEW, index.claim(key));
+            assertEquals(Status.REPEAT, index.claim(key));
+            // Первая копия не ушла, следующая может быть отправлена
+            index.release(key);
+            assertEquals(Status.NEW, index.claim(key));
+            assertFalse(index.contains(key));
+            assertEquals(0, index.size());
+        }
+    }
+
+    @Test
+    void confirmedKeyIsSent() throws IOException {
+        try (DedupIndex index = new DedupIndex(dir.resolve("dedup.bin"), 1024)) {
+            long key = Hash64.of("1", "A-1");
+            assertEquals(Status.NEW, index.claim(key));
+            index.confirm(key);
+            assertTrue(index.contains(key));
+            assertEquals(Status.SENT, index.claim(key));
+            // Отметка запуска снята, release после confirm ключ не трогает
+            index.release(key);
+            assertEquals(Status.SENT, index.claim(key));
+            assertEquals(1, index.size());
+        }
+    }
+
+    @Test
+    void zeroKeyIsStored() throws IOException {
+        try (DedupIndex index = new DedupIndex(dir.resolve("dedup.bin"), 1024)) {
+            assertEquals(Status.NEW, index.claim(0));
+            index.confirm(0);
+            assertTrue(index.contains(0));
+            assertEquals(Status.SENT, index.claim(0));
+        }
+    }
+
+    @Test
+    void confirmedKeysSurviveReopen() throws IOException {
+        Path file = dir.resolve("dedup.bin");
+        try (DedupIndex index = new DedupIndex(file, 1024)) {
+            for (int i = 0; i < 500; i++) index.confirm(Hash64.of("row", String.valueOf(i)));
+        }
+        try (DedupIndex index = new DedupIndex(file, 1024)) {
+            assertEquals(500, index.size());
+            for (int i = 0; i < 500; i++) {
+                assertEquals(Status.SENT, index.claim(Hash64.of("row", String.valueOf(i))), "row " + i);
+            }
+            assertEquals(Status.NEW, index.claim(Hash64.of("row", "500")));
+        }
+    }
+
+    @Test
+    void smallIndexIsRebuilt() throws IOException {
+        Path file = dir.resolve("dedup.bin");
+        long small;
+        try (DedupIndex index = new DedupIndex(file, 1024)) {
+            small = index.capacity();
+            for (int i = 0; i < 500; i++) index.confirm(Hash64.of("row", String.valueOf(i)));
+        }
+        try (DedupIndex index = new DedupIndex(file, 10_000)) {
+            assertTrue(index.capacity() >= 10_000);
+            assertEquals(0, index.capacity() & (index.capacity() - 1));
+            assertEquals(500, index.size());
+            for (int i = 0; i < 500; i++) assertTrue(index.contains(Hash64.of("row", String.valueOf(i))));
+        }
+        assertFalse(Files.exists(dir.resolve("dedup.bin.tmp")));
+        // Меньшая емкость при открытии не уменьшает таблицу
+        try (DedupIndex index = new DedupIndex(file, 1024)) {
+            assertTrue(index.capacity() > small);
+        }
+    }
+
+    @Test
+    void fullIndexKeepsRepeatsInMemory() throws IOException {
+        try (DedupIndex index = new DedupIndex(dir.resolve("dedup.bin"), 1024)) {
+            long limit = (long) Math.ceil(index.capacity() * 0.9);
+            int i = 0;
+            while (index.size() < limit) index.confirm(Hash64.of("row", String.valueOf(i++)));
+
+            long key = Hash64.of("row", "late");
+            assertEquals(Status.NEW, index.claim(key));
+            index.confirm(key);
+            assertFalse(index.contains(key));
+            assertEquals(limit, index.size());
+            // В таблицу ключ не попал, но повтор в этом запуске все равно пойман
+            assertEquals(Status.REPEAT, index.claim(key));
+        }
+    }
+
+    @Test
+    void foreignFileIsRejected() throws IOException {
+        Path file = dir.resolve("other.bin");
+        Files.write(file, new byte[64]);
+        assertThrows(IOException.class, () -> new DedupIndex(file, 1024).close());
+    }
+}
@@ -0,0 +1,164 @@
+package app.journal;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SendJournalTest {
+    // magic и запись ключ + статус
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_SIZE = 9;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void successfulKeysSurviveReopen() throws IOException {
+        Path file = dir.resolve("journal.bin");
+        try (SendJournal journal = new SendJournal(file, 4, 60_000)) {
+            for (long key = 1; key <= 10; key++) journal.record(key, key % 2 == 0);
+        }
+        try (SendJournal journal = new SendJournal(file, 4, 60_000)) {
+            assertEquals(5, journal.doneCount());
+            for (long key = 1; key <= 10; key++) assertEquals(key % 2 == 0, journal.isDone(key), "key=" + key);
+        }
+        assertEquals(HEADER_SIZE + 10 * RECORD_SIZE, Files.size(file));
+    }
+
+    @Test
+    void keysSentInThisRunAreDone() throws IOException {
+        try (SendJournal journal = new SendJournal(dir.resolve("journal.bin"), 100, 60_000)) {
+            journal.record(7, false);
+            assertFalse(journal.isDone(7));
+            // Успех виден сразу, до сброса пачки на диск
+            journal.record(7, true);
+            assertTrue(journal.isDone(7));
+            assertEquals(1, journal.doneCount());
+        }
+    }
+
+    @Test
+    void tornTailIsTruncated() throws IOException {
+        Path file = dir.resolve("journal.bin");
+        try (SendJournal journal = new SendJournal(file, 1, 60_000)) {
+            journal.record(1, true);
+            journal.record(2, true);
+        }
+        // Сбой посреди записи: ключ дописан наполовину
+        Files.write(file, new byte[]{1, 2, 3, 4, 5}, StandardOpenOption.APPEND);
+
+        try (SendJournal journal = new SendJournal(file, 1, 60_000)) {
+            assertEquals(HEADER_SIZE + 2 * RECORD_SIZE, Files.size(file));
+            assertTrue(journal.isDone(1));
+            assertTrue(journal.isDone(2));
+            journal.record(3, true);
+        }
+        // Новые записи идут сразу за последней целой, а не за мусором
+        List<Long> keys = new ArrayList<>();
+        SendJournal.read(file, (key, success) -> keys.add(key));
+        assertEquals(List.of(1L, 2L, 3L), keys);
+    }
+
+    @Test
+    void readKeepsOrderOfRecords() throws IOException {
+        Path file = dir.resolve("journal.bin");
+        try (SendJournal journal = new SendJournal(file, 3, 60_000)) {
+            journal.record(5, false);
+            journal.record(6, true);
+            journal.record(5, true);
+        }
+        List<Long> keys = new ArrayList<>();
+        List<Boolean> statuses = new ArrayList<>();
+        SendJournal.read(file, (key, success) -> {
+            keys.add(key);
+            statuses.add(success);
+        });
+        assertEquals(List.of(5L, 6L, 5L), keys);
+        assertEquals(List.of(false, true, true), statuses);
+    }
+
+    @Test
+    void concurrentRecordsDuringFlush() throws Exception {
+        Path file = dir.resolve("journal.bin");
+        int threads = 8;
+        int perThread = 5_000;
+        ExecutorService pool = Executors.newFixedThreadPool(threads + 1);
+        AtomicBoolean running = new AtomicBoolean(true);
+        try (SendJournal journal = new SendJournal(file, 16, 1)) {
+            // Отдельный поток сбрасывает журнал без остановки, пока остальные пишут и читают
+            Future<?> flusher = pool.submit(() -> {
+                while (running.get()) journal.flush();
+                return null;
+            });
+            List<Future<?>> writers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                long base = (long) t * perThread;
+                writers.add(pool.submit(() -> {
+                    for (long key = base + 1; key <= base + perThread; key++) {
+                        journal.record(key, true);
+                        assertTrue(journal.isDone(key), "key=" + key);
+                        assertFalse(journal.isDone(-key));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> writer : writers) writer.get();
+            running.set(false);
+            flusher.get();
+            assertEquals(threads * perThread, journal.doneCount());
+        } finally {
+            pool.shutdownNow();
+        }
+
+        // Каждая запись на диске ровно один раз
+        List<Long> keys = new ArrayList<>();
+        SendJournal.read(file, (key, success) -> keys.add(key));
+        Set<Long> unique = new HashSet<>(keys);
+        assertEquals(threads * perThread, keys.size());
+        assertEquals(threads * perThread, unique.size());
+    }
+
+    @Test
+    void closeWhileTimerFlushes() throws Exception {
+        // Таймер сбрасывает журнал каждую миллисекунду, close попадает на его запись
+        for (int i = 0; i < 100; i++) {
+            Path file = dir.resolve("journal" + i + ".bin");
+            try (SendJournal journal = new SendJournal(file, 1_000, 1)) {
+                for (long key = 1; key <= 50; key++) {
+                    journal.record(key, true);
+                    if (key % 10 == 0) Thread.sleep(1);
+                }
+            }
+            long[] count = new long[1];
+            SendJournal.read(file, (key, success) -> count[0]++);
+            assertEquals(50, count[0], "journal " + i);
+        }
+    }
+
+    @Test
+    void foreignFileIsRejected() throws IOException {
+        Path file = dir.resolve("other.bin");
+        byte[] content = "not a journal".getBytes();
+        Files.write(file, content);
+        assertThrows(IOException.class, () -> new SendJournal(file, 1, 60_000).close());
+        assertArrayEquals(content, Files.readAllBytes(file));
+    }
+}
@@ -0,0 +1,90 @@
+package app.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HistogramTest {
+    private static final int LAST = Histogram.index(Long.MAX_VALUE);
+
+    @Test
+    void smallValuesHaveOwnBuckets() {
+        for (int value = 0; value < 64; value++) {
+            assertEquals(value, Histogram.index(value));
+            assertEquals(value, Histogram.lowerBound(value));
+        }
+    }
+
+    @Test
+    void bucketsAreContiguous() {
+        for (int i = 0; i < LAST; i++) {
+            long lower = Histogram.lowerBound(i);
+            long next = Histogram.lowerBound(i + 1);
+            assertTrue(next > lower, "bucket " + i);
+            assertEquals(i, Histogram.index(lower), "lower bound of " + i);
+            assertEquals(i, Histogram.index(next - 1), "upper bound of " + i);
+        }
+    }
+
+    @Test
+    void bucketWidthIsWithinRelativeError() {
+        for (int i = 64; i < LAST; i++) {
+            long lower = Histogram.lowerBound(i);
+            long width = Histogram.lowerBound(i + 1) - lower;
+            assertTrue(width * 32 <= lower, "bucket " + i + " lower=" + lower + " width=" + width);
+        }
+    }
+
+    @Test
+    void hugeValuesGoToLastBucket() {
+        assertEquals(LAST, Histogram.index(1L << 50));
+        Histogram histogram = new Histogram();
+        histogram.record(1L << 50);
+        assertEquals(1L << 50, histogram.max());
+        // Перцентиль не точнее последней корзины
+        long p50 = histogram.percentile(0.5);
+        assertTrue(p50 >= Histogram.lowerBound(LAST) && p50 < Histogram.lowerBound(LAST + 1), "p50=" + p50);
+    }
+
+    @Test
+    void percentilesAreWithinThreePercent() {
+        Histogram histogram = new Histogram();
+        for (long value = 1; value <= 100_000; value++) histogram.record(value);
+        assertEquals(100_000, histogram.count());
+        assertEquals(100_000L * 100_001 / 2, histogram.sum());
+        assertEquals(100_000, histogram.max());
+        for (double q : new double[]{0.5, 0.9, 0.99, 0.999}) {
+            double expected = q * 100_000;
+            long actual = histogram.percentile(q);
+            assertTrue(Math.abs(actual - expected) <= expected * 0.03, "q=" + q + " p=" + actual);
+        }
+        assertEquals(1, histogram.percentile(0));
+    }
+
+    @Test
+    void percentileDoesNotExceedMax() {
+        Histogram histogram = new Histogram();
+        // Середина корзины 992..1007 - 999, это больше записанного значения
+        histogram.record(993);
+        assertEquals(993, histogram.percentile(0.5));
+        assertEquals(993, histogram.percentile(1));
+    }
+
+    @Test
+    void emptyAndNegative() {
+        Histogram histogram = new Histogram();
+        assertEquals(0, histogram.percentile(0.99));
+        histogram.record(-5);
+        assertEquals(1, histogram.count());
+        assertEquals(0, histogram.sum());
+        assertEquals(0, histogram.percentile(0.99));
+    }
+
+    @Test
+    void nanosAreRecordedAsMicros() {
+        Histogram histogram = new Histogram();
+        histogram.recordNanos(2_500_000);
+        assertEquals(2_500, histogram.max());
+    }
+}
@@ -0,0 +1,28 @@
+package app.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class MetricsTest {
+    @Test
+    void groupedReceiptsCountAllRows() {
+        Metrics metrics = new Metrics();
+        // Три строки склеены в один чек, две в другой, одна пропущена по журналу
+        metrics.rowDone("m", true, 3);
+        metrics.rowDone("m", false, 2);
+        metrics.rowSkipped(1);
+        assertEquals(3, metrics.doneCount());
+        assertEquals(6, metrics.rowsFinished());
+        assertEquals(1, metrics.successCount());
+        assertEquals(1, metrics.failedCount());
+    }
+
+    @Test
+    void rejectedWithoutMerchantCountsRows() {
+        Metrics metrics = new Metrics();
+        metrics.rowDone("", false, 4);
+        assertEquals(4, metrics.rowsFinished());
+        assertEquals(1, metrics.failedCount());
+    }
+}
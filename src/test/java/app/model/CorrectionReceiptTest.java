@@ -0,0 +1,71 @@
+package app.model;
+
+import app.reader.ExcelRow;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CorrectionReceiptTest {
+    @Test
+    void rowIsParsedOnce() throws ReceiptValidationException {
+        // Коды из эксель приходят как "1.0", сумма может быть с запятой
+        ExcelRow row = with(with(ReceiptRows.row(2, "pk_1", "N-1", "100.5"), "TaxationSystem", "1.0"),
+                "Amounts", "1234,5");
+        CorrectionReceipt receipt = CorrectionReceipt.fromRow(row);
+        assertEquals("pk_1", receipt.publicId());
+        assertEquals(1, receipt.taxationSystem());
+        assertEquals(1, receipt.correctionReceiptType());
+        assertEquals(1234.5, receipt.electronic());
+        assertEquals(1, receipt.items().size());
+        CorrectionReceipt.Item item = receipt.items().get(0);
+        assertEquals("100.5", item.price());
+        assertEquals(1, item.correctionType());
+    }
+
+    @Test
+    void emptyAmountIsZero() throws ReceiptValidationException {
+        assertEquals(0.0, CorrectionReceipt.fromRow(with(ReceiptRows.row(2, "pk_1", "N-1", "1"), "Amounts", ""))
+                .electronic());
+    }
+
+    @Test
+    void invalidFieldIsNamed() {
+        ExcelRow row = ReceiptRows.row(2, "pk_1", "N-1", "100.5");
+        assertField("publicId", with(row, "publicId", " "));
+        assertField("OrganizationInn", with(row, "OrganizationInn", ""));
+        assertField("TaxationSystem", with(row, "TaxationSystem", "УСН"));
+        assertField("CorrectionReceiptType", with(row, "CorrectionReceiptType", "1.5"));
+        assertField("Amounts", with(row, "Amounts", "сто"));
+        assertField("CorrectionType", with(row, "CorrectionType", ""));
+    }
+
+    @Test
+    void keysDependOnContent() throws ReceiptValidationException {
+        CorrectionReceipt first = ReceiptRows.receipt("pk_1", "N-1", "100.5");
+        assertEquals(first.rowKey(), ReceiptRows.receipt("pk_1", "N-1", "100.5").rowKey());
+        assertNotEquals(first.rowKey(), ReceiptRows.receipt("pk_2", "N-1", "100.5").rowKey());
+        // Ключ дубля не зависит от publicId и позиций
+        assertEquals(first.dedupKey(), ReceiptRows.receipt("pk_2", "N-1", "100.5").dedupKey());
+        CorrectionReceipt otherLabel = CorrectionReceipt.fromRow(
+                with(ReceiptRows.row(2, "pk_1", "N-1", "100.5"), "Label", "Другая позиция"));
+        assertEquals(first.dedupKey(), otherLabel.dedupKey());
+        assertNotEquals(first.rowKey(), otherLabel.rowKey());
+        assertNotEquals(first.dedupKey(), ReceiptRows.receipt("pk_1", "N-2", "100.5").dedupKey());
+    }
+
+    private static void assertField(String field, ExcelRow row) {
+        ReceiptValidationException e = assertThrows(ReceiptValidationException.class,
+                () -> CorrectionReceipt.fromRow(row));
+        assertEquals(field, e.getField());
+    }
+
+    //Копия строки с другим значением колонки
+    private static ExcelRow with(ExcelRow row, String column, String value) {
+        String[] values = new String[ReceiptRows.HEADER.size()];
+        for (int i = 0; i < values.length; i++) values[i] = row.get(i);
+        values[ReceiptRows.HEADER.indexOf(column)] = value;
+        return new ExcelRow(row.schema(), values, row.rowNumber());
+    }
+}
@@ -0,0 +1,60 @@
+package app.model;
+
+import app.reader.ExcelRow;
+import app.reader.RowSchema;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Строки основного файла для тестов: все колонки чека коррекции,
+ * значения как после чтения эксель (числа без ".0").
+ */
+public final class ReceiptRows {
+    public static final List<String> HEADER = List.of("publicId", "OrganizationInn", "TaxationSystem",
+            "CorrectionReceiptType", "CorrectionDate", "CorrectionNumber", "Amounts", "Label", "Price", "Quantity",
+            "Amount", "CorrectionType", "PaymentPlace", "PaymentAddress");
+
+    public static final RowSchema SCHEMA = new RowSchema(HEADER, "receipts.xlsx!Лист1");
+
+    private ReceiptRows() {
+    }
+
+    //Строка чека number мерчанта publicId на сумму amount, одна позиция
+    public static ExcelRow row(int rowNumber, String publicId, String number, String amount) {
+        return new ExcelRow(SCHEMA, new String[]{publicId, "7707083893", "0", "1", "2025-01-01", number, amount,
+                "Позиция " + rowNumber, amount, "1", amount, "1", "https://example.ru", "г. Москва"}, rowNumber);
+    }
+
+    public static CorrectionReceipt receipt(String publicId, String number, String amount) {
+        try {
+            return CorrectionReceipt.fromRow(row(2, publicId, number, amount));
+        } catch (ReceiptValidationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    //Книга с count чеками мерчантов publicIds по кругу, номера N-1..N-count
+    public static Path workbook(Path file, int count, String... publicIds) throws IOException {
+        try (XSSFWorkbook book = new XSSFWorkbook()) {
+            XSSFSheet sheet = book.createSheet("Лист1");
+            Row header = sheet.createRow(0);
+            for (int i = 0; i < HEADER.size(); i++) header.createCell(i).setCellValue(HEADER.get(i));
+            for (int n = 1; n <= count; n++) {
+                ExcelRow source = row(n + 1, publicIds[n % publicIds.length], "N-" + n, "100.5");
+                Row row = sheet.createRow(n);
+                for (int i = 0; i < HEADER.size(); i++) row.createCell(i).setCellValue(source.get(i));
+            }
+            try (OutputStream out = Files.newOutputStream(file)) {
+                book.write(out);
+            }
+        }
+        return file;
+    }
+}
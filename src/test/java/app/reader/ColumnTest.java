@@ -0,0 +1,61 @@
+package app.reader;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ColumnTest {
+    private static final Column INN = new Column("OrganizationInn");
+    private static final Column AMOUNT = new Column("Amount");
+
+    @Test
+    void interleavedSchemasKeepOwnIndices() {
+        // Колонки листов в разном порядке, строки идут вперемешку
+        RowSchema first = new RowSchema(List.of("OrganizationInn", "Amount"), "a.xlsx!Лист1");
+        RowSchema second = new RowSchema(List.of("Amount", "Name", "OrganizationInn"), "b.xlsx!Лист1");
+        for (int i = 0; i < 3; i++) {
+            ExcelRow a = new ExcelRow(first, new String[]{"111", "10.5"}, i + 2);
+            ExcelRow b = new ExcelRow(second, new String[]{"20", "Товар", "222"}, i + 2);
+            assertEquals("111", INN.get(a));
+            assertEquals("222", INN.get(b));
+            assertEquals("10.5", AMOUNT.get(a));
+            assertEquals("20", AMOUNT.get(b));
+        }
+    }
+
+    @Test
+    void missingColumnAndCell() {
+        RowSchema schema = new RowSchema(List.of("OrganizationInn", "Amount"), "a.xlsx!Лист1");
+        Column name = new Column("Name");
+        // Строка короче заголовка: последней ячейки нет
+        ExcelRow row = new ExcelRow(schema, new String[]{"111"}, 2);
+        assertFalse(name.isPresent(row));
+        assertEquals("", name.get(row));
+        assertTrue(AMOUNT.isPresent(row));
+        assertEquals("", AMOUNT.get(row));
+    }
+
+    @Test
+    void columnCreatedAfterSchema() {
+        RowSchema schema = new RowSchema(List.of("OrganizationInn", "Amount", "Late"), "a.xlsx!Лист1");
+        ExcelRow row = new ExcelRow(schema, new String[]{"111", "1", "x"}, 2);
+        assertEquals("111", INN.get(row));
+        Column late = new Column("Late");
+        assertEquals("x", late.get(row));
+        assertEquals("111", INN.get(row));
+    }
+
+    @Test
+    void rowByName() {
+        RowSchema schema = new RowSchema(List.of("OrganizationInn", "Amount"), "a.xlsx!Лист1");
+        ExcelRow row = new ExcelRow(schema, new String[]{"111", "1"}, 7);
+        assertEquals("1", row.get("Amount"));
+        assertEquals("", row.get("Other"));
+        assertEquals("a.xlsx!Лист1:7", row.source());
+        assertEquals("{OrganizationInn=111, Amount=1}", row.toString());
+    }
+}
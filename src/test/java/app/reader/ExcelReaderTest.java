@@ -0,0 +1,185 @@
+package app.reader;
+
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ExcelReaderTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void cellTypesAreConverted() throws IOException {
+        Path file = dir.resolve("receipts.xlsx");
+        try (XSSFWorkbook book = new XSSFWorkbook()) {
+            XSSFSheet sheet = book.createSheet("Лист1");
+            CellStyle date = book.createCellStyle();
+            date.setDataFormat(book.getCreationHelper().createDataFormat().getFormat("dd.mm.yyyy"));
+            header(sheet, "OrganizationInn", "Amount", "Date", "Paid", "Name");
+            Row row = sheet.createRow(1);
+            row.createCell(0).setCellValue(" 7707083893 ");
+            row.createCell(1).setCellValue(1234.50);
+            row.createCell(2).setCellValue(LocalDate.of(2024, 3, 15));
+            row.getCell(2).setCellStyle(date);
+            row.createCell(3).setCellValue(true);
+            row.createCell(4).setCellValue("Товар");
+            // Большое число без экспоненты, пропущенные ячейки пустые
+            Row second = sheet.createRow(2);
+            second.createCell(1).setCellValue(1.0e12);
+            write(book, file);
+        }
+
+        List<ExcelRow> rows = new ExcelReader(file.toString()).readAllRows();
+        assertEquals(2, rows.size());
+        ExcelRow first = rows.get(0);
+        assertEquals("7707083893", first.get("OrganizationInn"));
+        assertEquals("1234.5", first.get("Amount"));
+        assertEquals("2024-03-15", first.get("Date"));
+        assertEquals("true", first.get("Paid"));
+        assertEquals("Товар", first.get("Name"));
+        assertEquals("receipts.xlsx!Лист1:2", first.source());
+        ExcelRow last = rows.get(1);
+        assertEquals("", last.get("OrganizationInn"));
+        assertEquals("1000000000000", last.get("Amount"));
+        assertEquals("", last.get("Name"));
+    }
+
+    @Test
+    void emptyRowsAreSkippedAndNumbersKept() throws IOException {
+        Path file = dir.resolve("receipts.xlsx");
+        try (XSSFWorkbook book = new XSSFWorkbook()) {
+            XSSFSheet sheet = book.createSheet("Лист1");
+            header(sheet, "OrganizationInn", "Amount");
+            row(sheet, 1, "111", "1");
+            // Строка только с пробелами и пустая строка между данными
+            row(sheet, 2, " ", "");
+            sheet.createRow(3);
+            row(sheet, 5, "222", "2");
+            write(book, file);
+        }
+
+        List<ExcelRow> rows = new ExcelReader(file.toString()).readAllRows();
+        assertEquals(2, rows.size());
+        assertEquals("111", rows.get(0).get("OrganizationInn"));
+        assertEquals(2, rows.get(0).rowNumber());
+        assertEquals("222", rows.get(1).get("OrganizationInn"));
+        assertEquals(6, rows.get(1).rowNumber());
+    }
+
+    @Test
+    void rowsAreStreamedInSheetOrder() throws IOException {
+        Path file = dir.resolve("big.xlsx");
+        try (XSSFWorkbook book = new XSSFWorkbook()) {
+            XSSFSheet sheet = book.createSheet("Лист1");
+            header(sheet, "N");
+            for (int i = 1; i <= 5_000; i++) sheet.createRow(i).createCell(0).setCellValue(i);
+            write(book, file);
+        }
+
+        int[] next = {1};
+        new ExcelReader(file.toString()).readRows(row -> assertEquals(String.valueOf(next[0]++), row.get("N")));
+        assertEquals(5_001, next[0]);
+    }
+
+    @Test
+    void booksAreResolvedByDirectoryAndMask() throws IOException {
+        book(dir.resolve("b.xlsx"), 1, 1);
+        book(dir.resolve("a.xlsx"), 1, 1);
+        book(dir.resolve("other.xlsx"), 1, 1);
+        // Файл блокировки открытой в Excel книги
+        Files.writeString(dir.resolve("~$a.xlsx"), "lock");
+
+        assertEquals(List.of(dir.resolve("a.xlsx"), dir.resolve("b.xlsx"), dir.resolve("other.xlsx")),
+                ExcelReader.resolve(dir.toString()));
+        assertEquals(List.of(dir.resolve("a.xlsx"), dir.resolve("b.xlsx")),
+                ExcelReader.resolve(dir + "/?.xlsx"));
+        assertEquals(List.of(dir.resolve("other.xlsx")), ExcelReader.resolve(dir.resolve("other.xlsx").toString()));
+        assertThrows(IOException.class, () -> ExcelReader.resolve(dir + "/none-*.xlsx"));
+        assertThrows(IOException.class, () -> ExcelReader.resolve(dir + "/*/book.xlsx"));
+    }
+
+    @Test
+    void allSheetsOfAllBooksAreReadInParallel() throws IOException {
+        List<Path> books = List.of(book(dir.resolve("a.xlsx"), 3, 400), book(dir.resolve("b.xlsx"), 2, 500));
+        ExcelReader reader = new ExcelReader(books, true, 3);
+        Map<String, List<Integer>> bySheet = new HashMap<>();
+        String thread = Thread.currentThread().getName();
+        reader.readRows(row -> {
+            assertEquals(thread, Thread.currentThread().getName());
+            bySheet.computeIfAbsent(row.schema().source(), s -> new ArrayList<>()).add(row.rowNumber());
+        });
+
+        assertEquals(5, bySheet.size());
+        assertEquals(400, bySheet.get("a.xlsx!S3").size());
+        assertEquals(500, bySheet.get("b.xlsx!S1").size());
+        // Внутри листа порядок строк сохраняется
+        for (List<Integer> rows : bySheet.values()) {
+            for (int i = 0; i < rows.size(); i++) assertEquals(i + 2, rows.get(i));
+        }
+        assertEquals(3 * 400 + 2 * 500, reader.estimateRows());
+    }
+
+    @Test
+    void onlyFirstSheetByDefault() throws IOException {
+        List<Path> books = List.of(book(dir.resolve("a.xlsx"), 3, 10), book(dir.resolve("b.xlsx"), 2, 20));
+        ExcelReader reader = new ExcelReader(books, false, 2);
+        List<ExcelRow> rows = reader.readAllRows();
+        assertEquals(30, rows.size());
+        assertEquals(30, reader.estimateRows());
+        assertEquals(2, rows.stream().map(row -> row.schema().source()).distinct().count());
+    }
+
+    @Test
+    void brokenBookStopsParallelRead() throws IOException {
+        Path good = book(dir.resolve("a.xlsx"), 2, 2_000);
+        Path broken = Files.writeString(dir.resolve("b.xlsx"), "не книга");
+        ExcelReader reader = new ExcelReader(List.of(good, broken), true, 2);
+        assertThrows(IOException.class, () -> reader.readRows(row -> {
+        }));
+        assertEquals(-1, reader.estimateRows());
+    }
+
+    //Книга из sheets листов S1..Sn по rows строк, в строке лист и номер
+    private static Path book(Path file, int sheets, int rows) throws IOException {
+        try (XSSFWorkbook book = new XSSFWorkbook()) {
+            for (int s = 1; s <= sheets; s++) {
+                XSSFSheet sheet = book.createSheet("S" + s);
+                header(sheet, "Sheet", "N");
+                for (int i = 1; i <= rows; i++) row(sheet, i, "S" + s, Integer.toString(i));
+            }
+            write(book, file);
+        }
+        return file;
+    }
+
+    static void header(XSSFSheet sheet, String... names) {
+        row(sheet, 0, names);
+    }
+
+    static void row(XSSFSheet sheet, int index, String... values) {
+        Row row = sheet.createRow(index);
+        for (int i = 0; i < values.length; i++) row.createCell(i).setCellValue(values[i]);
+    }
+
+    static void write(XSSFWorkbook book, Path file) throws IOException {
+        try (OutputStream out = Files.newOutputStream(file)) {
+            book.write(out);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package app.sender;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ApiResponseTest {
+    private static final JsonFactory JSON = new JsonFactory();
+
+    @Test
+    void topLevelFieldsAndModelIdAreParsed() {
+        ApiResponse response = parse("{\"Model\":{\"Id\":\"r1\",\"Items\":[{\"Id\":\"x\"}],\"Message\":\"вложенное\"},"
+                + "\"Success\":true,\"Message\":null,\"Extra\":{\"Success\":false}}");
+        assertEquals(Boolean.TRUE, response.success());
+        assertEquals("r1", response.receiptId());
+        // Одноименные поля вложенных объектов не перетирают верхний уровень
+        assertNull(response.message());
+        assertNull(response.body());
+        assertEquals("Success=true Id=r1", response.describe());
+    }
+
+    @Test
+    void refusalIsDescribedByFields() {
+        ApiResponse response = parse("{\"Success\":false,\"Message\":\"Неверный ИНН\",\"Model\":null}");
+        assertEquals(Boolean.FALSE, response.success());
+        assertNull(response.receiptId());
+        assertEquals("Success=false Message=Неверный ИНН", response.describe());
+    }
+
+    @Test
+    void brokenJsonKeepsFieldsReadBeforeError() {
+        ApiResponse response = parse("{\"Success\":false,\"Message\":\"ошибка\"<html>");
+        assertEquals(Boolean.FALSE, response.success());
+        assertEquals("ошибка", response.message());
+
+        ApiResponse html = parse("<html>Bad Gateway</html>");
+        assertNull(html.success());
+        assertEquals("Content-Type=application/json", html.describe());
+    }
+
+    @Test
+    void bodyIsKeptByMode() throws Exception {
+        try (StubApi api = new StubApi()) {
+            HttpClient client = HttpClient.newHttpClient();
+            HttpRequest request = HttpRequest.newBuilder(URI.create(api.url()))
+                    .POST(HttpRequest.BodyPublishers.ofString("{}")).build();
+
+            api.respond(200, StubApi.OK).respond(400, "не json");
+            HttpResponse<ApiResponse> ok = client.send(request, ApiResponse.handler(JSON, ApiResponse.Keep.FAILED));
+            HttpResponse<ApiResponse> bad = client.send(request, ApiResponse.handler(JSON, ApiResponse.Keep.FAILED));
+            assertNull(ok.body().body());
+            assertEquals("r1", ok.body().receiptId());
+            assertEquals("не json", bad.body().body());
+            assertEquals("не json", bad.body().describe());
+
+            api.respond(200, StubApi.OK).respond(400, "не json");
+            ApiResponse all = client.send(request, ApiResponse.handler(JSON, ApiResponse.Keep.ALL)).body();
+            assertEquals(StubApi.OK, all.body());
+            ApiResponse none = client.send(request, ApiResponse.handler(JSON, ApiResponse.Keep.NONE)).body();
+            assertNull(none.body());
+            assertTrue(none.describe().startsWith("Content-Type="));
+
+            // Тело перегрузки не читается
+            api.respond(503, "{\"Success\":false}");
+            HttpResponse<ApiResponse> overload = client.send(request, ApiResponse.handler(JSON, ApiResponse.Keep.ALL));
+            assertEquals(503, overload.statusCode());
+            assertNull(overload.body());
+        }
+    }
+
+    @Test
+    void longMessageIsParsed() {
+        String message = "м".repeat(5_000);
+        ApiResponse response = parse("{\"Success\":false,\"Message\":\"" + message + "\"}");
+        assertEquals(message, response.message());
+        assertFalse(response.describe().isEmpty());
+    }
+
+    private static ApiResponse parse(String body) {
+        return ApiResponse.parse(JSON, body.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,121 @@
+package app.sender;
+
+import app.sender.RetryPolicy.RetryableException;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Строки мерчанта с разомкнутым автоматом откладываются без расхода попыток
+ * и в блокирующем, и в асинхронном режиме.
+ */
+class CircuitDeferTest {
+    @Test
+    void syncDeferralDoesNotSpendAttempts() throws Exception {
+        RetryPolicy policy = new RetryPolicy(3, 1, 10, RetryPolicy.Jitter.NONE, null, null);
+        AtomicInteger calls = new AtomicInteger();
+        // Две отсрочки, две неудачи и успех: попыток три из трех
+        String result = policy.executeWithRetry(() -> {
+            int call = calls.incrementAndGet();
+            if (call <= 2) throw new CircuitOpenException("m", 5);
+            if (call <= 4) throw new RetryableException("429");
+            return "ok";
+        });
+        assertEquals("ok", result);
+        assertEquals(5, calls.get());
+    }
+
+    @Test
+    void syncDeferralWaitsForBreaker() throws Exception {
+        RetryPolicy policy = new RetryPolicy(3, 1, 10, RetryPolicy.Jitter.NONE, null, null);
+        AtomicInteger calls = new AtomicInteger();
+        long start = System.nanoTime();
+        policy.executeWithRetry(() -> {
+            if (calls.incrementAndGet() == 1) throw new CircuitOpenException("m", 50);
+            return "ok";
+        });
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    @Test
+    void syncGivesUpAfterMaxDeferrals() {
+        RetryPolicy policy = new RetryPolicy(3, 1, 10, RetryPolicy.Jitter.NONE, null, null);
+        AtomicInteger calls = new AtomicInteger();
+        assertThrows(CircuitOpenException.class, () -> policy.executeWithRetry(() -> {
+            calls.incrementAndGet();
+            throw new CircuitOpenException("m", 1);
+        }));
+        assertEquals(4, calls.get());
+    }
+
+    @Test
+    void deferralDoesNotSpendBudget() throws Exception {
+        // Бюджет на один повтор; отсрочки его не трогают
+        RetryPolicy policy = new RetryPolicy(5, 1, 10, RetryPolicy.Jitter.NONE, new RetryBudget(0, 1), null);
+        AtomicInteger calls = new AtomicInteger();
+        String result = policy.executeWithRetry(() -> {
+            int call = calls.incrementAndGet();
+            if (call <= 3) throw new CircuitOpenException("m", 1);
+            if (call == 4) throw new RetryableException("503");
+            return "ok";
+        });
+        assertEquals("ok", result);
+        assertEquals(5, calls.get());
+    }
+
+    @Test
+    void asyncDefersTheSameWay() throws Exception {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            RetryPolicy policy = new RetryPolicy(3, 1, 10, RetryPolicy.Jitter.NONE, null, null);
+            AtomicInteger calls = new AtomicInteger();
+            String result = policy.executeWithRetryAsync(() -> {
+                int call = calls.incrementAndGet();
+                if (call <= 2) return CompletableFuture.failedFuture(new CircuitOpenException("m", 5));
+                if (call <= 4) return CompletableFuture.failedFuture(new RetryableException("429"));
+                return CompletableFuture.completedFuture("ok");
+            }, scheduler).get(5, TimeUnit.SECONDS);
+            assertEquals("ok", result);
+            assertEquals(5, calls.get());
+
+            AtomicInteger open = new AtomicInteger();
+            CompletableFuture<String> failed = policy.executeWithRetryAsync(() -> {
+                open.incrementAndGet();
+                return CompletableFuture.failedFuture(new CircuitOpenException("m", 1));
+            }, scheduler);
+            ExecutionException error = assertThrows(ExecutionException.class, () -> failed.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(CircuitOpenException.class, error.getCause());
+            assertEquals(4, open.get());
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Test
+    void tooManyRequestsDoNotOpenBreaker() {
+        MerchantGuards.Guard guard = new MerchantGuards(4, 2, 0.5, 10_000, 4, 4, 2.0).get("m");
+        // 429 - перегрузка, ее снимают лимит частоты и предел, а не автомат
+        for (int i = 0; i < 20; i++) {
+            assertDoesNotThrow(guard::acquire);
+            guard.onResponse(429, 1);
+        }
+        assertDoesNotThrow(guard::acquire);
+        guard.onResponse(200, 1);
+
+        // 5xx считается: одна ошибка из двух запросов - половина
+        assertDoesNotThrow(guard::acquire);
+        guard.onResponse(503, 1);
+        assertThrows(CircuitOpenException.class, guard::acquire);
+    }
+}
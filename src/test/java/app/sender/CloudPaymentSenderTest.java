@@ -0,0 +1,101 @@
+package app.sender;
+
+import app.builder.BuilderJson;
+import app.metrics.Metrics;
+import app.model.ReceiptRows;
+import app.util.RateLimiterRegistry;
+import app.util.SendResult;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CloudPaymentSenderTest {
+    private final ObjectMapper mapper = new ObjectMapper();
+    private StubApi api;
+    private ScheduledExecutorService scheduler;
+    private ExecutorService httpExecutor;
+    private MerchantRegistry merchants;
+    private CloudPaymentSender sender;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        api = new StubApi();
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        httpExecutor = Executors.newFixedThreadPool(2);
+        merchants = new MerchantRegistry(api.url(), Duration.ofSeconds(10));
+        merchants.register("pk_1", "secret_1");
+        HttpClient httpClient = HttpClient.newBuilder().executor(httpExecutor).build();
+        sender = new CloudPaymentSender(httpClient, new RateLimiterRegistry(1_000, 100),
+                new MerchantGuards(20, 10, 0.5, 1_000, 16, 64, 2.0),
+                new BuilderJson(mapper), new RetryPolicy(3, 1, 10, RetryPolicy.Jitter.NONE, null, null),
+                mapper, scheduler, new Metrics());
+    }
+
+    @AfterEach
+    void tearDown() {
+        api.close();
+        scheduler.shutdownNow();
+        httpExecutor.shutdownNow();
+    }
+
+    @Test
+    void asyncSendReturnsParsedResult() throws Exception {
+        SendResult result = sendAsync("N-1");
+        assertTrue(result.success);
+        assertEquals(200, result.httpCode);
+        assertEquals(1, result.attempts);
+        assertEquals(1, api.requests().size());
+        assertTrue(api.requests().get(0).body().contains("\"N-1\""), api.requests().get(0).body());
+    }
+
+    @Test
+    void asyncSendRetriesOverloadWithoutBlocking() throws Exception {
+        api.respond(503, "").respond(429, "", "0");
+        SendResult result = sendAsync("N-1");
+        assertTrue(result.success);
+        assertEquals(3, result.attempts);
+        assertEquals(3, api.requests().size());
+    }
+
+    @Test
+    void asyncSendDoesNotRetryClientError() throws Exception {
+        api.respond(400, "{\"Success\":false,\"Message\":\"bad request\"}");
+        SendResult result = sendAsync("N-1");
+        assertFalse(result.success);
+        assertEquals(400, result.httpCode);
+        assertEquals(1, api.requests().size());
+    }
+
+    @Test
+    void manyAsyncSendsOnTwoHttpThreads() throws Exception {
+        // Ожидание ответа не держит поток: 200 запросов на двух потоках клиента
+        List<CompletableFuture<SendResult>> futures = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            futures.add(sender.sendCorrectionAsync(ReceiptRows.receipt("pk_1", "N-" + i, "100.5"),
+                    merchants.get("pk_1")));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+        for (CompletableFuture<SendResult> future : futures) assertTrue(future.join().success);
+        assertEquals(200, api.requests().size());
+    }
+
+    private SendResult sendAsync(String number) throws Exception {
+        return sender.sendCorrectionAsync(ReceiptRows.receipt("pk_1", number, "100.5"), merchants.get("pk_1"))
+                .get(10, TimeUnit.SECONDS);
+    }
+}
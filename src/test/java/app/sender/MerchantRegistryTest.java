@@ -0,0 +1,62 @@
+package app.sender;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class MerchantRegistryTest {
+    private static final String URL = "https://api.example.ru/kkt/correction";
+
+    @Test
+    void requestIsBuiltFromPrototype() {
+        MerchantRegistry registry = new MerchantRegistry(URL, Duration.ofSeconds(50));
+        registry.register("pk_1", new StringBuilder("секрет"));
+        MerchantRegistry.Merchant merchant = registry.get("pk_1");
+        assertEquals("pk_1", merchant.publicId());
+
+        HttpRequest request = merchant.request("{\"a\":1}".getBytes(StandardCharsets.UTF_8));
+        assertEquals(URI.create(URL), request.uri());
+        assertEquals("POST", request.method());
+        assertEquals(Optional.of(Duration.ofSeconds(50)), request.timeout());
+        String expected = "Basic " + Base64.getEncoder().encodeToString("pk_1:секрет".getBytes(StandardCharsets.UTF_8));
+        assertEquals(Optional.of(expected), request.headers().firstValue("Authorization"));
+        assertEquals(Optional.of("application/json"), request.headers().firstValue("Content-Type"));
+        assertEquals(7, request.bodyPublisher().orElseThrow().contentLength());
+    }
+
+    @Test
+    void requestsDoNotShareBodies() {
+        MerchantRegistry registry = new MerchantRegistry(URL, Duration.ofSeconds(50));
+        registry.register("pk_1", "s");
+        MerchantRegistry.Merchant merchant = registry.get("pk_1");
+        HttpRequest first = merchant.request(new byte[3]);
+        HttpRequest second = merchant.request(new byte[5]);
+        assertNotSame(first, second);
+        assertEquals(3, first.bodyPublisher().orElseThrow().contentLength());
+        assertEquals(5, second.bodyPublisher().orElseThrow().contentLength());
+        // Заголовки прототипа не накапливаются от копии к копии
+        assertEquals(1, second.headers().allValues("Authorization").size());
+    }
+
+    @Test
+    void removedKeysAreDropped() {
+        MerchantRegistry registry = new MerchantRegistry(URL, Duration.ofSeconds(50));
+        registry.register("pk_1", "s1");
+        registry.register("pk_2", "s2");
+        registry.register("pk_1", "s3");
+        assertEquals(2, registry.size());
+        registry.retainAll(Set.of("pk_2"));
+        assertNull(registry.get("pk_1"));
+        assertEquals(1, registry.size());
+    }
+}
@@ -0,0 +1,117 @@
+package app.sender;
+
+import app.sender.RetryPolicy.RetryableException;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RetryPolicyTest {
+    private static final RetryableException OVERLOAD = new RetryableException("503");
+
+    @Test
+    void exponentialDelayIsCapped() {
+        RetryPolicy policy = new RetryPolicy(10, 100, 1_000, RetryPolicy.Jitter.NONE, null, null);
+        assertEquals(100, policy.nextDelayMillis(1, 0, OVERLOAD));
+        assertEquals(200, policy.nextDelayMillis(2, 100, OVERLOAD));
+        assertEquals(800, policy.nextDelayMillis(4, 400, OVERLOAD));
+        assertEquals(1_000, policy.nextDelayMillis(5, 800, OVERLOAD));
+        assertEquals(1_000, policy.nextDelayMillis(9, 1_000, OVERLOAD));
+        assertEquals(-1, policy.nextDelayMillis(10, 1_000, OVERLOAD));
+    }
+
+    @Test
+    void jitterStaysInBounds() {
+        RetryPolicy full = new RetryPolicy(10, 100, 1_000, RetryPolicy.Jitter.FULL, null, null);
+        RetryPolicy decorrelated = new RetryPolicy(10, 100, 1_000, RetryPolicy.Jitter.DECORRELATED, null, null);
+        long distinct = 0;
+        long last = -1;
+        for (int i = 0; i < 1_000; i++) {
+            long delay = full.nextDelayMillis(3, 0, OVERLOAD);
+            assertTrue(delay >= 0 && delay <= 400, "full=" + delay);
+            if (delay != last) distinct++;
+            last = delay;
+            long next = decorrelated.nextDelayMillis(3, 200, OVERLOAD);
+            assertTrue(next >= 100 && next <= 600, "decorrelated=" + next);
+        }
+        // Задержки разбросаны, а не совпадают у всех потоков
+        assertTrue(distinct > 100, "distinct=" + distinct);
+    }
+
+    @Test
+    void retryAfterIsRespected() {
+        RetryPolicy policy = new RetryPolicy(10, 10, 5_000, RetryPolicy.Jitter.FULL, null, null);
+        for (int i = 0; i < 100; i++) {
+            long delay = policy.nextDelayMillis(1, 0, new RetryableException("429", 2_000));
+            assertTrue(delay >= 2_000 && delay <= 2_010, "delay=" + delay);
+        }
+        // Retry-After больше предела - ждем не дольше maxDelayMs
+        long capped = policy.nextDelayMillis(1, 0, new RetryableException("429", 60_000));
+        assertTrue(capped >= 5_000 && capped <= 5_010, "capped=" + capped);
+    }
+
+    @Test
+    void budgetLimitsRetries() {
+        // Два токена на старте, полтокена за первую попытку
+        RetryBudget budget = new RetryBudget(0.5, 2);
+        RetryPolicy policy = new RetryPolicy(10, 1, 10, RetryPolicy.Jitter.NONE, budget, null);
+        assertTrue(policy.nextDelayMillis(1, 0, OVERLOAD) >= 0);
+        assertTrue(policy.nextDelayMillis(1, 0, OVERLOAD) >= 0);
+        assertEquals(-1, policy.nextDelayMillis(1, 0, OVERLOAD));
+        policy.onFirstAttempt();
+        assertEquals(-1, policy.nextDelayMillis(1, 0, OVERLOAD));
+        policy.onFirstAttempt();
+        assertTrue(policy.nextDelayMillis(1, 0, OVERLOAD) >= 0);
+    }
+
+    @Test
+    void budgetIsCappedAtMaxTokens() {
+        RetryBudget budget = new RetryBudget(1, 3);
+        for (int i = 0; i < 100; i++) budget.deposit();
+        for (int i = 0; i < 3; i++) assertTrue(budget.tryWithdraw());
+        assertFalse(budget.tryWithdraw());
+    }
+
+    @Test
+    void syncRetryStopsAfterMaxRetries() {
+        RetryPolicy policy = new RetryPolicy(3, 1, 10, RetryPolicy.Jitter.NONE, null, null);
+        AtomicInteger calls = new AtomicInteger();
+        assertThrows(RetryableException.class, () -> policy.executeWithRetry(() -> {
+            calls.incrementAndGet();
+            throw OVERLOAD;
+        }));
+        assertEquals(3, calls.get());
+    }
+
+    @Test
+    void retryAfterHeaderIsParsed() throws Exception {
+        String date = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC).plusSeconds(30));
+        try (StubApi api = new StubApi()) {
+            api.respond(429, "", "2").respond(429, "", " 0 ").respond(429, "", date)
+                    .respond(429, "", "скоро").respond(429, "");
+            HttpClient client = HttpClient.newHttpClient();
+            HttpRequest request = HttpRequest.newBuilder(URI.create(api.url())).build();
+            assertEquals(2_000, retryAfter(client, request));
+            assertEquals(0, retryAfter(client, request));
+            long fromDate = retryAfter(client, request);
+            assertTrue(fromDate > 25_000 && fromDate <= 30_000, "fromDate=" + fromDate);
+            assertEquals(-1, retryAfter(client, request));
+            assertEquals(-1, retryAfter(client, request));
+        }
+    }
+
+    private static long retryAfter(HttpClient client, HttpRequest request) throws Exception {
+        return RetryPolicy.retryAfterMillis(client.send(request, HttpResponse.BodyHandlers.discarding()));
+    }
+}
@@ -0,0 +1,84 @@
+package app.sender;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Заглушка API для тестов: отвечает по очереди заданными ответами,
+ * когда очередь пуста - 200 с Success:true. Запросы запоминаются.
+ */
+public final class StubApi implements AutoCloseable {
+    public static final String OK = "{\"Model\":{\"Id\":\"r1\"},\"Success\":true,\"Message\":null}";
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+    private final Queue<Response> script = new ConcurrentLinkedQueue<>();
+    private final List<Request> requests = Collections.synchronizedList(new ArrayList<>());
+
+    public StubApi() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 64);
+        server.createContext("/", exchange -> {
+            try (InputStream in = exchange.getRequestBody()) {
+                requests.add(new Request(exchange.getRequestHeaders().getFirst("Authorization"),
+                        new String(in.readAllBytes(), StandardCharsets.UTF_8)));
+            }
+            Response response = script.poll();
+            if (response == null) response = new Response(200, OK, null);
+            if (response.retryAfter() != null) exchange.getResponseHeaders().add("Retry-After", response.retryAfter());
+            byte[] body = response.body().getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(response.code(), body.length == 0 ? -1 : body.length);
+            if (body.length > 0) {
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+            exchange.close();
+        });
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/kkt/correction";
+    }
+
+    public StubApi respond(int code, String body) {
+        script.add(new Response(code, body, null));
+        return this;
+    }
+
+    public StubApi respond(int code, String body, String retryAfter) {
+        script.add(new Response(code, body, retryAfter));
+        return this;
+    }
+
+    public List<Request> requests() {
+        synchronized (requests) {
+            return List.copyOf(requests);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public record Request(String authorization, String body) {
+    }
+
+    private record Response(int code, String body, String retryAfter) {
+    }
+}
@@ -0,0 +1,142 @@
+package app.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InboxServiceTest {
+    @TempDir
+    Path dir;
+
+    private final List<String> handled = new CopyOnWriteArrayList<>();
+    private final AtomicInteger keyLoads = new AtomicInteger();
+    private InboxService service;
+    private Thread loop;
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        if (service != null) service.stop(Duration.ofSeconds(5));
+        if (loop != null) loop.join(5_000);
+    }
+
+    @Test
+    void settledBookGoesToDoneWithLogs() throws Exception {
+        start((workbook, logs) -> {
+            handled.add(workbook.getFileName().toString());
+            Files.writeString(logs.success(), "ok");
+            Files.writeString(logs.failed(), "");
+            Files.writeString(logs.results(), "{}");
+        });
+        Files.writeString(dir.resolve("inbox/a.xlsx"), "книга");
+        Files.writeString(dir.resolve("inbox/notes.txt"), "не книга");
+
+        await(() -> Files.exists(dir.resolve("done/a.xlsx")));
+        await(() -> Files.exists(dir.resolve("done/a.results.jsonl")));
+        assertEquals(List.of("a.xlsx"), handled);
+        assertEquals("ok", Files.readString(dir.resolve("done/a.success.log")));
+        assertTrue(Files.exists(dir.resolve("done/a.failed.log")));
+        assertTrue(Files.exists(dir.resolve("inbox/notes.txt")));
+        assertFalse(Files.exists(dir.resolve("inbox/a.xlsx")));
+    }
+
+    @Test
+    void failedBookGoesToFailed() throws Exception {
+        start((workbook, logs) -> {
+            Files.writeString(logs.failed(), "строка 2");
+            throw new IOException("книга повреждена");
+        });
+        Files.writeString(dir.resolve("inbox/b.xlsx"), "книга");
+
+        await(() -> Files.exists(dir.resolve("failed/b.xlsx")));
+        await(() -> Files.exists(dir.resolve("failed/b.failed.log")));
+        assertFalse(Files.exists(dir.resolve("done/b.xlsx")));
+    }
+
+    @Test
+    void interruptedBookIsReturnedOnStart() throws Exception {
+        Files.createDirectories(dir.resolve("inbox/.processing"));
+        Files.writeString(dir.resolve("inbox/.processing/c.xlsx"), "книга");
+        Files.writeString(dir.resolve("inbox/.processing/c.success.log"), "ушедшие чеки");
+        start((workbook, logs) -> handled.add(workbook.getFileName().toString()));
+
+        await(() -> Files.exists(dir.resolve("done/c.xlsx")));
+        assertEquals(List.of("c.xlsx"), handled);
+        // Лог прерванной обработки сохраняется в failed
+        assertEquals("ушедшие чеки", Files.readString(dir.resolve("failed/c.success.log")));
+    }
+
+    @Test
+    void keysBookIsReloadedAndNotProcessed() throws Exception {
+        Files.createDirectories(dir.resolve("inbox"));
+        Files.writeString(dir.resolve("inbox/keys.xlsx"), "ключи");
+        start((workbook, logs) -> handled.add(workbook.getFileName().toString()));
+        Thread.sleep(200);
+        Files.writeString(dir.resolve("inbox/keys.xlsx"), "новые ключи");
+
+        await(() -> keyLoads.get() > 0);
+        assertTrue(handled.isEmpty());
+        assertTrue(Files.exists(dir.resolve("inbox/keys.xlsx")));
+    }
+
+    @Test
+    void busyNameWaitsForPreviousBook() throws Exception {
+        Object gate = new Object();
+        start((workbook, logs) -> {
+            handled.add(workbook.getFileName().toString());
+            synchronized (gate) {
+                gate.wait(300);
+            }
+        });
+        Files.writeString(dir.resolve("inbox/d.xlsx"), "первая");
+        await(() -> handled.size() == 1);
+        Files.writeString(dir.resolve("inbox/d.xlsx"), "вторая");
+
+        await(() -> handled.size() == 2);
+        await(() -> count(dir.resolve("done"), "d.xlsx") == 2);
+    }
+
+    private void start(InboxService.FileHandler handler) throws IOException {
+        service = new InboxService(dir.resolve("inbox"), dir.resolve("done"), dir.resolve("failed"),
+                dir.resolve("inbox/keys.xlsx"), keyLoads::incrementAndGet, handler, 2, 50, ".jsonl");
+        loop = new Thread(() -> {
+            try {
+                service.run();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }, "inbox-loop");
+        loop.start();
+    }
+
+    private static long count(Path dir, String suffix) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(suffix)).count();
+        }
+    }
+
+    private static void await(Check check) throws Exception {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!check.ok()) {
+            if (System.currentTimeMillis() > deadline) throw new AssertionError("не дождались");
+            Thread.sleep(20);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Check {
+        boolean ok() throws Exception;
+    }
+}
@@ -0,0 +1,126 @@
+package app.shard;
+
+import app.journal.DedupIndex;
+import app.journal.SendJournal;
+import app.spool.SpoolWriter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShardCoordinatorTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void shardIsStableAndInRange() {
+        int[] counts = new int[4];
+        for (int i = 0; i < 1_000; i++) {
+            int shard = ShardCoordinator.shardOf("pk_" + i, 4);
+            assertEquals(shard, ShardCoordinator.shardOf("pk_" + i, 4));
+            counts[shard]++;
+        }
+        // Мерчанты расходятся по всем шардам
+        for (int count : counts) assertTrue(count > 150, "перекос шардов: " + count);
+        assertEquals(0, ShardCoordinator.shardOf("pk_1", 1));
+        assertThrows(IllegalArgumentException.class, () -> new ShardCoordinator(dir, 0));
+    }
+
+    @Test
+    void workerGetsOwnFiles() throws IOException {
+        ShardCoordinator coordinator = new ShardCoordinator(dir, 2);
+        String prefix = dir.resolve("shard-1").toString();
+        assertEquals(List.of("mode=spool",
+                "spoolFile=" + prefix + ".spool",
+                "successLog=" + prefix + ".success.log",
+                "failedLog=" + prefix + ".failed.log",
+                "resultsFile=" + prefix + ".results.csv",
+                "journalFile=" + prefix + ".journal",
+                "dedupFile=",
+                "metricsPort=9103"), coordinator.workerArgs(1, ".csv", 9101));
+        List<String> plain = coordinator.workerArgs(0, null, 0);
+        assertTrue(plain.contains("resultsFile="));
+        assertTrue(plain.contains("metricsPort=0"));
+    }
+
+    @Test
+    void cleanRemovesOnlyShardFiles() throws IOException {
+        ShardCoordinator coordinator = new ShardCoordinator(dir, 2);
+        Files.writeString(coordinator.spool(0), "старый");
+        Files.writeString(dir.resolve("shard-0.journal"), "старый");
+        Files.writeString(coordinator.rejected(), "строка 2");
+        Files.writeString(dir.resolve("compile.log"), "");
+        Files.writeString(dir.resolve("dedup.bin"), "индекс");
+
+        coordinator.clean();
+        try (var files = Files.list(dir)) {
+            assertEquals(List.of(dir.resolve("dedup.bin")), files.toList());
+        }
+    }
+
+    @Test
+    void shardsAreMergedIntoCommonFiles() throws IOException {
+        ShardCoordinator coordinator = new ShardCoordinator(dir, 2);
+        Files.writeString(coordinator.rejected(), "отклонена строка 2\n");
+        // В каждом шарде три чека: отправлен, ошибка, не дошла очередь
+        for (int shard = 0; shard < 2; shard++) {
+            long base = shard * 10L;
+            try (SpoolWriter spool = new SpoolWriter(coordinator.spool(shard))) {
+                for (int i = 1; i <= 3; i++) {
+                    spool.append(base + i, 100 + base + i, "pk_" + shard, "a.xlsx!Лист1:" + i, new byte[]{1});
+                }
+            }
+            try (SendJournal journal = new SendJournal(dir.resolve("shard-" + shard + ".journal"), 1, 60_000)) {
+                journal.record(base + 1, true);
+                journal.record(base + 2, false);
+            }
+            String prefix = "shard-" + shard;
+            Files.writeString(dir.resolve(prefix + ".success.log"), "успех " + shard + "\n");
+            Files.writeString(dir.resolve(prefix + ".failed.log"), "ошибка " + shard + "\n");
+            Files.writeString(dir.resolve(prefix + ".results.csv"), "row;status\n" + (base + 1) + ";ok\n");
+        }
+
+        Path results = dir.resolve("results.csv");
+        ShardCoordinator.Totals totals;
+        try (SendJournal journal = new SendJournal(dir.resolve("all.journal"), 1, 60_000);
+             DedupIndex dedup = new DedupIndex(dir.resolve("dedup.bin"), 1024)) {
+            totals = coordinator.merge(dir.resolve("success.log"), dir.resolve("failed.log"), results, journal, dedup);
+            assertTrue(journal.isDone(1));
+            assertTrue(journal.isDone(11));
+            assertFalse(journal.isDone(2));
+            // В индекс попадают только ушедшие чеки
+            assertTrue(dedup.contains(101));
+            assertTrue(dedup.contains(111));
+            assertFalse(dedup.contains(102));
+            assertFalse(dedup.contains(103));
+        }
+
+        assertEquals(new ShardCoordinator.Totals(2, 2, 2), totals);
+        assertEquals("успех 0\nуспех 1\n", Files.readString(dir.resolve("success.log")));
+        assertEquals("отклонена строка 2\nошибка 0\nошибка 1\n", Files.readString(dir.resolve("failed.log")));
+        List<String> lines = Files.readAllLines(results);
+        assertEquals(List.of("row;status", "1;ok", "11;ok"), lines);
+    }
+
+    @Test
+    void missingShardFilesAreSkipped() throws IOException {
+        ShardCoordinator coordinator = new ShardCoordinator(dir, 3);
+        try (SpoolWriter spool = new SpoolWriter(coordinator.spool(2))) {
+            spool.append(1, 2, "pk_1", "a.xlsx!Лист1:2", new byte[]{1});
+        }
+        // Исполнитель шарда 2 не запускался: журнала и логов нет
+        ShardCoordinator.Totals totals = coordinator.merge(dir.resolve("success.log"), dir.resolve("failed.log"),
+                dir.resolve("results.jsonl"), null, null);
+        assertEquals(new ShardCoordinator.Totals(0, 0, 1), totals);
+        assertEquals("", Files.readString(dir.resolve("success.log")));
+        assertEquals("", Files.readString(dir.resolve("results.jsonl")));
+    }
+}
@@ -0,0 +1,124 @@
+package app.spool;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SpoolRoundTripTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void recordsCrossWindowBoundaries() throws IOException {
+        Path file = dir.resolve("receipts.spool");
+        List<SpoolRecord> written = write(file, 2_000, new Random(1));
+
+        // Окна не кратны размеру записей, поэтому записи режутся на границах в разных местах
+        for (long window : new long[]{300, 301, 512, 4_099, 1L << 20}) {
+            List<SpoolRecord> read = new ArrayList<>();
+            long n = new SpoolReader(file, window).forEach(read::add);
+            assertEquals(written.size(), n, "window=" + window);
+            assertRecordsEqual(written, read, "window=" + window);
+        }
+        assertEquals(written.size(), new SpoolReader(file).count());
+    }
+
+    @Test
+    void recordLargerThanWriteBuffer() throws IOException {
+        Path file = dir.resolve("receipts.spool");
+        byte[] large = new byte[3 << 20];
+        new Random(2).nextBytes(large);
+        try (SpoolWriter writer = new SpoolWriter(file)) {
+            writer.append(1, 2, "small", "book.xlsx!Лист1:2", "{}".getBytes(StandardCharsets.UTF_8));
+            writer.append(3, 4, "large", "book.xlsx!Лист1:3", large);
+            writer.append(5, 6, "after", "book.xlsx!Лист1:4", new byte[0]);
+        }
+        List<SpoolRecord> read = new ArrayList<>();
+        new SpoolReader(file).forEach(read::add);
+        assertEquals(List.of("small", "large", "after"), read.stream().map(SpoolRecord::publicId).toList());
+        assertArrayEquals(large, read.get(1).body());
+        assertEquals(0, read.get(2).body().length);
+    }
+
+    @Test
+    void recordLargerThanWindowIsReported() throws IOException {
+        Path file = dir.resolve("receipts.spool");
+        try (SpoolWriter writer = new SpoolWriter(file)) {
+            writer.append(1, 2, "id", "src", new byte[1_000]);
+        }
+        assertThrows(IOException.class, () -> new SpoolReader(file, 512).forEach(record -> {
+        }));
+    }
+
+    @Test
+    void emptySpool() throws IOException {
+        Path file = dir.resolve("receipts.spool");
+        new SpoolWriter(file).close();
+        assertEquals(0, new SpoolReader(file).count());
+        assertEquals(0, new SpoolReader(file).forEach(record -> {
+        }));
+    }
+
+    @Test
+    void spoolIsPublishedOnClose() throws IOException {
+        Path file = dir.resolve("receipts.spool");
+        write(file, 10, new Random(3));
+
+        // Незаконченный spool не виден, отказ от него оставляет прежний файл
+        SpoolWriter writer = new SpoolWriter(file);
+        writer.append(1, 2, "id", "src", new byte[10]);
+        assertEquals(10, new SpoolReader(file).count());
+        writer.abort();
+        assertEquals(10, new SpoolReader(file).count());
+        assertFalse(Files.exists(dir.resolve("receipts.spool.tmp")));
+    }
+
+    @Test
+    void foreignFileIsRejected() throws IOException {
+        Path file = dir.resolve("other.spool");
+        Files.write(file, new byte[32]);
+        assertThrows(IOException.class, () -> new SpoolReader(file).count());
+    }
+
+    private static List<SpoolRecord> write(Path file, int count, Random random) throws IOException {
+        List<SpoolRecord> records = new ArrayList<>(count);
+        try (SpoolWriter writer = new SpoolWriter(file)) {
+            for (int i = 0; i < count; i++) {
+                byte[] body = new byte[random.nextInt(200)];
+                random.nextBytes(body);
+                SpoolRecord record = new SpoolRecord(random.nextLong(), random.nextLong(),
+                        "мерчант-" + random.nextInt(50), "книга.xlsx!Лист1:" + (i + 2), body);
+                writer.append(record.rowKey(), record.dedupKey(), record.publicId(), record.source(), record.body());
+                records.add(record);
+            }
+            assertEquals(count, writer.count());
+        }
+        assertTrue(Files.exists(file));
+        return records;
+    }
+
+    private static void assertRecordsEqual(List<SpoolRecord> expected, List<SpoolRecord> actual, String message) {
+        assertEquals(expected.size(), actual.size(), message);
+        for (int i = 0; i < expected.size(); i++) {
+            SpoolRecord e = expected.get(i);
+            SpoolRecord a = actual.get(i);
+            assertTrue(e.rowKey() == a.rowKey() && e.dedupKey() == a.dedupKey()
+                    && e.publicId().equals(a.publicId()) && e.source().equals(a.source())
+                    && Arrays.equals(e.body(), a.body()), message + " record " + i);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package app.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdaptiveLimitTest {
+    @Test
+    void waitersGetFreedSlotsInOrder() {
+        AdaptiveLimit limit = new AdaptiveLimit(2, 1, 2, 2.0);
+        assertTrue(limit.acquireAsync().isDone());
+        assertTrue(limit.acquireAsync().isDone());
+        CompletableFuture<Void> first = limit.acquireAsync();
+        CompletableFuture<Void> second = limit.acquireAsync();
+        assertFalse(first.isDone());
+
+        limit.release(10, false);
+        assertTrue(first.isDone());
+        assertFalse(second.isDone());
+        limit.release();
+        assertTrue(second.isDone());
+        assertEquals(2, limit.inFlight());
+    }
+
+    @Test
+    void overloadHalvesLimitOncePerResponseTime() throws InterruptedException {
+        AdaptiveLimit limit = new AdaptiveLimit(16, 1, 64, 2.0);
+        for (int i = 0; i < 8; i++) limit.acquireAsync();
+        limit.release(200, true);
+        assertEquals(8, limit.limit());
+        // Остальные ошибки того же окна предел больше не режут
+        for (int i = 0; i < 6; i++) limit.release(200, true);
+        assertEquals(8, limit.limit());
+        Thread.sleep(250);
+        limit.release(200, true);
+        assertEquals(4, limit.limit());
+    }
+
+    @Test
+    void limitGrowsWhileUsed() {
+        AdaptiveLimit limit = new AdaptiveLimit(4, 1, 8, 2.0);
+        for (int round = 0; round < 200; round++) {
+            int used = limit.limit();
+            for (int i = 0; i < used; i++) limit.acquireAsync();
+            for (int i = 0; i < used; i++) limit.release(10, false);
+        }
+        assertEquals(8, limit.limit());
+    }
+
+    @Test
+    void limitStaysAboveMinimum() throws InterruptedException {
+        AdaptiveLimit limit = new AdaptiveLimit(4, 2, 8, 2.0);
+        for (int i = 0; i < 10; i++) {
+            limit.acquireAsync();
+            limit.release(1, true);
+            Thread.sleep(2);
+        }
+        assertEquals(2, limit.limit());
+    }
+}
@@ -0,0 +1,89 @@
+package app.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CircuitBreakerTest {
+    @Test
+    void opensOnFailureRateAfterMinCalls() {
+        CircuitBreaker breaker = new CircuitBreaker("m", 10, 4, 0.5, 10_000);
+        breaker.onFailure();
+        breaker.onFailure();
+        breaker.onSuccess();
+        // Меньше minCalls запросов - доля ошибок еще не считается
+        assertFalse(breaker.isOpen());
+        assertEquals(0, breaker.tryAcquire());
+        breaker.onFailure();
+        assertTrue(breaker.isOpen());
+        long wait = breaker.tryAcquire();
+        assertTrue(wait > 0 && wait <= 10_000, "wait=" + wait);
+    }
+
+    @Test
+    void staysClosedBelowFailureRate() {
+        CircuitBreaker breaker = new CircuitBreaker("m", 10, 4, 0.5, 10_000);
+        for (int i = 0; i < 100; i++) {
+            if (i % 4 == 0) breaker.onFailure();
+            else breaker.onSuccess();
+        }
+        assertFalse(breaker.isOpen());
+        assertEquals(0, breaker.tryAcquire());
+    }
+
+    @Test
+    void oldResultsLeaveWindow() {
+        CircuitBreaker breaker = new CircuitBreaker("m", 4, 4, 0.75, 10_000);
+        breaker.onFailure();
+        breaker.onFailure();
+        for (int i = 0; i < 4; i++) breaker.onSuccess();
+        // Первые две ошибки вытеснены из окна успехами и не считаются
+        breaker.onFailure();
+        breaker.onFailure();
+        assertFalse(breaker.isOpen());
+        breaker.onFailure();
+        assertTrue(breaker.isOpen());
+    }
+
+    @Test
+    void probeAfterPauseClosesOnSuccess() throws InterruptedException {
+        CircuitBreaker breaker = open(20);
+        Thread.sleep(30);
+        assertEquals(0, breaker.tryAcquire());
+        // Пока пробный запрос в работе, остальные ждут
+        assertTrue(breaker.tryAcquire() > 0);
+        breaker.onSuccess();
+        assertFalse(breaker.isOpen());
+        assertEquals(0, breaker.tryAcquire());
+    }
+
+    @Test
+    void failedProbeReopens() throws InterruptedException {
+        CircuitBreaker breaker = open(20);
+        Thread.sleep(30);
+        assertEquals(0, breaker.tryAcquire());
+        breaker.onFailure();
+        assertTrue(breaker.isOpen());
+        assertTrue(breaker.tryAcquire() > 0);
+    }
+
+    @Test
+    void cancelledProbeIsGivenAgain() throws InterruptedException {
+        CircuitBreaker breaker = open(20);
+        Thread.sleep(30);
+        assertEquals(0, breaker.tryAcquire());
+        breaker.onCancel();
+        assertEquals(0, breaker.tryAcquire());
+        assertTrue(breaker.tryAcquire() > 0);
+    }
+
+    private static CircuitBreaker open(long openMillis) {
+        CircuitBreaker breaker = new CircuitBreaker("m", 2, 2, 0.5, openMillis);
+        breaker.onFailure();
+        breaker.onFailure();
+        assertTrue(breaker.isOpen());
+        return breaker;
+    }
+}
@@ -0,0 +1,127 @@
+package app.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FairQueueTest {
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    // Сколько ключу еще ждать и сколько он отдает за очередь; по умолчанию готов и вес 1
+    private final Map<String, Long> readyIn = new HashMap<>();
+    private final Map<String, Integer> weights = new HashMap<>();
+
+    @Test
+    void keysAreServedInTurn() {
+        FairQueue<Item> queue = queue(100);
+        offer(queue, "a1", "a2", "a3", "b1", "b2", "c1");
+        assertEquals(3, queue.keys());
+        assertEquals(List.of("a1", "b1", "c1", "a2", "b2", "a3"), pollAll(queue));
+        assertEquals(0, queue.keys());
+    }
+
+    @Test
+    void weightIsItemsPerTurn() {
+        weights.put("a", 2);
+        FairQueue<Item> queue = queue(100);
+        offer(queue, "a1", "a2", "a3", "a4", "b1", "b2");
+        assertEquals(List.of("a1", "a2", "b1", "a3", "a4", "b2"), pollAll(queue));
+    }
+
+    @Test
+    void higherPriorityGoesFirst() {
+        FairQueue<Item> queue = queue(100);
+        offer(queue, "a1", "b1");
+        queue.offer(new Item("c", "c1", 1));
+        queue.offer(new Item("a", "a-urgent", 1));
+        assertEquals(List.of("c1", "a-urgent", "a1", "b1"), pollAll(queue));
+    }
+
+    @Test
+    void keyWaitingOnLimitKeepsItsDeficit() {
+        weights.put("a", 2);
+        FairQueue<Item> queue = queue(100);
+        offer(queue, "a1", "a2", "a3", "b1", "b2");
+        assertEquals("a1", queue.poll().name());
+
+        // Пока ключ a ждет лимита, отдает b; недобор a - один элемент, а не новый вес
+        readyIn.put("a", TimeUnit.SECONDS.toNanos(1));
+        assertEquals("b1", queue.poll().name());
+        readyIn.remove("a");
+        assertEquals(List.of("a2", "b2", "a3"), pollAll(queue));
+    }
+
+    @Test
+    void pollWaitsForNearestReadyKey() throws InterruptedException {
+        long deadline = System.nanoTime() + 50 * MS;
+        FairQueue<Item> queue = new FairQueue<>(100, Item::key, Item::priority,
+                key -> Math.max(0, deadline - System.nanoTime()), key -> 1);
+        offer(queue, "a1");
+
+        // Без ожидания элемент неготового ключа не отдается, как в DelayQueue
+        assertNull(queue.poll());
+        assertEquals(0, queue.drainTo(new ArrayList<>()));
+        assertEquals(1, queue.size());
+        assertEquals("a1", queue.poll(1, TimeUnit.SECONDS).name());
+        assertTrue(System.nanoTime() >= deadline);
+    }
+
+    @Test
+    void pollTimesOutWhileKeyIsLimited() throws InterruptedException {
+        readyIn.put("a", TimeUnit.SECONDS.toNanos(10));
+        FairQueue<Item> queue = queue(100);
+        offer(queue, "a1");
+        assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+        assertEquals(1, queue.size());
+    }
+
+    @Test
+    void capacityIsBounded() throws InterruptedException {
+        FairQueue<Item> queue = queue(2);
+        offer(queue, "a1", "b1");
+        assertFalse(queue.offer(new Item("c", "c1", 0)));
+        assertEquals(0, queue.remainingCapacity());
+
+        Thread producer = new Thread(() -> {
+            try {
+                queue.put(new Item("c", "c1", 0));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        producer.start();
+        assertEquals("a1", queue.take().name());
+        producer.join(1_000);
+        assertFalse(producer.isAlive());
+        assertEquals(List.of("b1", "c1"), pollAll(queue));
+    }
+
+    private FairQueue<Item> queue(int capacity) {
+        return new FairQueue<>(capacity, Item::key, Item::priority,
+                key -> readyIn.getOrDefault(key, 0L), key -> weights.getOrDefault(key, 1));
+    }
+
+    //Элементы вида "a1": ключ - первая буква
+    private static void offer(FairQueue<Item> queue, String... names) {
+        for (String name : names) assertTrue(queue.offer(new Item(name.substring(0, 1), name, 0)));
+    }
+
+    private static List<String> pollAll(FairQueue<Item> queue) {
+        List<String> names = new ArrayList<>();
+        Item item;
+        while ((item = queue.poll()) != null) names.add(item.name());
+        return names;
+    }
+
+    private record Item(String key, String name, int priority) {
+    }
+}
@@ -0,0 +1,42 @@
+package app.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LongHashSetTest {
+    @Test
+    void addRemoveContains() {
+        LongHashSet set = new LongHashSet(4);
+        assertTrue(set.add(0));
+        assertTrue(set.add(42));
+        assertFalse(set.add(42));
+        assertTrue(set.contains(0));
+        assertTrue(set.remove(0));
+        assertFalse(set.remove(0));
+        assertFalse(set.contains(0));
+        assertTrue(set.contains(42));
+        assertEquals(1, set.size());
+    }
+
+    @Test
+    void matchesHashSet() {
+        // Узкий диапазон значений дает длинные цепочки пробирования и удаления из их середины
+        Random random = new Random(1);
+        LongHashSet set = new LongHashSet(16);
+        Set<Long> expected = new HashSet<>();
+        for (int i = 0; i < 200_000; i++) {
+            long value = random.nextInt(2_000);
+            if (random.nextInt(3) == 0) assertEquals(expected.remove(value), set.remove(value));
+            else assertEquals(expected.add(value), set.add(value));
+        }
+        assertEquals(expected.size(), set.size());
+        for (long value = 0; value < 2_000; value++) assertEquals(expected.contains(value), set.contains(value));
+    }
+}
@@ -0,0 +1,84 @@
+package app.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RateLimiterTest {
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    void burstIsGivenWithoutWait() {
+        RateLimiter limiter = new RateLimiter(10, 3);
+        for (int i = 0; i < 3; i++) assertEquals(0, limiter.reserve());
+        long wait = limiter.reserve();
+        assertTrue(wait > 0 && wait <= 100 * MS, "wait=" + wait);
+    }
+
+    @Test
+    void reservedTokensQueueUpByInterval() {
+        RateLimiter limiter = new RateLimiter(10);
+        assertEquals(0, limiter.reserve());
+        long first = limiter.reserve();
+        long second = limiter.reserve();
+        // Каждый следующий токен на интервал 100 мс позже предыдущего
+        assertTrue(first > 0 && first <= 100 * MS, "first=" + first);
+        assertTrue(second - first > 50 * MS && second - first <= 100 * MS, "second=" + second);
+    }
+
+    @Test
+    void waitNanosDoesNotReserve() {
+        RateLimiter limiter = new RateLimiter(10);
+        assertEquals(0, limiter.waitNanos());
+        assertEquals(0, limiter.waitNanos());
+        assertEquals(0, limiter.reserve());
+        long wait = limiter.waitNanos();
+        assertTrue(wait > 0 && wait <= 100 * MS, "wait=" + wait);
+        assertTrue(limiter.reserve() <= wait);
+    }
+
+    @Test
+    void tokensRefillAfterIdle() throws InterruptedException {
+        RateLimiter limiter = new RateLimiter(20, 2);
+        assertEquals(0, limiter.reserve());
+        assertEquals(0, limiter.reserve());
+        assertTrue(limiter.waitNanos() > 0);
+        // За 150 мс при 20 rps набирается больше burst токенов, но копится не больше burst
+        Thread.sleep(150);
+        assertEquals(0, limiter.reserve());
+        assertEquals(0, limiter.reserve());
+        assertTrue(limiter.reserve() > 0);
+    }
+
+    @Test
+    void acquireKeepsRate() throws InterruptedException {
+        RateLimiter limiter = new RateLimiter(50);
+        long start = System.nanoTime();
+        for (int i = 0; i < 6; i++) limiter.acquire();
+        long elapsed = System.nanoTime() - start;
+        // Первый токен сразу, еще пять через 20 мс
+        assertTrue(elapsed >= 95 * MS, "elapsed=" + elapsed);
+        assertTrue(elapsed < TimeUnit.SECONDS.toNanos(1), "elapsed=" + elapsed);
+    }
+
+    @Test
+    void acquireAsyncCompletesWhenTokenIsDue() throws Exception {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            RateLimiter limiter = new RateLimiter(20);
+            // Второй токен через 50 мс после первого, сколько бы ни шел сам вызов
+            long start = System.nanoTime();
+            assertTrue(limiter.acquireAsync(scheduler).isDone());
+            limiter.acquireAsync(scheduler).get(1, TimeUnit.SECONDS);
+            long elapsed = System.nanoTime() - start;
+            assertTrue(elapsed >= 50 * MS, "elapsed=" + elapsed);
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+}